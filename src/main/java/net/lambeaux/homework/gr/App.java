@@ -1,19 +1,41 @@
 package net.lambeaux.homework.gr;
 
+import static net.lambeaux.homework.gr.MiscValidation.validateThat;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import io.javalin.Javalin;
 import io.javalin.core.JavalinConfig;
 import io.javalin.core.util.RouteOverviewPlugin;
 import io.javalin.http.Context;
+import io.javalin.http.ForbiddenResponse;
 import io.javalin.http.Handler;
 import io.javalin.http.staticfiles.Location;
 import io.javalin.plugin.json.JavalinJson;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import net.lambeaux.homework.gr.changes.ChangeDispatcher;
+import net.lambeaux.homework.gr.cluster.Cluster;
 import net.lambeaux.homework.gr.core.ContentReader;
+import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.core.RecordJson;
+import net.lambeaux.homework.gr.ingest.IngestJobs;
 import net.lambeaux.homework.gr.persistence.InMemoryDatabase;
+import net.lambeaux.homework.gr.profiling.Recordings;
+import net.lambeaux.homework.gr.replication.ReplicationFollower;
+import net.lambeaux.homework.gr.replication.ReplicationLeader;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,6 +47,7 @@ import org.slf4j.LoggerFactory;
  *   <li>A static home page and related static resources.
  *   <li>A page for viewing all registered routes on this service.
  *   <li>A service that echos request information back to the caller as JSON.
+ *   <li>Controls for an on-demand flight recording of the request phases.
  * </ul>
  */
 public class App {
@@ -32,33 +55,223 @@ public class App {
   private static final Logger LOGGER = LoggerFactory.getLogger(App.class);
 
   private static final Gson GSON =
-      new GsonBuilder().setPrettyPrinting().setDateFormat("MM/dd/yyyy").create();
+      new GsonBuilder()
+          .setPrettyPrinting()
+          .setDateFormat("MM/dd/yyyy")
+          .registerTypeAdapter(Record.class, new RecordAdapter())
+          .create();
 
   private static final Integer PORT = 8080;
 
+  private static final String QUARANTINE_DIR = "quarantine";
+
+  /**
+   * Starts the service. Supported options:
+   *
+   * <ul>
+   *   <li>{@code --port <port>} HTTP port, defaults to 8080.
+   *   <li>{@code --replicate-on <port>} serve read replicas from this TCP port.
+   *   <li>{@code --follow <host>:<port>} run as a read replica of the given leader; writes over
+   *       HTTP and the command line are rejected.
+   *   <li>{@code --cluster <url>,<url>,...} partition records across these nodes, given as base
+   *       URLs in the same order to every node.
+   *   <li>{@code --node <index>} position of this instance in the {@code --cluster} list.
+   *   <li>{@code --headless} serve HTTP only, without setting up a terminal for the command line.
+   *   <li>{@code --warmup} exercise the parse, sort and serialize paths before opening the port.
+   *   <li>{@code --exit-after-start} stop again as soon as startup completed, e.g. to record an
+   *       AppCDS archive of the classes that startup loads.
+   *   <li>{@code --hot-records <count>} keep at most this many records on the heap and move the
+   *       rest to memory-mapped files.
+   *   <li>{@code --cold-dir <dir>} directory for those files, defaults to a new temp directory.
+   *   <li>{@code --quarantine-dir <dir>} directory for the rejected lines of input files, defaults
+   *       to {@code quarantine} in the working directory.
+   * </ul>
+   *
+   * @param args command line options.
+   * @throws Exception if the service cannot start.
+   */
   public static void main(String[] args) throws Exception {
-    ContentReader contentReader = new ContentReader();
-    InMemoryDatabase db = new InMemoryDatabase();
+    String quarantineDir = option(args, "--quarantine-dir");
+    ContentReader contentReader =
+        new ContentReader(
+            true,
+            Files.createDirectories(
+                Paths.get(quarantineDir == null ? QUARANTINE_DIR : quarantineDir)));
+    InMemoryDatabase db = database(option(args, "--hot-records"), option(args, "--cold-dir"));
+    String port = option(args, "--port");
+    boolean headless = flag(args, "--headless");
+
+    if (flag(args, "--warmup")) {
+      LOGGER.info("Warming up");
+      Warmup.run(contentReader, Warmup.DEFAULT_RECORDS, Warmup.DEFAULT_ROUNDS);
+    }
 
     LOGGER.info("Booting up server");
-    Javalin app = Javalin.create(App::configureJavalin).start(PORT);
-    startAppWithDependencies(app, contentReader, db, true);
+    Javalin app = Javalin.create(App::configureJavalin);
+    String leader = option(args, "--follow");
+    ReplicationFollower follower =
+        startReplication(app, db, option(args, "--replicate-on"), leader);
+    Cluster cluster = cluster(option(args, "--cluster"), option(args, "--node"));
+    IngestJobs ingestJobs = new IngestJobs(contentReader, db, leader);
+    Recordings recordings = new Recordings();
+    AtomicBoolean started = new AtomicBoolean();
+    registerHandlers(
+        app,
+        contentReader,
+        db,
+        cluster,
+        ingestJobs,
+        recordings,
+        () -> started.get() && (follower == null || follower.isSnapshotLoaded()));
+    app.start(port == null ? PORT : Integer.parseInt(port));
+    started.set(true);
+    LOGGER.info(follower == null ? "Ready" : "Ready once the first replication snapshot loaded");
+    if (flag(args, "--exit-after-start")) {
+      LOGGER.info("Startup complete, exiting");
+      System.exit(0);
+    }
+    if (!headless) {
+      new CommandLine(db, ingestJobs, recordings).loop();
+    }
   }
 
   public static void startAppWithDependencies(
       Javalin app, ContentReader contentReader, InMemoryDatabase db, boolean cli)
       throws IOException {
+    startAppWithDependencies(app, contentReader, db, cli, null);
+  }
+
+  /**
+   * Registers all handlers on a started Javalin instance and optionally runs the command line.
+   *
+   * @param app the running Javalin instance.
+   * @param contentReader parser for request bodies and input files.
+   * @param db the local database.
+   * @param cli whether to run the command line loop, which blocks until the user quits.
+   * @param cluster the partitioned cluster this node belongs to, or {@code null} if it holds every
+   *     record itself.
+   * @throws IOException if the command line cannot be started.
+   */
+  public static void startAppWithDependencies(
+      Javalin app, ContentReader contentReader, InMemoryDatabase db, boolean cli, Cluster cluster)
+      throws IOException {
+    IngestJobs ingestJobs = new IngestJobs(contentReader, db);
+    Recordings recordings = new Recordings();
+    AtomicBoolean ready = new AtomicBoolean();
+    registerHandlers(app, contentReader, db, cluster, ingestJobs, recordings, ready::get);
+    ready.set(true);
+    LOGGER.info("Ready");
+    if (cli) {
+      new CommandLine(db, ingestJobs, recordings).loop();
+    }
+  }
+
+  /**
+   * Registers all handlers. The readiness route reports whatever {@code ready} says, so the caller
+   * decides when the instance can take traffic.
+   */
+  static void registerHandlers(
+      Javalin app,
+      ContentReader contentReader,
+      InMemoryDatabase db,
+      Cluster cluster,
+      IngestJobs ingestJobs,
+      Recordings recordings,
+      BooleanSupplier ready) {
     JavalinJson.setFromJsonMapper(GSON::fromJson);
     JavalinJson.setToJsonMapper(GSON::toJson);
 
     LOGGER.info("Registering handlers");
+    app.get("/extras/ready", new ReadinessHandler(ready));
     app.get("/extras/request-summary", new RequestSummaryHandler());
+    app.get("/extras/recording", ctx -> ctx.json(recordings.status()));
+    app.post("/extras/recording", ctx -> ctx.json(recordings.start()));
+    app.delete("/extras/recording", ctx -> ctx.json(recordings.stop()));
+    app.get("/extras/recording/dump", new RecordingDumpHandler(recordings));
 
-    Handlers.inject(app, db, contentReader);
-    if (cli) {
-      CommandLine commandLine = new CommandLine(db);
-      commandLine.loop();
+    ChangeDispatcher changes = new ChangeDispatcher(db.changes());
+    app.events(event -> event.serverStopped(changes::close));
+    Handlers.inject(app, db, contentReader, ingestJobs, changes, cluster);
+  }
+
+  /**
+   * Turns this instance into a replication leader, a follower, or neither, and exposes the
+   * replication status and lag at {@code /extras/replication}.
+   *
+   * @param app the Javalin instance.
+   * @param db the database to replicate.
+   * @param leaderPort TCP port to serve followers from, or {@code null}.
+   * @param leader {@code host:port} of the leader to follow, or {@code null}.
+   * @return the follower if {@code leader} was given, otherwise {@code null}.
+   * @throws IOException if the leader port cannot be opened.
+   */
+  public static ReplicationFollower startReplication(
+      Javalin app, InMemoryDatabase db, String leaderPort, String leader) throws IOException {
+    validateThat(
+        () -> leaderPort == null || leader == null,
+        "an instance cannot both lead and follow replication");
+    if (leaderPort != null) {
+      ReplicationLeader replicationLeader = new ReplicationLeader(db, Integer.parseInt(leaderPort));
+      app.get("/extras/replication", ctx -> ctx.json(replicationLeader.status()));
+      app.events(event -> event.serverStopped(replicationLeader::close));
+    } else if (leader != null) {
+      int separator = leader.lastIndexOf(':');
+      validateThat(() -> separator > 0, "leader must be given as host:port, " + leader);
+      ReplicationFollower follower =
+          new ReplicationFollower(
+              db,
+              leader.substring(0, separator),
+              Integer.parseInt(leader.substring(separator + 1)));
+      app.get("/extras/replication", ctx -> ctx.json(follower.status()));
+      Handler rejectWrites =
+          ctx -> {
+            if (!"GET".equals(ctx.method())) {
+              throw new ForbiddenResponse("this instance is a read replica of " + leader);
+            }
+          };
+      app.before("/records", rejectWrites);
+      app.before("/ingest-jobs", rejectWrites);
+      return follower;
     }
+    return null;
+  }
+
+  // Bounds the heap tier with the --hot-records option; the cold files are removed on exit
+  private static InMemoryDatabase database(String hotRecords, String coldDir) throws IOException {
+    if (hotRecords == null) {
+      validateThat(() -> coldDir == null, "--cold-dir also needs --hot-records");
+      return new InMemoryDatabase();
+    }
+    Path dir =
+        coldDir == null
+            ? Files.createTempDirectory("gr-cold")
+            : Files.createDirectories(Paths.get(coldDir));
+    InMemoryDatabase db = new InMemoryDatabase(Integer.parseInt(hotRecords), dir);
+    Runtime.getRuntime().addShutdownHook(new Thread(db::close, "cold-cleanup"));
+    return db;
+  }
+
+  // Builds the cluster from the --cluster and --node options, or returns null without them
+  private static Cluster cluster(String nodes, String node) {
+    if (nodes == null) {
+      return null;
+    }
+    validateThat(() -> node != null, "--cluster also needs --node with this instance's index");
+    return new Cluster(Arrays.asList(nodes.split(",")), Integer.parseInt(node));
+  }
+
+  private static boolean flag(String[] args, String name) {
+    return Arrays.asList(args).contains(name);
+  }
+
+  // Returns the value following the named option, or null when it is absent
+  private static String option(String[] args, String name) {
+    for (int i = 0; i < args.length - 1; i++) {
+      if (name.equals(args[i])) {
+        return args[i + 1];
+      }
+    }
+    return null;
   }
 
   private static void configureJavalin(JavalinConfig config) {
@@ -66,6 +279,55 @@ public class App {
     config.addStaticFiles("/", "/home", Location.CLASSPATH);
   }
 
+  /**
+   * Reports 200 once startup has completed and 503 before that, so a load balancer only routes
+   * traffic to an instance that can serve it. Every route is registered and warmup, if enabled, has
+   * run before the port is even opened; a read replica only becomes ready once it has loaded its
+   * first snapshot from the leader.
+   */
+  public static class ReadinessHandler implements Handler {
+
+    private final BooleanSupplier ready;
+
+    public ReadinessHandler(BooleanSupplier ready) {
+      this.ready = ready;
+    }
+
+    @Override
+    public void handle(@NotNull Context ctx) throws Exception {
+      boolean isReady = ready.getAsBoolean();
+      ctx.status(isReady ? 200 : 503);
+      ctx.json(Collections.singletonMap("ready", isReady));
+    }
+  }
+
+  /**
+   * Sends what the running flight recording holds as a {@code .jfr} file, for opening in JDK
+   * Mission Control or {@code jfr print}. The recording keeps running.
+   */
+  public static class RecordingDumpHandler implements Handler {
+
+    private final Recordings recordings;
+
+    public RecordingDumpHandler(Recordings recordings) {
+      this.recordings = recordings;
+    }
+
+    @Override
+    public void handle(@NotNull Context ctx) throws Exception {
+      Path file = Files.createTempFile("gr-recording", ".jfr");
+      try {
+        recordings.dump(file);
+        ctx.contentType("application/octet-stream");
+        ctx.header("Content-Disposition", "attachment; filename=\"gr-recording.jfr\"");
+        ctx.res.setContentLengthLong(Files.size(file));
+        Files.copy(file, ctx.res.getOutputStream());
+      } finally {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
   /**
    * Handles requests for the "request summary" page which just prints request metadata as JSON for
    * every response.
@@ -86,4 +348,28 @@ public class App {
       ctx.json(response);
     }
   }
+
+  /**
+   * Serializes records through their getters rather than their fields, so that lazily read records
+   * are decoded on demand, and streams them instead of building a JSON tree first.
+   */
+  private static class RecordAdapter extends TypeAdapter<Record> {
+    @Override
+    public void write(JsonWriter out, Record value) throws IOException {
+      if (value == null) {
+        out.nullValue();
+      } else {
+        RecordJson.write(out, value);
+      }
+    }
+
+    @Override
+    public Record read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      return RecordJson.read(in);
+    }
+  }
 }
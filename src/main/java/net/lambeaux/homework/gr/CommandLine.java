@@ -3,20 +3,30 @@ package net.lambeaux.homework.gr;
 import static net.lambeaux.homework.gr.MiscValidation.noError;
 import static net.lambeaux.homework.gr.MiscValidation.validateThat;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.stream.Collectors;
-import net.lambeaux.homework.gr.core.ContentReader;
+import net.lambeaux.homework.gr.core.DelimitedWriter;
 import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.core.RecordSort;
+import net.lambeaux.homework.gr.core.SortSpec;
+import net.lambeaux.homework.gr.ingest.IngestJob;
+import net.lambeaux.homework.gr.ingest.IngestJobs;
 import net.lambeaux.homework.gr.persistence.InMemoryDatabase;
+import net.lambeaux.homework.gr.profiling.Recordings;
 import org.apache.commons.lang3.StringUtils;
 import org.jline.builtins.Completers;
 import org.jline.reader.Completer;
@@ -51,18 +61,45 @@ public class CommandLine {
 
   private static final String CMD_INGEST = "ingest";
 
+  private static final String CMD_JOBS = "jobs";
+
   private static final String CMD_LIST = "list";
 
+  private static final String CMD_EXPORT = "export";
+
+  private static final String CMD_RECORDING = "recording";
+
+  private static final String ARG_START = "start";
+
+  private static final String ARG_STATUS = "status";
+
+  private static final String ARG_DUMP = "dump";
+
+  private static final String ARG_STOP = "stop";
+
+  private static final String OPT_LIMIT = "--limit";
+
+  private static final String OPT_PAGE = "--page";
+
   private static final String ARG_OUTPUT_1 = "output1-email-desc-lastname-asc";
 
   private static final String ARG_OUTPUT_2 = "output2-birthdate-asc";
 
   private static final String ARG_OUTPUT_3 = "output3-lastname-desc";
 
-  private final ContentReader contentReader;
+  private static final String LIST_HEADER = " ---------------- Listing entries -----------------";
+
+  private static final String LIST_FOOTER = " --------------------------------------------------";
+
+  // Rendered lines are handed to the terminal in chunks of about this many chars
+  private static final int RENDER_CHUNK_SIZE = 64 * 1024;
 
   private final InMemoryDatabase db;
 
+  private final IngestJobs ingestJobs;
+
+  private final Recordings recordings;
+
   private final LineReader lineReader;
 
   private final Path systemWorkingDir;
@@ -77,18 +114,33 @@ public class CommandLine {
     return new AggregateCompleter(
         new ArgumentCompleter(
             new StringsCompleter(CMD_LIST),
-            new StringsCompleter(ARG_OUTPUT_1, ARG_OUTPUT_2, ARG_OUTPUT_3)),
+            new StringsCompleter(ARG_OUTPUT_1, ARG_OUTPUT_2, ARG_OUTPUT_3),
+            new StringsCompleter(OPT_LIMIT, OPT_PAGE)),
+        new ArgumentCompleter(
+            new StringsCompleter(CMD_EXPORT),
+            new StringsCompleter(ARG_OUTPUT_1, ARG_OUTPUT_2, ARG_OUTPUT_3),
+            new Completers.FilesCompleter(SYS_CURR_WORKING_DIR),
+            new NullCompleter()),
         new ArgumentCompleter(
             new StringsCompleter(CMD_INGEST),
             new AggregateCompleter(
                 new Completers.DirectoriesCompleter(SYS_CURR_WORKING_DIR),
                 new Completers.FilesCompleter(SYS_CURR_WORKING_DIR)),
+            new NullCompleter()),
+        new ArgumentCompleter(new StringsCompleter(CMD_JOBS), new NullCompleter()),
+        new ArgumentCompleter(
+            new StringsCompleter(CMD_RECORDING),
+            new StringsCompleter(ARG_START, ARG_STATUS, ARG_DUMP, ARG_STOP),
+            new Completers.FilesCompleter(SYS_CURR_WORKING_DIR),
             new NullCompleter()));
   }
 
-  public CommandLine(InMemoryDatabase db) throws IOException {
+  public CommandLine(InMemoryDatabase db, IngestJobs ingestJobs, Recordings recordings)
+      throws IOException {
     this(
         db,
+        ingestJobs,
+        recordings,
         LineReaderBuilder.builder()
             .terminal(defaultTerminal())
             .completer(defaultAutoComplete())
@@ -96,12 +148,18 @@ public class CommandLine {
         SYS_CURR_WORKING_DIR);
   }
 
-  CommandLine(InMemoryDatabase db, LineReader lineReader, Path systemWorkingDir) {
+  CommandLine(
+      InMemoryDatabase db,
+      IngestJobs ingestJobs,
+      Recordings recordings,
+      LineReader lineReader,
+      Path systemWorkingDir) {
     this.systemWorkingDir = systemWorkingDir;
     this.db = Objects.requireNonNull(db, "database cannot be null");
+    this.ingestJobs = Objects.requireNonNull(ingestJobs, "ingest jobs cannot be null");
+    this.recordings = Objects.requireNonNull(recordings, "recordings cannot be null");
     this.lineReader = Objects.requireNonNull(lineReader, "line reader cannot be null");
     this.terminal = Objects.requireNonNull(lineReader.getTerminal(), "terminal cannot be null");
-    this.contentReader = new ContentReader();
   }
 
   /**
@@ -155,65 +213,203 @@ public class CommandLine {
 
     if (CMD_INGEST.equals(cmd.get(0))) {
       validateThat(() -> cmd.size() == 2, "expecting 1 argument for 'ingest' command");
-      validateThat(() -> noError(() -> Paths.get(cmd.get(1))), "argument must be a valid path");
-      Path ingestFile = Paths.get(cmd.get(1));
-      Path ingestFileToUse =
-          ingestFile.isAbsolute() ? ingestFile : systemWorkingDir.resolve(ingestFile);
-      ingest(ingestFileToUse).forEach(rec -> db.put(rec.getEmail(), rec));
+      IngestJob job = ingestJobs.submit(systemWorkingDir, cmd.get(1));
       terminal
           .writer()
-          .println(String.format("Successfully ingested '%s'", ingestFileToUse.toString()));
+          .println(String.format("Started ingest job %d for '%s'", job.getId(), job.getPath()));
+      return;
+    }
+
+    if (CMD_JOBS.equals(cmd.get(0))) {
+      validateThat(() -> cmd.size() == 1, "expecting no arguments for 'jobs' command");
+      ingestJobs.all().forEach(job -> terminal.writer().println(job.progress().toString()));
       return;
     }
 
     if (CMD_LIST.equals(cmd.get(0))) {
-      validateThat(() -> cmd.size() == 2, "expecting 1 argument for 'list' command");
-      SortedSet<Record> results = list(cmd.get(1));
-      terminal.writer().println(" ---------------- Listing entries -----------------");
-      results.forEach((rec) -> terminal.writer().println(rec.toString()));
-      terminal.writer().println(" --------------------------------------------------");
+      validateThat(
+          () -> cmd.size() >= 2 && cmd.size() % 2 == 0,
+          "expecting 1 argument and optional --limit and --page for 'list' command");
+      Map<String, Integer> options = listOptions(cmd.subList(2, cmd.size()));
+      validateThat(
+          () -> !options.containsKey(OPT_PAGE) || options.containsKey(OPT_LIMIT),
+          "--page requires --limit");
+      List<Record> results = list(cmd.get(1));
+      render(results, options.getOrDefault(OPT_LIMIT, 0), options.getOrDefault(OPT_PAGE, 1));
+      return;
+    }
+
+    if (CMD_EXPORT.equals(cmd.get(0))) {
+      validateThat(() -> cmd.size() == 3, "expecting 2 arguments for 'export' command");
+      Path file = exportFile(cmd.get(2));
+      List<Record> results = list(cmd.get(1));
+      export(results, file);
+      terminal.writer().println(String.format("Exported %d entries to '%s'", results.size(), file));
+      return;
+    }
+
+    if (CMD_RECORDING.equals(cmd.get(0))) {
+      validateThat(
+          () -> cmd.size() >= 2 && cmd.size() <= 3,
+          "expecting start, status, stop or dump <file> for 'recording' command");
+      recording(cmd.get(1), cmd.subList(2, cmd.size()));
       return;
     }
 
     terminal.writer().println("Unrecognized command");
   }
 
-  private SortedSet<Record> list(String outputType) {
-    SortedSet<Record> results;
-    switch (outputType) {
-      case ARG_OUTPUT_1:
-        results =
-            new TreeSet<>(
-                Comparator.comparing(Record::getEmail, Comparator.reverseOrder())
-                    .thenComparing(Record::getLastName, Comparator.naturalOrder()));
+  private void recording(String action, List<String> args) throws IOException {
+    validateThat(
+        () -> args.isEmpty() || ARG_DUMP.equals(action),
+        String.format("'recording %s' takes no further arguments", action));
+    switch (action) {
+      case ARG_START:
+        terminal.writer().println(recordings.start());
         break;
-      case ARG_OUTPUT_2:
-        results =
-            new TreeSet<>(Comparator.comparing(Record::getDateOfBirth, Comparator.naturalOrder()));
+      case ARG_STATUS:
+        terminal.writer().println(recordings.status());
         break;
-      case ARG_OUTPUT_3:
-        results =
-            new TreeSet<>(Comparator.comparing(Record::getLastName, Comparator.reverseOrder()));
+      case ARG_STOP:
+        terminal.writer().println(recordings.stop());
+        break;
+      case ARG_DUMP:
+        validateThat(() -> args.size() == 1, "expecting a file for 'recording dump'");
+        validateThat(() -> noError(() -> Paths.get(args.get(0))), "argument must be a valid path");
+        Path file = systemWorkingDir.resolve(args.get(0)).toAbsolutePath();
+        recordings.dump(file);
+        terminal.writer().println(String.format("Dumped recording to '%s'", file));
         break;
       default:
         throw new IllegalArgumentException(
             String.format(
-                "invalid output format, expected %s, %s, or %s",
-                ARG_OUTPUT_1, ARG_OUTPUT_2, ARG_OUTPUT_3));
+                "unknown recording action '%s', expected start, status, stop or dump", action));
     }
-    results.addAll(db.allValues());
-    return results;
   }
 
-  private List<Record> ingest(Path filePath) throws IOException {
-    File file = Objects.requireNonNull(filePath, "filePath cannot be null").toFile();
-    validateThat(file::exists, "file " + file.toString() + " must exist");
-    validateThat(file::isFile, "file " + file.toString() + " must be a file with data");
+  private static Map<String, Integer> listOptions(List<String> args) {
+    Map<String, Integer> options = new HashMap<>();
+    for (int i = 0; i < args.size(); i += 2) {
+      String name = args.get(i);
+      String value = args.get(i + 1);
+      validateThat(
+          () -> OPT_LIMIT.equals(name) || OPT_PAGE.equals(name),
+          String.format("unknown option '%s', expected %s or %s", name, OPT_LIMIT, OPT_PAGE));
+      validateThat(
+          () -> value.matches("[1-9][0-9]{0,8}"),
+          String.format("%s must be a positive number", name));
+      options.put(name, Integer.parseInt(value));
+    }
+    return options;
+  }
+
+  /*
+   * Lines are collected into one buffer and handed to the terminal a chunk at a time, instead of
+   * one println per record. A limit of 0 renders everything.
+   */
+  private void render(List<Record> results, int limit, int page) {
+    int total = results.size();
+    int from = limit == 0 ? 0 : (int) Math.min(total, (long) (page - 1) * limit);
+    int to = limit == 0 ? total : (int) Math.min(total, (long) from + limit);
+
+    PrintWriter writer = terminal.writer();
+    StringBuilder chunk = new StringBuilder(RENDER_CHUNK_SIZE + 256);
+    chunk.append(LIST_HEADER).append(System.lineSeparator());
 
+    SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+    Map<Long, String> dates = new HashMap<>();
+    for (Record rec : results.subList(from, to)) {
+      String date =
+          dates.computeIfAbsent(
+              rec.getDateOfBirth().getTime(), millis -> dateFormat.format(rec.getDateOfBirth()));
+      // Same text as Record.toString(), without going through String.format
+      chunk
+          .append(rec.getFirstName())
+          .append(' ')
+          .append(rec.getLastName())
+          .append(" (")
+          .append(rec.getEmail())
+          .append("), born ")
+          .append(date)
+          .append(", likes ")
+          .append(rec.getFavoriteColor())
+          .append(System.lineSeparator());
+      if (chunk.length() >= RENDER_CHUNK_SIZE) {
+        writer.print(chunk.toString());
+        chunk.setLength(0);
+      }
+    }
+
+    if (limit != 0) {
+      int pages = (total + limit - 1) / limit;
+      chunk.append(
+          String.format(" Page %d of %d, showing %d of %d entries", page, pages, to - from, total));
+      chunk.append(System.lineSeparator());
+    }
+    chunk.append(LIST_FOOTER).append(System.lineSeparator());
+    writer.print(chunk.toString());
+    writer.flush();
+  }
+
+  private Path exportFile(String location) {
+    validateThat(() -> noError(() -> Paths.get(location)), "argument must be a valid path");
+    Path file = systemWorkingDir.resolve(location).toAbsolutePath();
+    validateThat(
+        () -> !Files.isDirectory(file), String.format("'%s' is a directory", file.toString()));
+    validateThat(
+        () -> file.getParent() != null && Files.isDirectory(file.getParent()),
+        String.format("directory of '%s' does not exist", file.toString()));
     validateThat(
-        () -> contentReader.canHandle(filePath),
-        "file " + file.toString() + " is not a supported format");
+        () -> DelimitedWriter.negotiate(mediaType(file)) != null,
+        String.format("file '%s' must end in .csv, .psv or .ssv", file.toString()));
+    return file;
+  }
+
+  /*
+   * Records go through the writer's own buffer straight into the file channel, so the export
+   * never holds more than one buffer of encoded text.
+   */
+  private static void export(List<Record> results, Path file) throws IOException {
+    try (FileChannel channel =
+            FileChannel.open(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        OutputStream out = Channels.newOutputStream(channel)) {
+      DelimitedWriter writer = new DelimitedWriter(out, mediaType(file));
+      for (Record rec : results) {
+        writer.write(rec);
+      }
+      writer.flush();
+    }
+  }
+
+  private static String mediaType(Path file) {
+    String name = file.getFileName().toString();
+    return "text/" + name.substring(name.lastIndexOf('.') + 1);
+  }
 
-    return contentReader.read(filePath);
+  private List<Record> list(String outputType) {
+    SortSpec spec;
+    switch (outputType) {
+      case ARG_OUTPUT_1:
+        spec = SortSpec.parse("email:desc,lastName:asc");
+        break;
+      case ARG_OUTPUT_2:
+        spec = SortSpec.parse("dateOfBirth:asc");
+        break;
+      case ARG_OUTPUT_3:
+        spec = SortSpec.parse("lastName:desc");
+        break;
+      default:
+        validateThat(
+            () -> noError(() -> SortSpec.parse(outputType)),
+            String.format(
+                "invalid output format, expected %s, %s, %s, or a sort spec such as %s",
+                ARG_OUTPUT_1, ARG_OUTPUT_2, ARG_OUTPUT_3, "lastName:asc,email:desc"));
+        spec = SortSpec.parse(outputType);
+    }
+    return RecordSort.sort(db.allValues(), spec);
   }
 }
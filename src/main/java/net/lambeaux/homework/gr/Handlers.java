@@ -3,76 +3,560 @@ package net.lambeaux.homework.gr;
 import static net.lambeaux.homework.gr.MiscValidation.validateThat;
 
 import io.javalin.Javalin;
+import io.javalin.http.BadGatewayResponse;
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
-import java.util.Comparator;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import io.javalin.http.NotFoundResponse;
+import io.javalin.http.sse.SseClient;
+import io.javalin.plugin.json.JavalinJson;
+import io.javalin.websocket.WsHandler;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import net.lambeaux.homework.gr.changes.ChangeDispatcher;
+import net.lambeaux.homework.gr.changes.ChangeDispatcher.Subscription;
+import net.lambeaux.homework.gr.cluster.Cluster;
+import net.lambeaux.homework.gr.core.BinaryRecords;
 import net.lambeaux.homework.gr.core.ContentReader;
+import net.lambeaux.homework.gr.core.DelimitedWriter;
 import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.core.RecordJson;
+import net.lambeaux.homework.gr.core.RecordSort;
+import net.lambeaux.homework.gr.core.SortSpec;
+import net.lambeaux.homework.gr.ingest.IngestJob;
+import net.lambeaux.homework.gr.ingest.IngestJobs;
+import net.lambeaux.homework.gr.persistence.ChangeFeed;
 import net.lambeaux.homework.gr.persistence.InMemoryDatabase;
+import net.lambeaux.homework.gr.profiling.PhaseEvents;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.websocket.api.StatusCode;
 import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class Handlers {
 
-  // Adds REST handlers to Javalin app, keeps path definitions next to called code
-  public static void inject(Javalin app, InMemoryDatabase db, ContentReader reader) {
-    app.get("/records/:sort", new Get(db));
-    app.post("/records", new Create(reader, db));
+  private static final Logger LOGGER = LoggerFactory.getLogger(Handlers.class);
+
+  // Adds REST handlers to Javalin app, keeps path definitions next to called code; the cluster is
+  // null when this instance holds every record
+  public static void inject(
+      Javalin app,
+      InMemoryDatabase db,
+      ContentReader reader,
+      IngestJobs ingestJobs,
+      ChangeDispatcher changes,
+      Cluster cluster) {
+    Get get = new Get(db, cluster);
+    app.get("/records/search", new Search(db));
+    app.get("/records", get);
+    app.get("/records/:sort", get);
+    app.post("/records", new Create(reader, db, cluster));
+    app.get("/ingest-jobs/:id", new GetIngestJob(ingestJobs));
+    app.post("/ingest-jobs", new CreateIngestJob(ingestJobs));
+    app.sse("/record-changes", new StreamChanges(changes));
+    app.ws("/record-changes/ws", new StreamChangesWs(changes));
   }
 
+  /**
+   * Lists all records in the requested order, given as a {@link SortSpec} in the path or in the
+   * {@code sort} query parameter. In a partitioned cluster the receiving node merges the sorted
+   * records of every partition, unless the request is limited to the local scope.
+   *
+   * <p>Identical local reads that arrive while one is being answered share its work: requests for
+   * the same order at the same database version wait for the first one to sort the records, then
+   * each streams that shared sorted list to its own response in the format it asked for.
+   */
   public static class Get implements Handler {
 
+    private static final String SORT_PARAM = "sort";
+
+    private static final String JSON = "application/json";
+
+    private static final String DELIMITED_CHARSET = "; charset=utf-8";
+
     private final InMemoryDatabase db;
 
+    private final Cluster cluster;
+
+    private final SingleFlight<String, List<Record>> localSorts;
+
     public Get(InMemoryDatabase db) {
+      this(db, null);
+    }
+
+    public Get(InMemoryDatabase db, Cluster cluster) {
       this.db = db;
+      this.cluster = cluster;
+      this.localSorts = new SingleFlight<>();
     }
 
     @Override
     public void handle(@NotNull Context ctx) throws Exception {
-      String sort = ctx.pathParam("sort");
-      validateThat(() -> !sort.isEmpty(), String.format("invalid sort param, '%s'", sort));
-      SortedSet<Record> results;
-      switch (sort) {
-        case "email":
-          results = new TreeSet<>(Comparator.comparing(Record::getEmail));
-          break;
-        case "birthdate":
-          results = new TreeSet<>(Comparator.comparing(Record::getDateOfBirth));
-          break;
-        case "name":
-          results =
-              new TreeSet<>(
-                  Comparator.comparing(Record::getLastName).thenComparing(Record::getFirstName));
-          break;
-        default:
-          throw new IllegalArgumentException(
-              String.format("invalid sort was specified, '%s'", sort));
-      }
-      results.addAll(db.allValues());
-      ctx.json(results);
+      String sort =
+          ctx.pathParamMap().containsKey(SORT_PARAM)
+              ? ctx.pathParam(SORT_PARAM)
+              : ctx.queryParam(SORT_PARAM);
+      validateThat(
+          () -> sort != null && !sort.isEmpty(), String.format("invalid sort param, '%s'", sort));
+      SortSpec spec = SortSpec.parse(sort);
+      String contentType = contentType(ctx.header("Accept"));
+      ctx.contentType(contentType);
+      if (cluster == null || Cluster.SCOPE_LOCAL.equals(ctx.queryParam(Cluster.SCOPE_PARAM))) {
+        String key = db.version() + " " + spec;
+        List<Record> sorted = localSorts.get(key, () -> RecordSort.sort(db.allValues(), spec));
+        PhaseEvents.Serialize event = new PhaseEvents.Serialize();
+        event.begin();
+        CountingOutputStream out = new CountingOutputStream(ctx.res.getOutputStream());
+        write(out, contentType, sorted.iterator());
+        if (event.shouldCommit()) {
+          event.contentType = contentType;
+          event.records = sorted.size();
+          event.bytes = out.count;
+          event.commit();
+        }
+        return;
+      }
+      List<Record> results = RecordSort.sort(db.allValues(), spec);
+      // Every partition has answered and sent its first record before any byte is written
+      Cluster.MergedRecords merged;
+      try {
+        merged = cluster.openSorted(spec, results);
+      } catch (IOException | UncheckedIOException e) {
+        throw new BadGatewayResponse("could not read all partitions, " + e.getMessage());
+      }
+      try (Cluster.MergedRecords open = merged) {
+        write(ctx.res.getOutputStream(), contentType, open);
+      } catch (UncheckedIOException e) {
+        partitionFailed(ctx, e);
+      }
+    }
+
+    /*
+     * A partition failed midway through the merge. While the response is still buffered it can be
+     * replaced with an error; once part of it was sent, the connection is aborted instead, so the
+     * client sees a broken response rather than a short listing with a success status.
+     */
+    private static void partitionFailed(Context ctx, UncheckedIOException e) {
+      if (!ctx.res.isCommitted()) {
+        ctx.res.resetBuffer();
+        throw new BadGatewayResponse("could not read all partitions, " + e.getMessage());
+      }
+      LOGGER.warn("Aborting merged listing, a partition failed midway: {}", e.getMessage());
+      Request.getBaseRequest(ctx.req).getHttpChannel().abort(e);
+    }
+
+    // Picks the binary or delimited text format if the client accepts it, JSON otherwise
+    private static String contentType(String accept) {
+      String delimited = DelimitedWriter.negotiate(accept);
+      if (BinaryRecords.isRequested(accept)) {
+        return BinaryRecords.MIME_TYPE;
+      } else if (delimited != null) {
+        return delimited + DELIMITED_CHARSET;
+      } else {
+        return JSON;
+      }
+    }
+
+    private static void write(OutputStream out, String contentType, Iterator<Record> records)
+        throws IOException {
+      if (contentType.equals(BinaryRecords.MIME_TYPE)) {
+        writeBinary(out, records);
+      } else if (contentType.endsWith(DELIMITED_CHARSET)) {
+        String mediaType =
+            contentType.substring(0, contentType.length() - DELIMITED_CHARSET.length());
+        writeDelimited(out, mediaType, records);
+      } else {
+        RecordJson.writeArray(out, records);
+      }
+    }
+
+    private static void writeDelimited(OutputStream out, String mediaType, Iterator<Record> records)
+        throws IOException {
+      DelimitedWriter writer = new DelimitedWriter(out, mediaType);
+      while (records.hasNext()) {
+        writer.write(records.next());
+      }
+      writer.flush();
+    }
+
+    private static void writeBinary(OutputStream out, Iterator<Record> records) throws IOException {
+      BinaryRecords.Encoder encoder = BinaryRecords.encoder(out);
+      while (records.hasNext()) {
+        encoder.write(records.next());
+      }
+      encoder.finish();
+    }
+
+    // Counts what a streamed listing wrote, for its Serialize event
+    private static class CountingOutputStream extends FilterOutputStream {
+
+      private long count;
+
+      private CountingOutputStream(OutputStream out) {
+        super(out);
+      }
+
+      @Override
+      public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+      }
     }
   }
 
+  /**
+   * Stores one text record, or any number of records sent in the {@link BinaryRecords} format. In a
+   * partitioned cluster, records owned by another node are forwarded to it and its response status
+   * is passed back.
+   */
   public static class Create implements Handler {
 
+    private static final int BATCH_SIZE = 4096;
+
     private final InMemoryDatabase db;
 
     private final ContentReader contentReader;
 
+    private final Cluster cluster;
+
     public Create(ContentReader contentReader, InMemoryDatabase db) {
+      this(contentReader, db, null);
+    }
+
+    public Create(ContentReader contentReader, InMemoryDatabase db, Cluster cluster) {
       this.contentReader = contentReader;
       this.db = db;
+      this.cluster = cluster;
     }
 
     @Override
     public void handle(@NotNull Context ctx) throws Exception {
       String mimeType = ctx.contentType();
+      if (BinaryRecords.isRequested(mimeType)) {
+        createAll(ctx);
+        return;
+      }
       validateThat(
           () -> contentReader.canHandle(ctx), "cannot process request with mimetype " + mimeType);
       Record rec = contentReader.read(ctx);
-      db.put(rec.getEmail(), rec);
+      if (cluster == null || cluster.isLocal(rec.getEmail())) {
+        db.put(rec.getEmail(), rec);
+        return;
+      }
+      forward(
+          ctx,
+          cluster.owner(rec.getEmail()),
+          ctx.bodyAsBytes(),
+          mimeType,
+          ctx.header("Content-Encoding"));
+    }
+
+    /*
+     * Decompresses and decodes the body as it arrives and stores it in chunks. Records owned by
+     * other nodes are re-encoded per owner and forwarded uncompressed once the whole body has been
+     * read.
+     */
+    private void createAll(Context ctx) throws IOException {
+      Map<Integer, ByteArrayOutputStream> forwardBodies = new HashMap<>();
+      Map<Integer, BinaryRecords.Encoder> forwardEncoders = new HashMap<>();
+      List<Record> batch = new ArrayList<>(BATCH_SIZE);
+      try {
+        BinaryRecords.Decoder decoder = BinaryRecords.decoder(ContentReader.bodyStream(ctx));
+        while (decoder.hasNext()) {
+          Record rec = decoder.next();
+          if (cluster == null || cluster.isLocal(rec.getEmail())) {
+            batch.add(rec);
+            if (batch.size() == BATCH_SIZE) {
+              db.putAll(batch);
+              batch = new ArrayList<>(BATCH_SIZE);
+            }
+            continue;
+          }
+          int owner = cluster.owner(rec.getEmail());
+          BinaryRecords.Encoder encoder = forwardEncoders.get(owner);
+          if (encoder == null) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            encoder = BinaryRecords.encoder(body);
+            forwardBodies.put(owner, body);
+            forwardEncoders.put(owner, encoder);
+          }
+          encoder.write(rec);
+        }
+      } catch (IOException | UncheckedIOException e) {
+        throw new IllegalArgumentException("could not read binary records, " + e.getMessage(), e);
+      } finally {
+        // Whatever was read before a malformed entry is kept, like the chunks stored before it
+        if (!batch.isEmpty()) {
+          db.putAll(batch);
+        }
+      }
+      for (Map.Entry<Integer, BinaryRecords.Encoder> entry : forwardEncoders.entrySet()) {
+        entry.getValue().finish();
+        forward(
+            ctx,
+            entry.getKey(),
+            forwardBodies.get(entry.getKey()).toByteArray(),
+            BinaryRecords.MIME_TYPE,
+            null);
+      }
+    }
+
+    // Passes the owner's status back, keeping the first failure when several owners are involved
+    private void forward(
+        Context ctx, int owner, byte[] body, String contentType, String contentEncoding) {
+      int status;
+      try {
+        status = cluster.forwardCreate(owner, body, contentType, contentEncoding);
+      } catch (IOException e) {
+        throw new BadGatewayResponse(
+            "could not forward records to their partition, " + e.getMessage());
+      }
+      if (ctx.status() < 400) {
+        ctx.status(status);
+      }
+    }
+  }
+
+  /**
+   * Finds records by partial last name, first name or email, given as whitespace separated terms in
+   * the {@code q} query parameter, best matches first. Returns at most {@code limit} records, 20
+   * unless requested otherwise. Only searches the records held by this instance.
+   */
+  public static class Search implements Handler {
+
+    private static final int DEFAULT_LIMIT = 20;
+
+    private static final int MAX_LIMIT = 1000;
+
+    private final InMemoryDatabase db;
+
+    public Search(InMemoryDatabase db) {
+      this.db = db;
+    }
+
+    @Override
+    public void handle(@NotNull Context ctx) throws Exception {
+      String query = ctx.queryParam("q");
+      validateThat(() -> query != null, "search needs a 'q' query parameter");
+      int limit = ctx.queryParam("limit", Integer.class, String.valueOf(DEFAULT_LIMIT)).get();
+      validateThat(
+          () -> limit > 0 && limit <= MAX_LIMIT,
+          String.format("limit must be between 1 and %d", MAX_LIMIT));
+      ctx.json(db.search(query, limit));
+    }
+  }
+
+  public static class GetIngestJob implements Handler {
+
+    private final IngestJobs ingestJobs;
+
+    public GetIngestJob(IngestJobs ingestJobs) {
+      this.ingestJobs = ingestJobs;
+    }
+
+    @Override
+    public void handle(@NotNull Context ctx) throws Exception {
+      long id = ctx.pathParam("id", Long.class).get();
+      IngestJob job =
+          ingestJobs
+              .get(id)
+              .orElseThrow(() -> new NotFoundResponse(String.format("no ingest job %d", id)));
+      ctx.json(job.progress());
+    }
+  }
+
+  public static class CreateIngestJob implements Handler {
+
+    private final IngestJobs ingestJobs;
+
+    public CreateIngestJob(IngestJobs ingestJobs) {
+      this.ingestJobs = ingestJobs;
+    }
+
+    @Override
+    public void handle(@NotNull Context ctx) throws Exception {
+      IngestJobRequest request = ctx.bodyAsClass(IngestJobRequest.class);
+      validateThat(
+          () -> request.path != null && !request.path.trim().isEmpty(),
+          "request must name a file, directory or glob 'path' to ingest");
+      IngestJob job = ingestJobs.submit(Paths.get("").toAbsolutePath(), request.path.trim());
+      ctx.status(202).json(job.progress());
+    }
+  }
+
+  /** Body of a request to start an ingest job. */
+  private static class IngestJobRequest {
+    private String path;
+  }
+
+  /**
+   * Streams record changes as server-sent events named {@code records}, each carrying a batch of
+   * changes and using its resume token as the event id. Browsers resume automatically through the
+   * {@code Last-Event-ID} header; other clients can pass the last token they saw as {@code since}.
+   * A token from another epoch of the feed, such as one handed out before a restart, gets a reset
+   * event first, see {@link ChangeMessage}.
+   */
+  public static class StreamChanges implements Consumer<SseClient> {
+
+    private final ChangeDispatcher changes;
+
+    public StreamChanges(ChangeDispatcher changes) {
+      this.changes = changes;
+    }
+
+    @Override
+    public void accept(SseClient client) {
+      String token = client.ctx.header("Last-Event-ID");
+      if (token == null) {
+        token = client.ctx.queryParam("since");
+      }
+      Subscription subscription;
+      try {
+        long head = changes.head();
+        OptionalLong sequence = resumeSequence(changes, token, head);
+        if (!sequence.isPresent()) {
+          send(client, ChangeMessage.reset(head, changes));
+        }
+        subscription =
+            changes.subscribe(
+                sequence.orElse(head), batch -> send(client, new ChangeMessage(batch, changes)));
+      } catch (IllegalArgumentException e) {
+        // The event stream is already open at this point, so report the error through it
+        client.sendEvent("rejected", e.getMessage());
+        client.ctx.req.getAsyncContext().complete();
+        return;
+      }
+      client.onClose(subscription::cancel);
+    }
+
+    private static void send(SseClient client, ChangeMessage message) {
+      client.sendEvent("records", JavalinJson.toJson(message), message.token);
+    }
+  }
+
+  /**
+   * Streams record changes over a WebSocket, one JSON text message per batch of changes. Clients
+   * resume by passing the last token they saw as {@code since}; a token from another epoch of the
+   * feed gets a reset message first, see {@link ChangeMessage}.
+   */
+  public static class StreamChangesWs implements Consumer<WsHandler> {
+
+    private final ChangeDispatcher changes;
+
+    private final Map<String, Subscription> subscriptions;
+
+    public StreamChangesWs(ChangeDispatcher changes) {
+      this.changes = changes;
+      this.subscriptions = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void accept(WsHandler ws) {
+      ws.onConnect(
+          ctx -> {
+            try {
+              long head = changes.head();
+              OptionalLong sequence = resumeSequence(changes, ctx.queryParam("since"), head);
+              if (!sequence.isPresent()) {
+                ctx.send(JavalinJson.toJson(ChangeMessage.reset(head, changes))).get();
+              }
+              subscriptions.put(
+                  ctx.getSessionId(),
+                  changes.subscribe(
+                      sequence.orElse(head),
+                      batch ->
+                          ctx.send(JavalinJson.toJson(new ChangeMessage(batch, changes))).get()));
+            } catch (IllegalArgumentException e) {
+              ctx.session.close(StatusCode.POLICY_VIOLATION, e.getMessage());
+            }
+          });
+      ws.onClose(ctx -> cancel(ctx.getSessionId()));
+      ws.onError(ctx -> cancel(ctx.getSessionId()));
+    }
+
+    private void cancel(String sessionId) {
+      Subscription subscription = subscriptions.remove(sessionId);
+      if (subscription != null) {
+        subscription.cancel();
+      }
+    }
+  }
+
+  // Subscribers without a token only receive changes made from now on
+  private static OptionalLong resumeSequence(ChangeDispatcher changes, String token, long head) {
+    if (token == null || token.trim().isEmpty()) {
+      return OptionalLong.of(head);
+    }
+    return changes.resumeSequence(token);
+  }
+
+  /**
+   * What change subscribers receive: a batch of changes and the token to resume after it. A reset
+   * message carries no records and tells a subscriber whose token belongs to another epoch of the
+   * feed that everything it knows may be stale: it has to re-read all records, then resume from the
+   * message's token. Serialized field by field.
+   */
+  private static class ChangeMessage {
+
+    private final String token;
+
+    private final boolean reset;
+
+    private final long fromSequence;
+
+    private final long toSequence;
+
+    private final long missed;
+
+    private final List<Record> records;
+
+    private ChangeMessage(ChangeFeed.Batch batch, ChangeDispatcher changes) {
+      this(
+          changes.token(batch.getToSequence()),
+          false,
+          batch.getFromSequence(),
+          batch.getToSequence(),
+          batch.getMissed(),
+          batch.getRecords());
+    }
+
+    private ChangeMessage(
+        String token,
+        boolean reset,
+        long fromSequence,
+        long toSequence,
+        long missed,
+        List<Record> records) {
+      this.token = token;
+      this.reset = reset;
+      this.fromSequence = fromSequence;
+      this.toSequence = toSequence;
+      this.missed = missed;
+      this.records = records;
+    }
+
+    private static ChangeMessage reset(long head, ChangeDispatcher changes) {
+      return new ChangeMessage(
+          changes.token(head), true, head + 1, head, 0L, Collections.emptyList());
     }
   }
 }
@@ -0,0 +1,68 @@
+package net.lambeaux.homework.gr;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Lets concurrent callers with the same key share one computation. The first caller for a key
+ * computes the value on its own thread while every caller that arrives before it finishes waits
+ * for, and then receives, that same value or exception. Nothing is cached: once the computation
+ * completes the next caller starts a new one.
+ *
+ * @param <K> key identifying identical computations.
+ * @param <V> result of a computation.
+ */
+public class SingleFlight<K, V> {
+
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * Runs {@code computation}, or joins the run already in flight for {@code key}.
+   *
+   * @param key identifies computations that give the same result.
+   * @param computation produces the result, only invoked by the first caller.
+   * @return the shared result.
+   * @throws Exception whatever the shared computation threw.
+   */
+  public V get(K key, Callable<V> computation) throws Exception {
+    CompletableFuture<V> own = new CompletableFuture<>();
+    CompletableFuture<V> running = inFlight.putIfAbsent(key, own);
+    if (running != null) {
+      return join(running);
+    }
+    try {
+      V value = computation.call();
+      own.complete(value);
+      return value;
+    } catch (Exception | Error e) {
+      own.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, own);
+    }
+  }
+
+  /**
+   * Counts the keys that currently have a computation running.
+   *
+   * @return the number of computations in flight.
+   */
+  int inFlight() {
+    return inFlight.size();
+  }
+
+  private static <V> V join(CompletableFuture<V> running) throws Exception {
+    try {
+      return running.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw (Error) cause;
+    }
+  }
+}
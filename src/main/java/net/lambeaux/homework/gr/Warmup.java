@@ -0,0 +1,112 @@
+package net.lambeaux.homework.gr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import net.lambeaux.homework.gr.core.BinaryRecords;
+import net.lambeaux.homework.gr.core.ContentReader;
+import net.lambeaux.homework.gr.core.DelimitedWriter;
+import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.core.RecordJson;
+import net.lambeaux.homework.gr.core.RecordSort;
+import net.lambeaux.homework.gr.core.SortSpec;
+import net.lambeaux.homework.gr.persistence.InMemoryDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs generated records through the same parse, store, sort and serialize code that requests use,
+ * so that those classes are loaded and their hot methods compiled before the first real request.
+ * Nothing is kept: the records go into a scratch database and the output is discarded.
+ */
+class Warmup {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Warmup.class);
+
+  static final int DEFAULT_RECORDS = 20000;
+
+  static final int DEFAULT_ROUNDS = 5;
+
+  private static final List<String> SORTS =
+      Arrays.asList("email", "birthdate", "name", "favoriteColor:asc,dateOfBirth:desc,email");
+
+  private static final String[] COLORS = {"red", "green", "blue", "yellow", "purple", "unknown"};
+
+  private static final OutputStream DISCARD =
+      new OutputStream() {
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte[] b, int off, int len) {}
+      };
+
+  private Warmup() {}
+
+  /**
+   * Warms up every read and write path.
+   *
+   * @param reader the reader that will parse real input.
+   * @param records number of generated records per round.
+   * @param rounds number of times every path is exercised.
+   * @throws IOException if the scratch input file cannot be written.
+   */
+  static void run(ContentReader reader, int records, int rounds) throws IOException {
+    long start = System.nanoTime();
+    Path input = Files.createTempFile("gr-warmup", ".csv");
+    try {
+      Files.write(input, generate(records));
+      for (int round = 0; round < rounds; round++) {
+        InMemoryDatabase db = new InMemoryDatabase();
+        db.putAll(reader.read(input));
+        for (String sort : SORTS) {
+          List<Record> sorted = RecordSort.sort(db.allValues(), SortSpec.parse(sort));
+          serialize(sorted);
+        }
+      }
+    } finally {
+      Files.deleteIfExists(input);
+    }
+    LOGGER.info(
+        "Warmed up with {} rounds of {} records in {} ms",
+        rounds,
+        records,
+        (System.nanoTime() - start) / 1_000_000);
+  }
+
+  private static List<String> generate(int records) {
+    Random random = new Random(records);
+    List<String> lines = new ArrayList<>(records);
+    for (int i = 0; i < records; i++) {
+      lines.add(
+          String.format(
+              "Last%d, First%d, warmup%d@example.net, %s, %02d/%02d/%d",
+              random.nextInt(records),
+              random.nextInt(100),
+              i,
+              COLORS[random.nextInt(COLORS.length)],
+              random.nextInt(12) + 1,
+              random.nextInt(28) + 1,
+              1920 + random.nextInt(100)));
+    }
+    return lines;
+  }
+
+  private static void serialize(List<Record> records) throws IOException {
+    RecordJson.writeArray(DISCARD, records.iterator());
+
+    DelimitedWriter delimited = new DelimitedWriter(DISCARD, DelimitedWriter.TEXT_CSV);
+    BinaryRecords.Encoder binary = BinaryRecords.encoder(DISCARD);
+    for (Record rec : records) {
+      delimited.write(rec);
+      binary.write(rec);
+    }
+    delimited.flush();
+    binary.finish();
+  }
+}
@@ -0,0 +1,256 @@
+package net.lambeaux.homework.gr.changes;
+
+import static net.lambeaux.homework.gr.MiscValidation.validateThat;
+
+import java.io.Closeable;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.lambeaux.homework.gr.persistence.ChangeFeed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pushes the records of a {@link ChangeFeed} to any number of subscribers. A single dispatcher
+ * thread waits for the feed to advance and hands each idle subscriber a delivery task; a subscriber
+ * only ever has one delivery in flight. Whatever was published while a slow subscriber was still
+ * busy is sent to it as one coalesced batch afterwards, so a slow client receives fewer, larger
+ * messages instead of holding up the writers or the other subscribers. Both the dispatcher thread
+ * and the senders run until the dispatcher is closed.
+ */
+public class ChangeDispatcher implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ChangeDispatcher.class);
+
+  static final int MAX_BATCH_SIZE = 1024;
+
+  private static final long IDLE_WAIT_MILLIS = 1000L;
+
+  private static final char TOKEN_SEPARATOR = ':';
+
+  private final ChangeFeed feed;
+
+  private final Set<Subscription> subscriptions;
+
+  private final ExecutorService senders;
+
+  private final Thread dispatcher;
+
+  private volatile boolean closed;
+
+  public ChangeDispatcher(ChangeFeed feed) {
+    this.feed = Objects.requireNonNull(feed, "feed cannot be null");
+    this.subscriptions = ConcurrentHashMap.newKeySet();
+
+    AtomicInteger senderCount = new AtomicInteger();
+    this.senders =
+        Executors.newCachedThreadPool(
+            runnable -> {
+              Thread thread =
+                  new Thread(runnable, "change-sender-" + senderCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+
+    this.dispatcher = new Thread(this::dispatch, "change-dispatcher");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  /**
+   * Returns the sequence of the latest change, which is where new subscribers start by default.
+   *
+   * @return the current head of the feed.
+   */
+  public long head() {
+    return feed.head();
+  }
+
+  /**
+   * Builds the token a subscriber resumes from after having seen {@code sequence}. Tokens read
+   * {@code epoch:sequence}, see {@link ChangeFeed#epoch()}, so that a token handed out by an
+   * earlier process is recognized as such instead of being taken for a position in this one.
+   *
+   * @param sequence the last sequence the subscriber has seen.
+   * @return the resume token.
+   */
+  public String token(long sequence) {
+    return feed.epoch() + String.valueOf(TOKEN_SEPARATOR) + sequence;
+  }
+
+  /**
+   * Reads the position a resume token refers to.
+   *
+   * @param token a token from {@link #token(long)}.
+   * @return the sequence to resume after, or empty if the token belongs to another epoch of the
+   *     feed, or predates epochs, in which case the subscriber must re-read everything.
+   * @throws IllegalArgumentException if the token is malformed.
+   */
+  public OptionalLong resumeSequence(String token) {
+    String trimmed = token.trim();
+    int separator = trimmed.indexOf(TOKEN_SEPARATOR);
+    try {
+      if (separator < 0) {
+        Long.parseLong(trimmed);
+        return OptionalLong.empty();
+      }
+      long epoch = Long.parseLong(trimmed.substring(0, separator));
+      long sequence = Long.parseLong(trimmed.substring(separator + 1));
+      return epoch == feed.epoch() ? OptionalLong.of(sequence) : OptionalLong.empty();
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(String.format("invalid change token, '%s'", token), e);
+    }
+  }
+
+  /**
+   * Starts delivering every change published after {@code sequence} to a listener.
+   *
+   * @param sequence the last sequence the subscriber has already seen.
+   * @param listener receives batches of changes, one call at a time.
+   * @return the subscription, which must be cancelled once the subscriber goes away.
+   */
+  public Subscription subscribe(long sequence, ChangeListener listener) {
+    Objects.requireNonNull(listener, "listener cannot be null");
+    if (closed) {
+      throw new IllegalStateException("change dispatcher is closed");
+    }
+    long head = feed.head();
+    validateThat(
+        () -> sequence >= 0 && sequence <= head,
+        String.format("cannot resume from sequence %d, the latest is %d", sequence, head));
+    Subscription subscription = new Subscription(sequence, listener);
+    subscriptions.add(subscription);
+    subscription.schedule();
+    return subscription;
+  }
+
+  /**
+   * Stops the dispatcher thread and the senders and cancels every subscription. A delivery that is
+   * in progress is interrupted; subscribers are not told, the caller closes their connections.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    dispatcher.interrupt();
+    senders.shutdownNow();
+    for (Subscription subscription : subscriptions) {
+      subscription.cancel();
+    }
+  }
+
+  /**
+   * Waits for the dispatcher thread and the senders to finish after {@link #close()}.
+   *
+   * @param timeout the longest time to wait.
+   * @param unit unit of {@code timeout}.
+   * @return whether every thread finished in time.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    dispatcher.join(Math.max(1L, unit.toMillis(timeout)));
+    return !dispatcher.isAlive()
+        && senders.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+  }
+
+  int subscriberCount() {
+    return subscriptions.size();
+  }
+
+  private void dispatch() {
+    long seen = feed.head();
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        seen = feed.awaitAfter(seen, IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        for (Subscription subscription : subscriptions) {
+          subscription.schedule();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (RuntimeException e) {
+        LOGGER.error("Change dispatcher failed to schedule deliveries", e);
+      }
+    }
+  }
+
+  /** Receives changes for one subscriber. */
+  public interface ChangeListener {
+    void accept(ChangeFeed.Batch batch) throws Exception;
+  }
+
+  /** One subscriber's position in the feed. */
+  public class Subscription {
+
+    private final ChangeListener listener;
+
+    private final AtomicBoolean sending;
+
+    private volatile long sequence;
+
+    private volatile boolean cancelled;
+
+    private Subscription(long sequence, ChangeListener listener) {
+      this.listener = listener;
+      this.sending = new AtomicBoolean(false);
+      this.sequence = sequence;
+      this.cancelled = false;
+    }
+
+    /**
+     * Returns the last sequence delivered to this subscriber.
+     *
+     * @return the subscriber's position in the feed.
+     */
+    public long getSequence() {
+      return sequence;
+    }
+
+    public void cancel() {
+      cancelled = true;
+      subscriptions.remove(this);
+    }
+
+    // Starts a delivery unless one is already running, or there is nothing new to send
+    private void schedule() {
+      if (cancelled || closed || sequence >= feed.head() || !sending.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        senders.execute(this::deliver);
+      } catch (RejectedExecutionException e) {
+        // The dispatcher was closed in between
+        sending.set(false);
+      } catch (RuntimeException e) {
+        sending.set(false);
+        throw e;
+      }
+    }
+
+    /*
+     * Sends batches until the subscriber has caught up. The check after releasing the flag covers
+     * changes that the dispatcher saw, but skipped, while this delivery was still running.
+     */
+    private void deliver() {
+      try {
+        while (!cancelled && sequence < feed.head()) {
+          ChangeFeed.Batch batch = feed.readAfter(sequence, MAX_BATCH_SIZE);
+          listener.accept(batch);
+          sequence = batch.getToSequence();
+        }
+      } catch (Exception e) {
+        LOGGER.info("Dropping change subscriber after failed delivery: " + e.getMessage());
+        cancel();
+      } finally {
+        sending.set(false);
+      }
+      schedule();
+    }
+  }
+}
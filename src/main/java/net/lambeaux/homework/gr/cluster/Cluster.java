@@ -0,0 +1,235 @@
+package net.lambeaux.homework.gr.cluster;
+
+import static net.lambeaux.homework.gr.MiscValidation.validateThat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.lambeaux.homework.gr.core.BinaryRecords;
+import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.core.SortSpec;
+
+/**
+ * Splits records across a fixed list of service instances by a hash of their email. Every node is
+ * started with the same node list and its own position in it, so all nodes agree on which one owns
+ * a record. Writes are forwarded to the owner; sorted reads ask every partition for its own sorted
+ * records and merge them k-way while the merged result is written out, so no node ever holds the
+ * full data set. Nodes talk to each other in the {@link BinaryRecords} format.
+ */
+public class Cluster {
+
+  /** Query parameter that limits a read to the records of the receiving node. */
+  public static final String SCOPE_PARAM = "scope";
+
+  public static final String SCOPE_LOCAL = "local";
+
+  private final List<String> nodes;
+
+  private final int self;
+
+  private final ExecutorService fetchers;
+
+  /**
+   * Creates the view of a cluster from one node.
+   *
+   * @param nodes base URLs of every node, e.g. {@code http://localhost:8080}, in the same order on
+   *     every node.
+   * @param self position of this node in {@code nodes}.
+   */
+  public Cluster(List<String> nodes, int self) {
+    Objects.requireNonNull(nodes, "nodes cannot be null");
+    validateThat(() -> !nodes.isEmpty(), "a cluster needs at least one node");
+    validateThat(
+        () -> self >= 0 && self < nodes.size(),
+        String.format("node index %d is not between 0 and %d", self, nodes.size() - 1));
+    this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+    this.self = self;
+
+    AtomicInteger fetcherCount = new AtomicInteger();
+    this.fetchers =
+        Executors.newCachedThreadPool(
+            runnable -> {
+              Thread thread =
+                  new Thread(runnable, "cluster-fetcher-" + fetcherCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  public List<String> getNodes() {
+    return nodes;
+  }
+
+  public int getSelf() {
+    return self;
+  }
+
+  /**
+   * Finds the node that stores a record. The hash only depends on the email's chars, so it is the
+   * same on every JVM.
+   *
+   * @param email key of the record.
+   * @return the owning node's position in {@link #getNodes()}.
+   */
+  public int owner(String email) {
+    int h = email.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return Integer.remainderUnsigned(h, nodes.size());
+  }
+
+  public boolean isLocal(String email) {
+    return owner(email) == self;
+  }
+
+  /**
+   * Sends a create request on to another node.
+   *
+   * @param node position of the receiving node in {@link #getNodes()}.
+   * @param body the request body, holding only records that {@code node} owns.
+   * @param contentType the body's {@code Content-Type}.
+   * @param contentEncoding the body's {@code Content-Encoding}, or {@code null}.
+   * @return the receiving node's response status.
+   * @throws IOException if the node cannot be reached.
+   */
+  public int forwardCreate(int node, byte[] body, String contentType, String contentEncoding)
+      throws IOException {
+    return NodeClient.post(nodes.get(node) + "/records", body, contentType, contentEncoding);
+  }
+
+  /**
+   * Merges the sorted records of every partition. All remote partitions are requested in parallel
+   * in the binary record format and are then consumed one record at a time, so memory use is
+   * bounded by the number of partitions rather than the number of records. Every record is stored
+   * on exactly one partition, so the merge drops nothing.
+   *
+   * @param spec the listing order, passed on to every partition.
+   * @param local this node's own records, already sorted by {@code spec}.
+   * @return the merged records, which must be closed to release the partition connections.
+   * @throws IOException if a partition cannot be reached.
+   */
+  public MergedRecords openSorted(SortSpec spec, Iterable<Record> local) throws IOException {
+    List<CompletableFuture<NodeClient.RecordStream>> requests = new ArrayList<>();
+    for (int node = 0; node < nodes.size(); node++) {
+      if (node != self) {
+        // Specs only hold field names, directions, colons and commas, none of which need escaping
+        String url =
+            String.format(
+                "%s/records?sort=%s&%s=%s", nodes.get(node), spec, SCOPE_PARAM, SCOPE_LOCAL);
+        requests.add(CompletableFuture.supplyAsync(() -> openStream(url), fetchers));
+      }
+    }
+    List<NodeClient.RecordStream> streams = new ArrayList<>();
+    try {
+      for (CompletableFuture<NodeClient.RecordStream> request : requests) {
+        streams.add(request.join());
+      }
+      MergedRecords merged = new MergedRecords(spec.comparator(), streams);
+      merged.add(local.iterator());
+      for (NodeClient.RecordStream stream : streams) {
+        merged.add(stream);
+      }
+      return merged;
+    } catch (CompletionException | UncheckedIOException e) {
+      for (CompletableFuture<NodeClient.RecordStream> request : requests) {
+        request.thenAccept(NodeClient.RecordStream::close);
+      }
+      Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+      throw (cause instanceof UncheckedIOException)
+          ? ((UncheckedIOException) cause).getCause()
+          : new IOException("could not read partition", cause);
+    }
+  }
+
+  private static NodeClient.RecordStream openStream(String url) {
+    try {
+      return NodeClient.getRecords(url);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Records of all partitions in merged order. Reading may throw {@link UncheckedIOException} if a
+   * partition fails midway.
+   */
+  public static class MergedRecords implements Iterator<Record>, Closeable {
+
+    private final List<NodeClient.RecordStream> streams;
+
+    private final PriorityQueue<Cursor> heads;
+
+    private MergedRecords(Comparator<Record> order, List<NodeClient.RecordStream> streams) {
+      this.streams = streams;
+      this.heads = new PriorityQueue<>((a, b) -> order.compare(a.head, b.head));
+    }
+
+    private void add(Iterator<Record> records) {
+      Cursor cursor = new Cursor(records);
+      if (cursor.advance()) {
+        heads.add(cursor);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !heads.isEmpty();
+    }
+
+    @Override
+    public Record next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Cursor cursor = heads.poll();
+      Record next = cursor.head;
+      advance(cursor);
+      return next;
+    }
+
+    @Override
+    public void close() {
+      streams.forEach(NodeClient.RecordStream::close);
+    }
+
+    private void advance(Cursor cursor) {
+      if (cursor.advance()) {
+        heads.add(cursor);
+      }
+    }
+  }
+
+  /** The next unmerged record of one partition. */
+  private static class Cursor {
+
+    private final Iterator<Record> records;
+
+    private Record head;
+
+    private Cursor(Iterator<Record> records) {
+      this.records = records;
+    }
+
+    private boolean advance() {
+      if (!records.hasNext()) {
+        return false;
+      }
+      head = records.next();
+      return true;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package net.lambeaux.homework.gr.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Iterator;
+import net.lambeaux.homework.gr.core.BinaryRecords;
+import net.lambeaux.homework.gr.core.Record;
+
+/** Minimal HTTP client for calls between cluster nodes. */
+class NodeClient {
+
+  private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+  private static final int READ_TIMEOUT_MILLIS = 30000;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private NodeClient() {}
+
+  static int post(String url, byte[] body, String contentType, String contentEncoding)
+      throws IOException {
+    HttpURLConnection conn = open(url);
+    try {
+      conn.setRequestMethod("POST");
+      conn.setDoOutput(true);
+      conn.setFixedLengthStreamingMode(body.length);
+      conn.setRequestProperty("Content-Type", contentType);
+      if (contentEncoding != null) {
+        conn.setRequestProperty("Content-Encoding", contentEncoding);
+      }
+      try (OutputStream out = conn.getOutputStream()) {
+        out.write(body);
+      }
+      int status = conn.getResponseCode();
+      drain(status < 400 ? conn.getInputStream() : conn.getErrorStream());
+      return status;
+    } finally {
+      conn.disconnect();
+    }
+  }
+
+  /**
+   * Requests records in the binary record format and returns them as they are read off the wire.
+   *
+   * @param url the records endpoint of a node.
+   * @return the records in the order the node sent them.
+   * @throws IOException if the node cannot be reached or did not answer with success.
+   */
+  static RecordStream getRecords(String url) throws IOException {
+    HttpURLConnection conn = open(url);
+    conn.setRequestProperty("Accept", BinaryRecords.MIME_TYPE);
+    int status = conn.getResponseCode();
+    if (status != HttpURLConnection.HTTP_OK) {
+      drain(conn.getErrorStream());
+      conn.disconnect();
+      throw new IOException(String.format("partition %s answered with status %d", url, status));
+    }
+    try {
+      return new RecordStream(conn, BinaryRecords.decoder(conn.getInputStream()));
+    } catch (IOException e) {
+      conn.disconnect();
+      throw e;
+    }
+  }
+
+  private static HttpURLConnection open(String url) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+    conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+    return conn;
+  }
+
+  private static void drain(InputStream in) throws IOException {
+    if (in == null) {
+      return;
+    }
+    try (InputStream body = in) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      while (body.read(buffer) >= 0) {
+        // Reading the body to the end lets the connection be reused
+      }
+    }
+  }
+
+  /** Records of a binary response, decoded one at a time. */
+  static class RecordStream implements Iterator<Record>, Closeable {
+
+    private final HttpURLConnection conn;
+
+    private final BinaryRecords.Decoder decoder;
+
+    private RecordStream(HttpURLConnection conn, BinaryRecords.Decoder decoder) {
+      this.conn = conn;
+      this.decoder = decoder;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return decoder.hasNext();
+    }
+
+    @Override
+    public Record next() {
+      return decoder.next();
+    }
+
+    @Override
+    public void close() {
+      try {
+        decoder.close();
+      } catch (IOException e) {
+        // Nothing left to read from a connection that is going away anyway
+      } finally {
+        conn.disconnect();
+      }
+    }
+  }
+}
@@ -0,0 +1,308 @@
+package net.lambeaux.homework.gr.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact binary encoding of a stream of records, served as {@value #MIME_TYPE}. A stream starts
+ * with a schema header and is followed by one tagged entry per record:
+ *
+ * <pre>
+ * header: 'G' 'R' 'B' version, varint field count, then per field: string name, byte type
+ * entry:  byte 1, lastName, firstName, email, color, zigzag varint epoch day of birth
+ * end:    byte 0
+ * </pre>
+ *
+ * <p>Strings are a varint byte length followed by UTF-8. Colors are dictionary coded: each color is
+ * a varint index into the colors seen so far in this stream, and the index one past the end is
+ * followed by the new color's string. Records can be encoded and decoded one at a time, so neither
+ * side has to hold the whole stream.
+ */
+public class BinaryRecords {
+
+  public static final String MIME_TYPE = "application/x-gr-records";
+
+  private static final byte[] MAGIC = {'G', 'R', 'B'};
+
+  private static final byte VERSION = 1;
+
+  private static final byte TYPE_STRING = 1;
+
+  private static final byte TYPE_DICTIONARY_STRING = 2;
+
+  private static final byte TYPE_EPOCH_DAY = 3;
+
+  private static final String[] FIELD_NAMES = {
+    "lastName", "firstName", "email", "favoriteColor", "dateOfBirth"
+  };
+
+  private static final byte[] FIELD_TYPES = {
+    TYPE_STRING, TYPE_STRING, TYPE_STRING, TYPE_DICTIONARY_STRING, TYPE_EPOCH_DAY
+  };
+
+  private static final byte TAG_END = 0;
+
+  private static final byte TAG_RECORD = 1;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int MAX_STRING_BYTES = 1 << 20;
+
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+
+  private BinaryRecords() {}
+
+  /**
+   * Checks whether a {@code Content-Type} or {@code Accept} header names this format.
+   *
+   * @param header the header value, may be {@code null}.
+   * @return {@code true} if the header lists {@value #MIME_TYPE}.
+   */
+  public static boolean isRequested(String header) {
+    return header != null && header.contains(MIME_TYPE);
+  }
+
+  /**
+   * Starts a stream by writing its schema header.
+   *
+   * @param out destination of the stream; it is buffered internally.
+   * @return an encoder for the records of the stream.
+   * @throws IOException if the header cannot be written.
+   */
+  public static Encoder encoder(OutputStream out) throws IOException {
+    return new Encoder(out);
+  }
+
+  /**
+   * Reads and checks the schema header of a stream.
+   *
+   * @param in source of the stream; it is buffered internally.
+   * @return a decoder for the records of the stream.
+   * @throws IOException if the header is missing or describes a different schema.
+   */
+  public static Decoder decoder(InputStream in) throws IOException {
+    return new Decoder(in);
+  }
+
+  /** Writes records to a stream; {@link #finish()} must be called after the last one. */
+  public static class Encoder implements Flushable {
+
+    private final OutputStream out;
+
+    private final Map<String, Integer> colors;
+
+    private Encoder(OutputStream out) throws IOException {
+      this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+      this.colors = new HashMap<>();
+      this.out.write(MAGIC);
+      this.out.write(VERSION);
+      writeVarint(FIELD_NAMES.length);
+      for (int i = 0; i < FIELD_NAMES.length; i++) {
+        writeString(FIELD_NAMES[i]);
+        this.out.write(FIELD_TYPES[i]);
+      }
+    }
+
+    public void write(Record rec) throws IOException {
+      out.write(TAG_RECORD);
+      writeString(rec.getLastName());
+      writeString(rec.getFirstName());
+      writeString(rec.getEmail());
+      String color = rec.getFavoriteColor();
+      Integer code = colors.get(color);
+      if (code == null) {
+        writeVarint(colors.size());
+        writeString(color);
+        colors.put(color, colors.size());
+      } else {
+        writeVarint(code);
+      }
+      long epochDay =
+          rec.getDateOfBirth()
+              .toInstant()
+              .atZone(ZoneId.systemDefault())
+              .toLocalDate()
+              .toEpochDay();
+      writeVarint((epochDay << 1) ^ (epochDay >> 63));
+    }
+
+    /**
+     * Ends the stream and flushes it; the underlying stream is left open.
+     *
+     * @throws IOException if the stream cannot be written.
+     */
+    public void finish() throws IOException {
+      out.write(TAG_END);
+      out.flush();
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    private void writeString(String value) throws IOException {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarint(bytes.length);
+      out.write(bytes);
+    }
+
+    private void writeVarint(long value) throws IOException {
+      while ((value & ~0x7FL) != 0) {
+        out.write((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      out.write((int) value);
+    }
+  }
+
+  /** Reads records from a stream, one at a time, until its end marker. */
+  public static class Decoder implements Iterator<Record>, Closeable {
+
+    private final InputStream in;
+
+    private final List<String> colors;
+
+    private boolean finished;
+
+    private Record next;
+
+    private Decoder(InputStream in) throws IOException {
+      this.in = new BufferedInputStream(in, BUFFER_SIZE);
+      this.colors = new ArrayList<>();
+      byte[] magic = new byte[MAGIC.length];
+      readFully(magic);
+      if (!Arrays.equals(magic, MAGIC) || readByte() != VERSION) {
+        throw new IOException("input is not a version " + VERSION + " binary record stream");
+      }
+      long fieldCount = readVarint();
+      if (fieldCount != FIELD_NAMES.length) {
+        throw new IOException("binary record stream has " + fieldCount + " fields");
+      }
+      for (int i = 0; i < FIELD_NAMES.length; i++) {
+        String name = readString();
+        if (!FIELD_NAMES[i].equals(name) || readByte() != FIELD_TYPES[i]) {
+          throw new IOException("binary record stream has unexpected field '" + name + "'");
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && !finished) {
+        try {
+          next = readRecord();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public Record next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Record rec = next;
+      next = null;
+      return rec;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    private Record readRecord() throws IOException {
+      byte tag = readByte();
+      if (tag == TAG_END) {
+        finished = true;
+        return null;
+      }
+      if (tag != TAG_RECORD) {
+        throw new IOException("invalid entry tag in binary record stream, " + tag);
+      }
+      String lastName = readString();
+      String firstName = readString();
+      String email = readString();
+      long code = readVarint();
+      String color;
+      if (code == colors.size()) {
+        color = readString();
+        colors.add(color);
+      } else if (code >= 0 && code < colors.size()) {
+        color = colors.get((int) code);
+      } else {
+        throw new IOException("invalid color code in binary record stream, " + code);
+      }
+      long zigzag = readVarint();
+      long epochDay = (zigzag >>> 1) ^ -(zigzag & 1);
+      try {
+        return new Record(
+            lastName, firstName, email, color, LocalDate.ofEpochDay(epochDay).format(DATE_FORMAT));
+      } catch (RuntimeException e) {
+        throw new IOException("invalid record in binary record stream, " + e.getMessage(), e);
+      }
+    }
+
+    private String readString() throws IOException {
+      long length = readVarint();
+      if (length < 0 || length > MAX_STRING_BYTES) {
+        throw new IOException("invalid string length in binary record stream, " + length);
+      }
+      byte[] bytes = new byte[(int) length];
+      readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long readVarint() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("varint in binary record stream is too long");
+    }
+
+    private byte readByte() throws IOException {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException("binary record stream ended early");
+      }
+      return (byte) b;
+    }
+
+    private void readFully(byte[] bytes) throws IOException {
+      int offset = 0;
+      while (offset < bytes.length) {
+        int read = in.read(bytes, offset, bytes.length - offset);
+        if (read < 0) {
+          throw new EOFException("binary record stream ended early");
+        }
+        offset += read;
+      }
+    }
+  }
+}
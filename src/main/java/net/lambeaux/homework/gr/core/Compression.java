@@ -0,0 +1,92 @@
+package net.lambeaux.homework.gr.core;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compression formats that input content can be wrapped in. A format is recognized by its file
+ * extension (for example {@code sample.csv.gz}), by its {@code Content-Encoding} token, or by the
+ * magic bytes at the start of the content.
+ */
+enum Compression {
+  NONE(null, null, new byte[0]),
+  GZIP("gz", "gzip", new byte[] {0x1f, (byte) 0x8b}),
+  ZSTD("zst", "zstd", new byte[] {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd});
+
+  static final int MAGIC_LENGTH = 4;
+
+  private final String extension;
+
+  private final String contentEncoding;
+
+  private final byte[] magic;
+
+  Compression(String extension, String contentEncoding, byte[] magic) {
+    this.extension = extension;
+    this.contentEncoding = contentEncoding;
+    this.magic = magic;
+  }
+
+  static Compression fromExtension(String ext) {
+    for (Compression compression : values()) {
+      if (compression.extension != null && compression.extension.equalsIgnoreCase(ext)) {
+        return compression;
+      }
+    }
+    return NONE;
+  }
+
+  /**
+   * Maps a {@code Content-Encoding} header to a format.
+   *
+   * @param contentEncoding header value, may be {@code null}.
+   * @return the format, or {@code null} if the encoding is not supported.
+   */
+  static Compression fromContentEncoding(String contentEncoding) {
+    if (contentEncoding == null
+        || contentEncoding.trim().isEmpty()
+        || "identity".equalsIgnoreCase(contentEncoding.trim())) {
+      return NONE;
+    }
+    for (Compression compression : values()) {
+      if (compression.contentEncoding != null
+          && compression.contentEncoding.equalsIgnoreCase(contentEncoding.trim())) {
+        return compression;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Identifies the format from the first bytes of the content.
+   *
+   * @param header up to {@link #MAGIC_LENGTH} leading bytes.
+   * @param length number of valid bytes in {@code header}.
+   * @return the detected format, {@link #NONE} if the content is not compressed.
+   */
+  static Compression sniff(byte[] header, int length) {
+    for (Compression compression : values()) {
+      int size = compression.magic.length;
+      if (size > 0
+          && length >= size
+          && Arrays.equals(Arrays.copyOf(header, size), compression.magic)) {
+        return compression;
+      }
+    }
+    return NONE;
+  }
+
+  InputStream decode(InputStream in) throws IOException {
+    switch (this) {
+      case GZIP:
+        return new GZIPInputStream(in, 64 * 1024);
+      case ZSTD:
+        return new ZstdInputStream(in);
+      default:
+        return in;
+    }
+  }
+}
@@ -1,28 +1,37 @@
 package net.lambeaux.homework.gr.core;
 
-import static net.lambeaux.homework.gr.MiscValidation.noErrorChecked;
 import static net.lambeaux.homework.gr.MiscValidation.validateThat;
 
 import io.javalin.http.Context;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import net.lambeaux.homework.gr.profiling.PhaseEvents;
 
 public class ContentReader {
 
-  private static final Logger LOGGER = LoggerFactory.getLogger(ContentReader.class);
-
   private static final String WHITE_SPACE = " ";
 
+  private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int MAX_DECODED_BODY_BYTES = 16 * 1024 * 1024;
+
   private static final String EXT_CSV = "csv";
 
   private static final String EXT_PSV = "psv";
@@ -31,17 +40,48 @@ public class ContentReader {
 
   private final Map<String, ParseStrategy> parsers;
 
+  private final Path quarantineDir;
+
   public ContentReader() {
+    this(false);
+  }
+
+  public ContentReader(boolean lazyRecords) {
+    this(lazyRecords, null);
+  }
+
+  /**
+   * Creates a reader for all supported formats.
+   *
+   * @param lazyRecords if {@code true}, records read from files only decode their email up front
+   *     and decode their remaining fields on first access; single records read from a request are
+   *     always decoded eagerly.
+   * @param quarantineDir directory that rejected lines are written to, or {@code null} to write
+   *     them next to each input file.
+   */
+  public ContentReader(boolean lazyRecords, Path quarantineDir) {
     this.parsers = new HashMap<>();
-    this.parsers.put(EXT_CSV, new ParseStrategy(","));
-    this.parsers.put(EXT_PSV, new ParseStrategy("\\|"));
-    this.parsers.put(EXT_SSV, new ParseStrategy(WHITE_SPACE));
+    this.parsers.put(EXT_CSV, new ParseStrategy(",", ',', lazyRecords));
+    this.parsers.put(EXT_PSV, new ParseStrategy("\\|", '|', lazyRecords));
+    this.parsers.put(EXT_SSV, new ParseStrategy(WHITE_SPACE, ' ', lazyRecords));
+    this.quarantineDir = quarantineDir;
   }
 
   public boolean canHandle(Path filePath) {
     return parsers.containsKey(getExt(filePath));
   }
 
+  /**
+   * Tells side files of rejected lines apart from input, so that loading a directory again does not
+   * load what an earlier run quarantined there.
+   *
+   * @param filePath any file.
+   * @return {@code true} if the file is named like a side file written by this reader.
+   */
+  public boolean isQuarantine(Path filePath) {
+    return QuarantineSink.isTarget(filePath);
+  }
+
   public boolean canHandle(Context context) {
     return parsers.containsKey(getExt(context));
   }
@@ -51,22 +91,134 @@ public class ContentReader {
     validateThat(
         () -> parser != null,
         "file " + filePath.toAbsolutePath().toString() + " is not a supported format");
-    return parser.readAndReport(filePath);
+    try (Utf8LineReader reader = open(filePath);
+        QuarantineSink quarantine = parser.quarantine(filePath, getExt(filePath), quarantineDir)) {
+      return parser.readAndReport(reader, quarantine, filePath.getFileName().toString());
+    }
+  }
+
+  /**
+   * Streams the file through the matching parser, handing valid records to {@code consumer} in
+   * chunks that each cover at most {@code batchSize} input lines. Invalid lines are skipped and
+   * quarantined, see {@link QuarantineSink}, but still count towards the lines of the chunk they
+   * appeared in.
+   *
+   * @param filePath file to read.
+   * @param batchSize maximum number of input lines per chunk.
+   * @param consumer receives each chunk as soon as it is parsed.
+   * @throws IOException if the file cannot be read.
+   * @throws InterruptedException if the consumer was interrupted while handing off a chunk.
+   */
+  public void read(Path filePath, int batchSize, BatchConsumer consumer)
+      throws IOException, InterruptedException {
+    ParseStrategy parser = parsers.get(getExt(filePath));
+    validateThat(
+        () -> parser != null,
+        "file " + filePath.toAbsolutePath().toString() + " is not a supported format");
+    validateThat(() -> batchSize > 0, "batch size must be positive");
+    try (Utf8LineReader reader = open(filePath);
+        QuarantineSink quarantine = parser.quarantine(filePath, getExt(filePath), quarantineDir)) {
+      parser.readInBatches(
+          reader, batchSize, consumer, quarantine, filePath.getFileName().toString());
+    }
   }
 
   public Record read(Context context) {
-    String body = context.body();
+    String body = body(context);
     String line = body.split(System.lineSeparator())[0];
     ParseStrategy parser = parsers.get(getExt(context));
     validateThat(
         () -> parser != null,
         String.format("unsupported content-type '%s'", context.contentType()));
-    return parser.read(line);
+    PhaseEvents.Parse event = new PhaseEvents.Parse();
+    event.begin();
+    Record rec = parser.read(line);
+    if (event.shouldCommit()) {
+      event.source = context.path();
+      event.lines = 1;
+      event.records = 1;
+      event.bytes = line.getBytes(StandardCharsets.UTF_8).length;
+      event.commit();
+    }
+    return rec;
+  }
+
+  /**
+   * Opens a request body for streaming, decoded according to its {@code Content-Encoding}.
+   *
+   * @param context the request.
+   * @return the decoded body, read as it arrives.
+   * @throws IOException if the body cannot be read or its compression header is invalid.
+   * @throws IllegalArgumentException if the content encoding is not supported.
+   */
+  public static InputStream bodyStream(Context context) throws IOException {
+    String encoding = context.header(HEADER_CONTENT_ENCODING);
+    Compression compression = Compression.fromContentEncoding(encoding);
+    validateThat(
+        () -> compression != null, String.format("unsupported content-encoding '%s'", encoding));
+    return compression.decode(context.req.getInputStream());
   }
 
+  // Compressed files are named after their content with the compression suffix appended
   private String getExt(Path path) {
     String absPathStr = path.toFile().getAbsolutePath();
-    return absPathStr.substring(absPathStr.lastIndexOf('.') + 1);
+    String ext = absPathStr.substring(absPathStr.lastIndexOf('.') + 1);
+    if (Compression.fromExtension(ext) == Compression.NONE) {
+      return ext;
+    }
+    String innerPathStr = absPathStr.substring(0, absPathStr.lastIndexOf('.'));
+    return innerPathStr.substring(innerPathStr.lastIndexOf('.') + 1);
+  }
+
+  /*
+   * Compression is detected from the magic bytes rather than the extension, so mislabeled files
+   * still load. Decompression runs on its own thread, a few chunks ahead of the parser.
+   */
+  private static Utf8LineReader open(Path filePath) throws IOException {
+    InputStream in = new BufferedInputStream(Files.newInputStream(filePath), BUFFER_SIZE);
+    try {
+      byte[] header = new byte[Compression.MAGIC_LENGTH];
+      in.mark(header.length);
+      int length = 0;
+      int read;
+      while (length < header.length
+          && (read = in.read(header, length, header.length - length)) > 0) {
+        length += read;
+      }
+      in.reset();
+      Compression compression = Compression.sniff(header, length);
+      if (compression != Compression.NONE) {
+        in = new ReadAheadInputStream(compression.decode(in), filePath.getFileName().toString());
+      }
+      return new Utf8LineReader(in, BUFFER_SIZE);
+    } catch (IOException | RuntimeException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  private static String body(Context context) {
+    String encoding = context.header(HEADER_CONTENT_ENCODING);
+    Compression compression = Compression.fromContentEncoding(encoding);
+    validateThat(
+        () -> compression != null, String.format("unsupported content-encoding '%s'", encoding));
+    if (compression == Compression.NONE) {
+      return context.body();
+    }
+    try (InputStream in = compression.decode(new ByteArrayInputStream(context.bodyAsBytes()))) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+        validateThat(
+            () -> out.size() <= MAX_DECODED_BODY_BYTES,
+            "decoded request body is larger than " + MAX_DECODED_BODY_BYTES + " bytes");
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    } catch (IOException | RuntimeException e) {
+      throw new IllegalArgumentException("could not decode request body, " + e.getMessage(), e);
+    }
   }
 
   private String getExt(Context context) {
@@ -81,37 +233,98 @@ public class ContentReader {
     return parts[1];
   }
 
+  /** Receives the records parsed from a chunk of input lines. */
+  @FunctionalInterface
+  public interface BatchConsumer {
+    void accept(List<Record> records, int linesRead) throws InterruptedException;
+  }
+
   /** Can parse input files based upon the provided delimiter. */
   private static class ParseStrategy {
 
     private final String delimiter;
 
-    private ParseStrategy(String delimiter) {
+    private final char delimiterChar;
+
+    private final boolean lazy;
+
+    private ParseStrategy(String delimiter, char delimiterChar, boolean lazy) {
       if (Objects.requireNonNull(delimiter, "delimiter cannot be null").isEmpty()) {
         throw new IllegalArgumentException("delimiter cannot be empty");
       }
       this.delimiter = delimiter;
+      this.delimiterChar = delimiterChar;
+      this.lazy = lazy;
     }
 
-    private List<Record> readAndReport(Path filePath) throws IOException {
-      List<ParseResult> results =
-          Files.lines(filePath)
-              .map(line -> line.split(delimiter))
-              .map(ParseResult::new)
-              .collect(Collectors.toList());
+    private QuarantineSink quarantine(Path filePath, String ext, Path quarantineDir) {
+      return new QuarantineSink(
+          filePath, QuarantineSink.target(filePath, ext, quarantineDir), delimiterChar);
+    }
 
-      List<String> badLines =
-          results.stream()
-              .filter(r -> !r.isValid())
-              .map(ParseResult::getErr)
-              .collect(Collectors.toList());
+    private List<Record> readAndReport(
+        Utf8LineReader reader, QuarantineSink quarantine, String source) throws IOException {
+      List<Record> records = new ArrayList<>();
+      try {
+        readInBatches(
+            reader, Integer.MAX_VALUE, (batch, lines) -> records.addAll(batch), quarantine, source);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("interrupted while reading input", e);
+      }
+      return records;
+    }
 
-      badLines.forEach(line -> LOGGER.info("Invalid record found within input file: " + line));
+    // Each chunk is timed by its own parse event, which ends before the consumer gets the chunk
+    private void readInBatches(
+        Utf8LineReader reader,
+        int batchSize,
+        BatchConsumer consumer,
+        QuarantineSink quarantine,
+        String source)
+        throws IOException, InterruptedException {
+      List<Record> batch = new ArrayList<>();
+      LineCheck check = new LineCheck();
+      PhaseEvents.Parse event = new PhaseEvents.Parse();
+      event.begin();
+      long chunkStart = 0;
+      long lineNumber = 0;
+      int lines = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        Record rec = lazy ? check.parseLazy(line, delimiterChar) : check.parse(line, delimiter);
+        if (rec != null) {
+          batch.add(rec);
+        } else {
+          quarantine.reject(lineNumber, check.getError(), check.getField(), line);
+        }
+        if (++lines == batchSize) {
+          commit(event, source, lines, batch.size(), reader.consumed() - chunkStart);
+          consumer.accept(batch, lines);
+          batch = new ArrayList<>();
+          lines = 0;
+          chunkStart = reader.consumed();
+          event = new PhaseEvents.Parse();
+          event.begin();
+        }
+      }
+      if (lines > 0) {
+        commit(event, source, lines, batch.size(), reader.consumed() - chunkStart);
+        consumer.accept(batch, lines);
+      }
+    }
 
-      return results.stream()
-          .filter(ParseResult::isValid)
-          .map(ParseResult::getRecord)
-          .collect(Collectors.toList());
+    private static void commit(
+        PhaseEvents.Parse event, String source, int lines, int records, long bytes) {
+      if (event.shouldCommit()) {
+        event.source = source;
+        event.lines = lines;
+        event.records = records;
+        event.rejected = lines - records;
+        event.bytes = bytes;
+        event.commit();
+      }
     }
 
     private List<Record> read(Path filePath) throws IOException {
@@ -133,55 +346,82 @@ public class ContentReader {
     }
   }
 
-  private static class ParseResult {
+  /*
+   * Validates lines without throwing, allocating lambdas or formatting messages. A single instance
+   * is reused for every line of one read; after a rejected line it holds the error and the field
+   * it applies to until the next line is checked.
+   */
+  static class LineCheck {
 
-    private final Record record;
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT =
+        ThreadLocal.withInitial(() -> new SimpleDateFormat("MM/dd/yyyy"));
 
-    private final String err;
+    private final int[] bounds = new int[DelimitedLine.FIELD_COUNT * 2];
 
-    private ParseResult(String[] array) {
-      String errStr = validate(array);
-      if (errStr == null) {
-        this.record = new Record(array);
-        this.err = null;
-      } else {
-        this.record = null;
-        this.err = errStr;
-      }
-    }
+    private final ParsePosition position = new ParsePosition(0);
+
+    private LineError error;
+
+    private int field;
 
-    public boolean isValid() {
-      return record != null;
+    LineError getError() {
+      return error;
     }
 
-    public Record getRecord() {
-      return record;
+    int getField() {
+      return field;
     }
 
-    public String getErr() {
-      return err;
+    // Splits the line into a fully decoded record
+    Record parse(String line, String delimiter) {
+      String[] array = line.split(delimiter);
+      if (array.length != DelimitedLine.FIELD_COUNT) {
+        return reject(LineError.FIELD_COUNT, LineError.WHOLE_LINE);
+      }
+      for (int i = 0; i < DelimitedLine.FIELD_COUNT; i++) {
+        if (isBlank(array[i])) {
+          return reject(LineError.EMPTY_FIELD, i);
+        }
+      }
+      position.setIndex(0);
+      position.setErrorIndex(-1);
+      if (DATE_FORMAT.get().parse(array[4].trim(), position) == null) {
+        return reject(LineError.BAD_DATE, 4);
+      }
+      error = null;
+      return new Record(array);
     }
 
-    private String validate(String[] array) {
-      try {
-        validateThat(
-            () -> array.length == 5, "expected five fields on array, " + Arrays.toString(array));
-        validateThat(() -> !array[0].trim().isEmpty(), "");
-        validateThat(() -> !array[1].trim().isEmpty(), "");
-        validateThat(() -> !array[2].trim().isEmpty(), "");
-        validateThat(() -> !array[3].trim().isEmpty(), "");
-        validateThat(() -> !array[4].trim().isEmpty(), "");
-
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
-        boolean b = noErrorChecked(() -> dateFormat.parse(array[4].trim()));
-        if (!b) {
-          throw new IllegalArgumentException("Cannot parse date " + array[4].trim());
+    // Validates the line with offsets only and keeps it raw, see Record#lazy
+    Record parseLazy(String line, char delimiter) {
+      if (!DelimitedLine.bounds(line, delimiter, bounds)) {
+        return reject(LineError.FIELD_COUNT, LineError.WHOLE_LINE);
+      }
+      for (int i = 0; i < DelimitedLine.FIELD_COUNT; i++) {
+        if (DelimitedLine.isEmpty(bounds, i)) {
+          return reject(LineError.EMPTY_FIELD, i);
         }
-      } catch (IllegalArgumentException e) {
-        LOGGER.trace("Exception during validation", e);
-        return e.getMessage();
       }
+      if (!DelimitedLine.isDate(line, bounds, 4)) {
+        return reject(LineError.BAD_DATE, 4);
+      }
+      error = null;
+      return Record.lazy(DelimitedLine.field(line, bounds, 2), line, delimiter);
+    }
+
+    private Record reject(LineError error, int field) {
+      this.error = error;
+      this.field = field;
       return null;
     }
+
+    private static boolean isBlank(String value) {
+      for (int i = 0; i < value.length(); i++) {
+        if (value.charAt(i) > ' ') {
+          return false;
+        }
+      }
+      return true;
+    }
   }
 }
@@ -0,0 +1,105 @@
+package net.lambeaux.homework.gr.core;
+
+/**
+ * Locates the fields of a delimited input line by offset, without splitting it into new strings.
+ * Follows the same rules as {@code line.split(delimiter)} followed by {@code trim()} on each field,
+ * including dropping trailing empty fields.
+ */
+class DelimitedLine {
+
+  static final int FIELD_COUNT = 5;
+
+  private DelimitedLine() {}
+
+  /**
+   * Finds the trimmed bounds of every field.
+   *
+   * @param line the input line.
+   * @param delimiter the field separator.
+   * @return start and end offsets as {@code {start0, end0, start1, end1, ...}}, or {@code null} if
+   *     the line does not have exactly {@link #FIELD_COUNT} fields.
+   */
+  static int[] bounds(String line, char delimiter) {
+    int[] bounds = new int[FIELD_COUNT * 2];
+    return bounds(line, delimiter, bounds) ? bounds : null;
+  }
+
+  /**
+   * Finds the trimmed bounds of every field into a caller owned array, so that checking many lines
+   * allocates nothing.
+   *
+   * @param line the input line.
+   * @param delimiter the field separator.
+   * @param bounds receives the offsets, see {@link #bounds(String, char)}; its contents are
+   *     undefined if the line is rejected.
+   * @return {@code true} if the line has exactly {@link #FIELD_COUNT} fields.
+   */
+  static boolean bounds(String line, char delimiter, int[] bounds) {
+    int end = line.length();
+    while (end > 0 && line.charAt(end - 1) == delimiter) {
+      end--;
+    }
+    int field = 0;
+    int start = 0;
+    for (int i = 0; i <= end; i++) {
+      if (i == end || line.charAt(i) == delimiter) {
+        if (field == FIELD_COUNT) {
+          return false;
+        }
+        int fieldStart = start;
+        int fieldEnd = i;
+        while (fieldStart < fieldEnd && line.charAt(fieldStart) <= ' ') {
+          fieldStart++;
+        }
+        while (fieldEnd > fieldStart && line.charAt(fieldEnd - 1) <= ' ') {
+          fieldEnd--;
+        }
+        bounds[field * 2] = fieldStart;
+        bounds[field * 2 + 1] = fieldEnd;
+        field++;
+        start = i + 1;
+      }
+    }
+    return field == FIELD_COUNT;
+  }
+
+  static String field(String line, int[] bounds, int field) {
+    return line.substring(bounds[field * 2], bounds[field * 2 + 1]);
+  }
+
+  static boolean isEmpty(int[] bounds, int field) {
+    return bounds[field * 2] == bounds[field * 2 + 1];
+  }
+
+  /**
+   * Checks that a field starts with a {@code M/d/yyyy} shaped date, which {@code MM/dd/yyyy}
+   * parsing is guaranteed to accept.
+   *
+   * @param line the input line.
+   * @param bounds field bounds from {@link #bounds(String, char)}.
+   * @param field index of the date field.
+   * @return {@code true} if the field can be parsed as a date later on.
+   */
+  static boolean isDate(String line, int[] bounds, int field) {
+    int i = bounds[field * 2];
+    int end = bounds[field * 2 + 1];
+    i = digits(line, i, end, 2);
+    if (i < 0 || i == end || line.charAt(i++) != '/') {
+      return false;
+    }
+    i = digits(line, i, end, 2);
+    if (i < 0 || i == end || line.charAt(i++) != '/') {
+      return false;
+    }
+    return digits(line, i, end, 4) >= 0;
+  }
+
+  // Returns the offset after one to max digits, or -1 if there is no digit at start
+  private static int digits(String line, int start, int end, int max) {
+    int i = start;
+    while (i < end && i - start < max && line.charAt(i) >= '0' && line.charAt(i) <= '9') {
+      i++;
+    }
+    return i == start ? -1 : i;
+  }
+}
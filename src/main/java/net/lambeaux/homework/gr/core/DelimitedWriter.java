@@ -0,0 +1,203 @@
+package net.lambeaux.homework.gr.core;
+
+import static net.lambeaux.homework.gr.MiscValidation.validateThat;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Writes records as delimited text lines in the same layout as the input files, so an export can be
+ * read back in as is. Characters are encoded to UTF-8 straight into one reusable byte buffer and
+ * dates are formatted digit by digit, so writing a record allocates nothing unless its date is
+ * older than the Gregorian calendar.
+ */
+public class DelimitedWriter implements Flushable {
+
+  public static final String TEXT_CSV = "text/csv";
+
+  public static final String TEXT_PSV = "text/psv";
+
+  public static final String TEXT_SSV = "text/ssv";
+
+  private static final List<String> MEDIA_TYPES = Arrays.asList(TEXT_CSV, TEXT_PSV, TEXT_SSV);
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+  // Start of October 15, 1582, the first Gregorian day, with a day of slack for time zones
+  private static final long GREGORIAN_CUTOVER_MILLIS = -12219292800000L + MILLIS_PER_DAY;
+
+  private final OutputStream out;
+
+  private final byte[] separator;
+
+  private final byte[] buffer;
+
+  private final TimeZone timeZone;
+
+  private int position;
+
+  /**
+   * Creates a writer for one of the supported media types.
+   *
+   * @param out destination of the lines; it is not closed by this writer.
+   * @param mediaType {@link #TEXT_CSV}, {@link #TEXT_PSV} or {@link #TEXT_SSV}.
+   */
+  public DelimitedWriter(OutputStream out, String mediaType) {
+    validateThat(
+        () -> MEDIA_TYPES.contains(mediaType),
+        String.format("unsupported media type '%s'", mediaType));
+    this.out = out;
+    this.separator = separator(mediaType);
+    this.buffer = new byte[BUFFER_SIZE];
+    this.timeZone = TimeZone.getDefault();
+    this.position = 0;
+  }
+
+  /**
+   * Picks the first supported delimited media type listed in an {@code Accept} header.
+   *
+   * @param accept the header value, may be {@code null}.
+   * @return the media type, or {@code null} if the header does not ask for delimited text.
+   */
+  public static String negotiate(String accept) {
+    if (accept == null) {
+      return null;
+    }
+    for (String part : accept.split(",")) {
+      String mediaType = part.split(";")[0].trim();
+      if (MEDIA_TYPES.contains(mediaType)) {
+        return mediaType;
+      }
+    }
+    return null;
+  }
+
+  public void write(Record rec) throws IOException {
+    writeChars(rec.getLastName());
+    writeBytes(separator);
+    writeChars(rec.getFirstName());
+    writeBytes(separator);
+    writeChars(rec.getEmail());
+    writeBytes(separator);
+    writeChars(rec.getFavoriteColor());
+    writeBytes(separator);
+    writeDate(rec.getDateOfBirth());
+    ensureRoom(1);
+    buffer[position++] = '\n';
+  }
+
+  @Override
+  public void flush() throws IOException {
+    drain();
+    out.flush();
+  }
+
+  private static byte[] separator(String mediaType) {
+    switch (mediaType) {
+      case TEXT_CSV:
+        return new byte[] {',', ' '};
+      case TEXT_PSV:
+        return new byte[] {' ', '|', ' '};
+      default:
+        return new byte[] {' '};
+    }
+  }
+
+  private void writeChars(String value) throws IOException {
+    for (int i = 0; i < value.length(); i++) {
+      ensureRoom(4);
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer[position++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[position++] = (byte) (0xC0 | (c >> 6));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, value.charAt(++i));
+        buffer[position++] = (byte) (0xF0 | (cp >> 18));
+        buffer[position++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        buffer[position++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (cp & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        buffer[position++] = '?';
+      } else {
+        buffer[position++] = (byte) (0xE0 | (c >> 12));
+        buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  /*
+   * Formats MM/dd/yyyy in the default time zone, which is the zone dates were parsed in. Converts
+   * the epoch day to a civil date with Howard Hinnant's days-to-civil algorithm, which is only
+   * valid for the Gregorian calendar; older dates go through the same Julian/Gregorian calendar
+   * that parsed them.
+   */
+  private void writeDate(Date date) throws IOException {
+    long millis = date.getTime();
+    long year;
+    long month;
+    long day;
+    if (millis < GREGORIAN_CUTOVER_MILLIS) {
+      Calendar calendar = new GregorianCalendar(timeZone);
+      calendar.setTime(date);
+      year = calendar.get(Calendar.YEAR);
+      month = calendar.get(Calendar.MONTH) + 1;
+      day = calendar.get(Calendar.DAY_OF_MONTH);
+    } else {
+      long days = Math.floorDiv(millis + timeZone.getOffset(millis), MILLIS_PER_DAY) + 719468;
+      long era = days / 146097;
+      long dayOfEra = days - era * 146097;
+      long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+      long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+      long shiftedMonth = (5 * dayOfYear + 2) / 153;
+      day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+      month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+      year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    }
+
+    ensureRoom(16);
+    writeDigits(month, 2);
+    buffer[position++] = '/';
+    writeDigits(day, 2);
+    buffer[position++] = '/';
+    writeDigits(year, year > 9999 ? 5 : 4);
+  }
+
+  private void writeDigits(long value, int width) {
+    for (int i = width - 1; i >= 0; i--) {
+      buffer[position + i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    position += width;
+  }
+
+  private void writeBytes(byte[] bytes) throws IOException {
+    ensureRoom(bytes.length);
+    System.arraycopy(bytes, 0, buffer, position, bytes.length);
+    position += bytes.length;
+  }
+
+  private void ensureRoom(int length) throws IOException {
+    if (position + length > buffer.length) {
+      drain();
+    }
+  }
+
+  private void drain() throws IOException {
+    out.write(buffer, 0, position);
+    position = 0;
+  }
+}
@@ -0,0 +1,28 @@
+package net.lambeaux.homework.gr.core;
+
+/**
+ * Finds the end of a line in a byte buffer. This is the portable version, which tests one byte at a
+ * time; the multi-release JAR replaces it with a version that tests eight bytes at a time on Java 9
+ * and later, see {@code src/main/java9}.
+ */
+final class LineEnds {
+
+  private LineEnds() {}
+
+  /**
+   * Finds the first line feed or carriage return.
+   *
+   * @param bytes the buffer.
+   * @param from first index to test.
+   * @param to index after the last one to test.
+   * @return the index of the terminator, or {@code -1} if there is none.
+   */
+  static int find(byte[] bytes, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (bytes[i] == '\n' || bytes[i] == '\r') {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
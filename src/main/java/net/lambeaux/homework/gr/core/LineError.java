@@ -0,0 +1,33 @@
+package net.lambeaux.homework.gr.core;
+
+/**
+ * Reason an input line was rejected. Validation only records the reason and the field it applies
+ * to; the readable message is built by {@link #describe(int, String)} when a rejection is actually
+ * reported.
+ */
+public enum LineError {
+  FIELD_COUNT,
+  EMPTY_FIELD,
+  BAD_DATE;
+
+  /** Field position used by errors that concern the whole line. */
+  public static final int WHOLE_LINE = -1;
+
+  /**
+   * Builds the message for a rejected line.
+   *
+   * @param field zero based index of the offending field, or {@link #WHOLE_LINE}.
+   * @param line the rejected input line.
+   * @return a readable description of the error.
+   */
+  public String describe(int field, String line) {
+    switch (this) {
+      case FIELD_COUNT:
+        return "expected five fields on line, " + line;
+      case EMPTY_FIELD:
+        return "expected a value for field " + (field + 1) + " on line, " + line;
+      default:
+        return "cannot parse date in field " + (field + 1) + " on line, " + line;
+    }
+  }
+}
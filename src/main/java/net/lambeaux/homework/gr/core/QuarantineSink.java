@@ -0,0 +1,272 @@
+package net.lambeaux.homework.gr.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the rejected lines of one input file and writes them to a side file in the same format,
+ * each prefixed with its line number, {@link LineError} code and one based field position (zero for
+ * errors that concern the whole line). The parser only appends to an in-memory batch; full batches
+ * go through a bounded queue to a background thread that does the formatting and the file I/O, so a
+ * dirty file costs the parser little more than a dirty-line count. Nothing is created until the
+ * first rejection, and a single summary is logged on {@link #close()} instead of one message per
+ * line.
+ *
+ * <p>An existing side file is never overwritten, it may belong to an earlier load of a same-named
+ * file or to one being parsed right now; the new one is numbered instead, e.g. {@code
+ * people-2.rejected.csv}. The side file is best effort: if it cannot be written the failure is
+ * logged once with the summary and ingest carries on.
+ */
+class QuarantineSink implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(QuarantineSink.class);
+
+  private static final int BATCH_SIZE = 512;
+
+  private static final int BATCHES_AHEAD = 4;
+
+  private static final Batch END = new Batch(0);
+
+  private static final String SUFFIX = ".rejected";
+
+  private final Path source;
+
+  private final Path preferred;
+
+  // Written by the writer thread when it creates the file, read after joining it
+  private Path target;
+
+  private final char delimiter;
+
+  private final int[] counts = new int[LineError.values().length];
+
+  private BlockingQueue<Batch> batches;
+
+  private Thread thread;
+
+  private Batch batch;
+
+  private String first;
+
+  private volatile IOException error;
+
+  QuarantineSink(Path source, Path target, char delimiter) {
+    this.source = source;
+    this.preferred = target;
+    this.target = target;
+    this.delimiter = delimiter;
+  }
+
+  /**
+   * Names the side file after the source with its compression suffix removed, e.g. {@code
+   * people.csv.gz} is quarantined to {@code people.rejected.csv}. In a quarantine directory the
+   * source's absolute parent path is mirrored, so same-named files from different directories that
+   * one job parses at the same time each get their own side file.
+   *
+   * @param source the input file.
+   * @param ext the input format's extension.
+   * @param dir directory for the side file, or {@code null} for the source's own directory.
+   */
+  static Path target(Path source, String ext, Path dir) {
+    String name = source.getFileName().toString();
+    int end = name.lastIndexOf("." + ext);
+    String base = end < 0 ? name : name.substring(0, end);
+    String targetName = base + SUFFIX + "." + ext;
+    if (dir == null) {
+      return source.resolveSibling(targetName);
+    }
+    Path parent = source.toAbsolutePath().getParent();
+    return dir.resolve(parent.getRoot().relativize(parent).toString()).resolve(targetName);
+  }
+
+  static boolean isTarget(Path file) {
+    String name = file.getFileName().toString();
+    int ext = name.lastIndexOf('.');
+    return ext > 0 && name.substring(0, ext).endsWith(SUFFIX);
+  }
+
+  /**
+   * Queues a rejected line.
+   *
+   * @param lineNumber one based line number within the source.
+   * @param code why the line was rejected.
+   * @param field zero based field index, or {@link LineError#WHOLE_LINE}.
+   * @param line the rejected line as read.
+   * @throws InterruptedException if interrupted while waiting for the writer to catch up.
+   */
+  void reject(long lineNumber, LineError code, int field, String line) throws InterruptedException {
+    counts[code.ordinal()]++;
+    if (batch == null) {
+      first = "line " + lineNumber + ", " + code.describe(field, line);
+      start();
+    }
+    batch.add(lineNumber, code, field, line);
+    if (batch.size == BATCH_SIZE) {
+      batches.put(batch);
+      batch = new Batch(BATCH_SIZE);
+    }
+  }
+
+  int rejected() {
+    int total = 0;
+    for (int count : counts) {
+      total += count;
+    }
+    return total;
+  }
+
+  /** Writes whatever is still queued, waits for the writer and logs the summary. */
+  @Override
+  public void close() {
+    if (thread == null) {
+      return;
+    }
+    try {
+      if (batch.size > 0) {
+        batches.put(batch);
+      }
+      batches.put(END);
+      thread.join();
+    } catch (InterruptedException e) {
+      thread.interrupt();
+      Thread.currentThread().interrupt();
+    }
+    batch = null;
+    report();
+  }
+
+  private void start() {
+    batches = new ArrayBlockingQueue<>(BATCHES_AHEAD);
+    batch = new Batch(BATCH_SIZE);
+    thread = new Thread(this::drain, "quarantine-" + source.getFileName());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  // Keeps taking batches after a write failure so the parser never blocks on a full queue
+  private void drain() {
+    Writer writer = null;
+    StringBuilder row = new StringBuilder();
+    try {
+      Batch next;
+      while ((next = batches.take()) != END) {
+        if (error != null) {
+          continue;
+        }
+        try {
+          if (writer == null) {
+            writer = open();
+          }
+          next.writeTo(writer, row, delimiter);
+        } catch (IOException e) {
+          error = e;
+        }
+      }
+    } catch (InterruptedException e) {
+      // Parser gave up on the read, keep what was written so far
+    } finally {
+      if (writer != null) {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          if (error == null) {
+            error = e;
+          }
+        }
+      }
+    }
+  }
+
+  // Creating the file is what claims a name, so concurrent sinks cannot pick the same one
+  private Writer open() throws IOException {
+    Path parent = preferred.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    String name = preferred.getFileName().toString();
+    int suffix = name.lastIndexOf(SUFFIX + ".");
+    for (int n = 2; ; n++) {
+      try {
+        return Files.newBufferedWriter(
+            target, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW);
+      } catch (FileAlreadyExistsException e) {
+        target = parent.resolve(name.substring(0, suffix) + "-" + n + name.substring(suffix));
+      }
+    }
+  }
+
+  private void report() {
+    StringBuilder reasons = new StringBuilder();
+    for (LineError code : LineError.values()) {
+      if (counts[code.ordinal()] > 0) {
+        reasons.append(reasons.length() == 0 ? "" : ", ");
+        reasons.append(code).append(' ').append(counts[code.ordinal()]);
+      }
+    }
+    if (error == null) {
+      LOGGER.info(
+          "Rejected {} lines of {} ({}), quarantined to {}, first was {}",
+          rejected(),
+          source,
+          reasons,
+          target,
+          first);
+    } else {
+      LOGGER.warn(
+          "Rejected {} lines of {} ({}), could not quarantine to {}: {}, first was {}",
+          rejected(),
+          source,
+          reasons,
+          target,
+          error.getMessage(),
+          first);
+    }
+  }
+
+  private static class Batch {
+
+    private final long[] lineNumbers;
+
+    private final LineError[] codes;
+
+    private final int[] fields;
+
+    private final String[] lines;
+
+    private int size;
+
+    private Batch(int capacity) {
+      this.lineNumbers = new long[capacity];
+      this.codes = new LineError[capacity];
+      this.fields = new int[capacity];
+      this.lines = new String[capacity];
+    }
+
+    private void add(long lineNumber, LineError code, int field, String line) {
+      lineNumbers[size] = lineNumber;
+      codes[size] = code;
+      fields[size] = field;
+      lines[size] = line;
+      size++;
+    }
+
+    private void writeTo(Writer writer, StringBuilder row, char delimiter) throws IOException {
+      for (int i = 0; i < size; i++) {
+        row.setLength(0);
+        row.append(lineNumbers[i]).append(delimiter);
+        row.append(codes[i].name()).append(delimiter);
+        row.append(fields[i] + 1).append(delimiter);
+        row.append(lines[i]).append(System.lineSeparator());
+        writer.append(row);
+      }
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package net.lambeaux.homework.gr.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a source stream on a dedicated background thread and hands the bytes over in chunks. Used
+ * to run decompression on one core while parsing runs on another; the bounded queue keeps the
+ * reader at most a few chunks ahead of the consumer.
+ */
+class ReadAheadInputStream extends InputStream {
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  private static final int CHUNKS_AHEAD = 4;
+
+  private static final Chunk END = new Chunk(new byte[0], 0, null);
+
+  private final InputStream source;
+
+  private final BlockingQueue<Chunk> chunks;
+
+  private final Thread thread;
+
+  private Chunk current;
+
+  private int position;
+
+  private boolean finished;
+
+  ReadAheadInputStream(InputStream source, String name) {
+    this.source = source;
+    this.chunks = new ArrayBlockingQueue<>(CHUNKS_AHEAD);
+    this.thread = new Thread(this::fill, "read-ahead-" + name);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    return current.bytes[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    int count = Math.min(len, current.length - position);
+    System.arraycopy(current.bytes, position, b, off, count);
+    position += count;
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    thread.interrupt();
+    source.close();
+  }
+
+  private boolean ensureAvailable() throws IOException {
+    while (!finished && (current == null || position == current.length)) {
+      try {
+        current = chunks.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while waiting for input");
+      }
+      position = 0;
+      finished = current == END || current.error != null;
+    }
+    if (current.error != null) {
+      throw current.error;
+    }
+    return !finished;
+  }
+
+  private void fill() {
+    try {
+      while (true) {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int length = 0;
+        int read;
+        while (length < CHUNK_SIZE
+            && (read = source.read(buffer, length, CHUNK_SIZE - length)) != -1) {
+          length += read;
+        }
+        if (length > 0) {
+          chunks.put(new Chunk(length < CHUNK_SIZE ? Arrays.copyOf(buffer, length) : buffer));
+        }
+        if (length < CHUNK_SIZE) {
+          chunks.put(END);
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      // Consumer closed the stream, nothing left to hand over
+    } catch (IOException | RuntimeException e) {
+      IOException error =
+          e instanceof IOException
+              ? (IOException) e
+              : new IOException("could not decode input, " + e.getMessage(), e);
+      try {
+        chunks.put(new Chunk(new byte[0], 0, error));
+      } catch (InterruptedException ignored) {
+        // Consumer closed the stream, nothing left to report to
+      }
+    }
+  }
+
+  private static class Chunk {
+
+    private final byte[] bytes;
+
+    private final int length;
+
+    private final IOException error;
+
+    private Chunk(byte[] bytes) {
+      this(bytes, bytes.length, null);
+    }
+
+    private Chunk(byte[] bytes, int length, IOException error) {
+      this.bytes = bytes;
+      this.length = length;
+      this.error = error;
+    }
+  }
+}
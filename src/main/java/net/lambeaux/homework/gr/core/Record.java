@@ -5,22 +5,48 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Objects;
 
-/** Main data structure being managed by the application. */
+/**
+ * Main data structure being managed by the application.
+ *
+ * <p>Records read in bulk may be created lazily: only the email is extracted up front and the raw
+ * input line is kept, the remaining fields are decoded the first time any of them is accessed.
+ * Records that get overwritten by a later duplicate before anyone reads them are never decoded.
+ *
+ * <p>The {@link RecordOrder} sort keys of every field are computed once, together with the fields
+ * they are derived from. The JSON encoding is computed once as well, the first time the record is
+ * listed or when it is evicted to cold storage, and stays with it from then on, see {@link
+ * RecordJson}.
+ */
 public class Record {
 
-  private static final String DATE_FORMAT = "MM/dd/yyyy";
+  private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT =
+      ThreadLocal.withInitial(() -> new SimpleDateFormat("MM/dd/yyyy"));
 
-  private final transient SimpleDateFormat dateFormat;
+  private final String email;
 
-  private final String lastName;
+  private final transient char rawDelimiter;
 
-  private final String firstName;
+  private transient volatile String raw;
 
-  private final String email;
+  private String lastName;
+
+  private String firstName;
+
+  private String favoriteColor;
+
+  private Date dateOfBirth;
+
+  private final transient long emailKey;
+
+  private transient long lastNameKey;
+
+  private transient long firstNameKey;
+
+  private transient long favoriteColorKey;
 
-  private final String favoriteColor;
+  private transient long birthDayKey;
 
-  private final Date dateOfBirth;
+  private transient volatile byte[] json;
 
   public Record(String[] fields) {
     this(fields[0], fields[1], fields[2], fields[3], fields[4]);
@@ -28,8 +54,6 @@ public class Record {
 
   public Record(
       String lastName, String firstName, String email, String favoriteColor, String dateOfBirth) {
-    this.dateFormat = new SimpleDateFormat(DATE_FORMAT);
-
     this.lastName = Objects.requireNonNull(lastName, "lastName cannot be null").trim();
     this.firstName = Objects.requireNonNull(firstName, "firstName cannot be null").trim();
     this.email = Objects.requireNonNull(email, "email cannot be null").trim();
@@ -38,13 +62,42 @@ public class Record {
 
     this.dateOfBirth =
         parseDate(Objects.requireNonNull(dateOfBirth, "dateOfBirth cannot be null").trim());
+    this.emailKey = RecordOrder.prefixKey(this.email);
+    this.lastNameKey = RecordOrder.prefixKey(this.lastName);
+    this.firstNameKey = RecordOrder.prefixKey(this.firstName);
+    this.favoriteColorKey = RecordOrder.prefixKey(this.favoriteColor);
+    this.birthDayKey = RecordOrder.dayKey(this.dateOfBirth);
+    this.rawDelimiter = 0;
+    this.raw = null;
+  }
+
+  private Record(String email, String raw, char rawDelimiter) {
+    this.email = email;
+    this.emailKey = RecordOrder.prefixKey(email);
+    this.rawDelimiter = rawDelimiter;
+    this.raw = raw;
+  }
+
+  /**
+   * Creates a record that defers decoding of everything but its email. The line must already be
+   * known to hold five non-empty fields and a parseable date.
+   *
+   * @param email the already extracted email field.
+   * @param line the raw input line.
+   * @param delimiter separator between the fields of {@code line}.
+   * @return a lazily decoded record.
+   */
+  static Record lazy(String email, String line, char delimiter) {
+    return new Record(email, line, delimiter);
   }
 
   public String getLastName() {
+    materialize();
     return lastName;
   }
 
   public String getFirstName() {
+    materialize();
     return firstName;
   }
 
@@ -53,13 +106,57 @@ public class Record {
   }
 
   public String getFavoriteColor() {
+    materialize();
     return favoriteColor;
   }
 
   public Date getDateOfBirth() {
+    materialize();
     return dateOfBirth;
   }
 
+  long emailKey() {
+    return emailKey;
+  }
+
+  long lastNameKey() {
+    materialize();
+    return lastNameKey;
+  }
+
+  long firstNameKey() {
+    materialize();
+    return firstNameKey;
+  }
+
+  long favoriteColorKey() {
+    materialize();
+    return favoriteColorKey;
+  }
+
+  long birthDayKey() {
+    materialize();
+    return birthDayKey;
+  }
+
+  /*
+   * Concurrent first listings may both encode the record, which is harmless as they produce the
+   * same bytes. Callers must not modify the returned array.
+   */
+  byte[] json() {
+    byte[] encoded = json;
+    if (encoded == null) {
+      encoded = RecordJson.element(this);
+      json = encoded;
+    }
+    return encoded;
+  }
+
+  // Only ever set to the bytes json() would produce, so it is safe without further checks
+  void json(byte[] encoded) {
+    json = encoded;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -100,12 +197,45 @@ public class Record {
   public String toString() {
     return String.format(
         "%s %s (%s), born %s, likes %s",
-        firstName, lastName, email, dateFormat.format(dateOfBirth), favoriteColor);
+        getFirstName(),
+        getLastName(),
+        getEmail(),
+        DATE_FORMAT.get().format(getDateOfBirth()),
+        getFavoriteColor());
+  }
+
+  /*
+   * The fields are written before the volatile raw line is cleared, so any thread that sees the
+   * cleared line also sees the decoded fields.
+   */
+  private void materialize() {
+    if (raw == null) {
+      return;
+    }
+    synchronized (this) {
+      String line = raw;
+      if (line == null) {
+        return;
+      }
+      int[] bounds = DelimitedLine.bounds(line, rawDelimiter);
+      if (bounds == null) {
+        throw new IllegalStateException("record line no longer has five fields, " + line);
+      }
+      lastName = DelimitedLine.field(line, bounds, 0);
+      firstName = DelimitedLine.field(line, bounds, 1);
+      favoriteColor = DelimitedLine.field(line, bounds, 3);
+      dateOfBirth = parseDate(DelimitedLine.field(line, bounds, 4));
+      lastNameKey = RecordOrder.prefixKey(lastName);
+      firstNameKey = RecordOrder.prefixKey(firstName);
+      favoriteColorKey = RecordOrder.prefixKey(favoriteColor);
+      birthDayKey = RecordOrder.dayKey(dateOfBirth);
+      raw = null;
+    }
   }
 
-  private Date parseDate(String date) {
+  private static Date parseDate(String date) {
     try {
-      return dateFormat.parse(date);
+      return DATE_FORMAT.get().parse(date);
     } catch (ParseException e) {
       throw new IllegalArgumentException("date could not be parsed", e);
     }
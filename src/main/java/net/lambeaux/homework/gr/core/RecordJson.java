@@ -0,0 +1,150 @@
+package net.lambeaux.homework.gr.core;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Writes records as JSON without reflection, field by field in declaration order with the birth
+ * date as {@code MM/dd/yyyy}, indented and escaped the way the service's pretty printing Gson
+ * instance does it.
+ *
+ * <p>Listings do not go through a {@link JsonWriter} at all: each record encodes its array element
+ * to UTF-8 once, the first time it is listed, and keeps the bytes, see {@link Record#json()}. A
+ * listing is then the concatenation of those cached elements, byte for byte what Gson would have
+ * produced for the whole list. Cold storage keeps those bytes next to the fields of an evicted
+ * record, see {@link #encoded(Record)}, so records read back from disk are not encoded again.
+ */
+public class RecordJson {
+
+  private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT =
+      ThreadLocal.withInitial(() -> new SimpleDateFormat("MM/dd/yyyy"));
+
+  // Input field order, which is also the order the record constructor takes them in
+  private static final List<String> FIELD_NAMES =
+      Arrays.asList("lastName", "firstName", "email", "favoriteColor", "dateOfBirth");
+
+  private static final String INDENT = "  ";
+
+  private static final byte[] OPEN = "[\n".getBytes(StandardCharsets.UTF_8);
+
+  private static final byte[] SEPARATOR = ",\n".getBytes(StandardCharsets.UTF_8);
+
+  private static final byte[] CLOSE = "\n]".getBytes(StandardCharsets.UTF_8);
+
+  private static final byte[] EMPTY = "[]".getBytes(StandardCharsets.UTF_8);
+
+  private RecordJson() {}
+
+  /**
+   * Writes a record as a JSON object.
+   *
+   * @param out the destination, positioned where a value may follow.
+   * @param rec the record to write.
+   * @throws IOException if the destination cannot be written.
+   */
+  public static void write(JsonWriter out, Record rec) throws IOException {
+    out.beginObject();
+    out.name("lastName").value(rec.getLastName());
+    out.name("firstName").value(rec.getFirstName());
+    out.name("email").value(rec.getEmail());
+    out.name("favoriteColor").value(rec.getFavoriteColor());
+    out.name("dateOfBirth").value(DATE_FORMAT.get().format(rec.getDateOfBirth()));
+    out.endObject();
+  }
+
+  /**
+   * Reads a record written by {@link #write(JsonWriter, Record)}.
+   *
+   * @param in the source, positioned at the object.
+   * @return the record.
+   * @throws IOException if the source cannot be read or is not a record object.
+   */
+  public static Record read(JsonReader in) throws IOException {
+    String[] fields = new String[FIELD_NAMES.size()];
+    in.beginObject();
+    while (in.hasNext()) {
+      int field = FIELD_NAMES.indexOf(in.nextName());
+      if (field < 0) {
+        in.skipValue();
+      } else {
+        fields[field] = in.nextString();
+      }
+    }
+    in.endObject();
+    return new Record(fields);
+  }
+
+  /**
+   * Writes records as a JSON array from their cached elements.
+   *
+   * @param out the destination; it is not flushed or closed.
+   * @param records the records, in order.
+   * @throws IOException if the destination cannot be written.
+   */
+  public static void writeArray(OutputStream out, Iterator<Record> records) throws IOException {
+    if (!records.hasNext()) {
+      out.write(EMPTY);
+      return;
+    }
+    out.write(OPEN);
+    out.write(records.next().json());
+    while (records.hasNext()) {
+      out.write(SEPARATOR);
+      out.write(records.next().json());
+    }
+    out.write(CLOSE);
+  }
+
+  /**
+   * Returns the cached array element of a record, encoding it first if it was never listed.
+   *
+   * @param rec the record.
+   * @return the UTF-8 element; it must not be modified.
+   */
+  public static byte[] encoded(Record rec) {
+    return rec.json();
+  }
+
+  /**
+   * Attaches a previously {@link #encoded(Record) encoded} element to a record with the same
+   * fields, so listing it does not encode it again.
+   *
+   * @param rec the record.
+   * @param element the element returned by {@link #encoded(Record)} for an equal record.
+   * @return the same record.
+   */
+  public static Record withEncoded(Record rec, byte[] element) {
+    rec.json(element);
+    return rec;
+  }
+
+  /*
+   * Written as the only element of an array so the writer indents it as an element, then cut out
+   * from between the array's brackets.
+   */
+  static byte[] element(Record rec) {
+    StringWriter buffer = new StringWriter();
+    try (JsonWriter out = new JsonWriter(buffer)) {
+      out.setIndent(INDENT);
+      out.setHtmlSafe(true);
+      out.beginArray();
+      write(out, rec);
+      out.endArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException("could not write record to memory", e);
+    }
+    String array = buffer.toString();
+    return array
+        .substring(OPEN.length, array.length() - CLOSE.length)
+        .getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,83 @@
+package net.lambeaux.homework.gr.core;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Orderings of records that compare precomputed sort keys instead of calling getters and {@link
+ * String#compareTo} on every comparison. Each record packs the first four chars of each of its text
+ * fields into a {@code long} when those fields are set, so most comparisons only look at primitives
+ * held by the record itself; the full strings are only compared when the prefixes are equal. Every
+ * ordering gives exactly the same result as the getter based comparator it replaces.
+ */
+public class RecordOrder {
+
+  public static final Comparator<Record> EMAIL =
+      (a, b) -> {
+        int c = Long.compareUnsigned(a.emailKey(), b.emailKey());
+        return c != 0 ? c : a.getEmail().compareTo(b.getEmail());
+      };
+
+  public static final Comparator<Record> LAST_NAME =
+      (a, b) -> {
+        int c = Long.compareUnsigned(a.lastNameKey(), b.lastNameKey());
+        return c != 0 ? c : a.getLastName().compareTo(b.getLastName());
+      };
+
+  public static final Comparator<Record> FIRST_NAME =
+      (a, b) -> {
+        int c = Long.compareUnsigned(a.firstNameKey(), b.firstNameKey());
+        return c != 0 ? c : a.getFirstName().compareTo(b.getFirstName());
+      };
+
+  public static final Comparator<Record> FAVORITE_COLOR =
+      (a, b) -> {
+        int c = Long.compareUnsigned(a.favoriteColorKey(), b.favoriteColorKey());
+        return c != 0 ? c : a.getFavoriteColor().compareTo(b.getFavoriteColor());
+      };
+
+  /** Last name, then first name. */
+  public static final Comparator<Record> NAME =
+      (a, b) -> {
+        int c = LAST_NAME.compare(a, b);
+        return c != 0 ? c : FIRST_NAME.compare(a, b);
+      };
+
+  /** Birth date, compared as the local epoch day it falls on. */
+  public static final Comparator<Record> BIRTHDATE =
+      (a, b) -> Long.compare(a.birthDayKey(), b.birthDayKey());
+
+  private static final int PREFIX_CHARS = 4;
+
+  private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+  private RecordOrder() {}
+
+  /**
+   * Packs the first four chars of a string into a key whose unsigned order matches {@link
+   * String#compareTo} whenever two keys differ. Shorter strings are padded with zero chars, which
+   * sorts them before any longer string sharing their prefix; equal keys need a full comparison.
+   *
+   * @param value the string to pack.
+   * @return the sort key of {@code value}.
+   */
+  static long prefixKey(String value) {
+    long key = 0;
+    for (int i = 0; i < PREFIX_CHARS; i++) {
+      key = (key << 16) | (i < value.length() ? value.charAt(i) : 0);
+    }
+    return key;
+  }
+
+  /**
+   * Counts the days from the epoch to a date in the default time zone.
+   *
+   * @param date the date.
+   * @return the epoch day {@code date} falls on.
+   */
+  static long dayKey(Date date) {
+    long millis = date.getTime();
+    return Math.floorDiv(millis + TimeZone.getDefault().getOffset(millis), MILLIS_PER_DAY);
+  }
+}
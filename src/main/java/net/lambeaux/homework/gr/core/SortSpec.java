@@ -0,0 +1,188 @@
+package net.lambeaux.homework.gr.core;
+
+import static net.lambeaux.homework.gr.MiscValidation.validateThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Order of a listing given as comma separated keys, each a record field with an optional direction,
+ * e.g. {@code favoriteColor:asc,dateOfBirth:desc,email}. The fields are {@code lastName}, {@code
+ * firstName}, {@code email}, {@code favoriteColor} and {@code dateOfBirth}; {@code birthdate} is
+ * short for {@code dateOfBirth} and {@code name} for {@code lastName,firstName}. Directions are
+ * {@code asc}, the default, or {@code desc}.
+ *
+ * <p>Specs are parsed once and cached. Each one is compiled into a comparator over the records'
+ * precomputed {@link RecordOrder} keys.
+ */
+public class SortSpec {
+
+  private static final int MAX_CACHED_SPECS = 1024;
+
+  private static final Map<String, Comparator<Record>> FIELDS = new LinkedHashMap<>();
+
+  private static final Map<String, List<String>> ALIASES = new LinkedHashMap<>();
+
+  private static final Map<String, SortSpec> CACHE = new ConcurrentHashMap<>();
+
+  static {
+    FIELDS.put("lastName", RecordOrder.LAST_NAME);
+    FIELDS.put("firstName", RecordOrder.FIRST_NAME);
+    FIELDS.put("email", RecordOrder.EMAIL);
+    FIELDS.put("favoriteColor", RecordOrder.FAVORITE_COLOR);
+    FIELDS.put("dateOfBirth", RecordOrder.BIRTHDATE);
+    ALIASES.put("birthdate", Collections.singletonList("dateOfBirth"));
+    ALIASES.put("name", Arrays.asList("lastName", "firstName"));
+  }
+
+  private final List<String> fields;
+
+  private final List<Boolean> descending;
+
+  private final Comparator<Record> comparator;
+
+  private SortSpec(List<String> fields, List<Boolean> descending) {
+    this.fields = Collections.unmodifiableList(fields);
+    this.descending = Collections.unmodifiableList(descending);
+    this.comparator = compile(fields, descending);
+  }
+
+  /**
+   * Parses a sort spec, or returns the cached result of parsing the same text before.
+   *
+   * @param spec the sort spec.
+   * @return the parsed spec.
+   * @throws IllegalArgumentException if the spec names an unknown field or direction.
+   */
+  public static SortSpec parse(String spec) {
+    Objects.requireNonNull(spec, "sort spec cannot be null");
+    SortSpec parsed = CACHE.get(spec);
+    if (parsed != null) {
+      return parsed;
+    }
+    parsed = parseUncached(spec);
+    if (CACHE.size() < MAX_CACHED_SPECS) {
+      CACHE.putIfAbsent(spec, parsed);
+    }
+    return parsed;
+  }
+
+  private static SortSpec parseUncached(String spec) {
+    List<String> fields = new ArrayList<>();
+    List<Boolean> descending = new ArrayList<>();
+    for (String key : spec.split(",", -1)) {
+      String[] parts = key.trim().split(":", -1);
+      validateThat(
+          () -> parts.length <= 2, String.format("invalid sort key '%s' in '%s'", key, spec));
+      String direction = parts.length == 2 ? parts[1].trim() : "asc";
+      validateThat(
+          () -> direction.equals("asc") || direction.equals("desc"),
+          String.format("invalid sort direction '%s', expected asc or desc", direction));
+      String field = parts[0].trim();
+      List<String> expanded = ALIASES.getOrDefault(field, Collections.singletonList(field));
+      for (String name : expanded) {
+        validateThat(
+            () -> FIELDS.containsKey(name),
+            String.format(
+                "invalid sort field '%s', expected one of %s",
+                field, String.join(", ", FIELDS.keySet())));
+        fields.add(name);
+        descending.add(direction.equals("desc"));
+      }
+    }
+    return new SortSpec(fields, descending);
+  }
+
+  // Longer specs walk an array of key comparators rather than a chain of nested lambdas
+  private static Comparator<Record> compile(List<String> fields, List<Boolean> descending) {
+    Comparator<Record>[] keys = keyComparators(fields, descending);
+    if (keys.length == 1) {
+      return keys[0];
+    }
+    return (a, b) -> {
+      for (Comparator<Record> key : keys) {
+        int c = key.compare(a, b);
+        if (c != 0) {
+          return c;
+        }
+      }
+      return 0;
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Comparator<Record>[] keyComparators(
+      List<String> fields, List<Boolean> descending) {
+    Comparator<Record>[] keys = new Comparator[fields.size()];
+    for (int i = 0; i < keys.length; i++) {
+      Comparator<Record> key = FIELDS.get(fields.get(i));
+      keys[i] = descending.get(i) ? key.reversed() : key;
+    }
+    return keys;
+  }
+
+  /**
+   * Returns the record fields this spec sorts by, aliases expanded, most significant first.
+   *
+   * @return the field names.
+   */
+  public List<String> getFields() {
+    return fields;
+  }
+
+  /**
+   * Returns whether each field of {@link #getFields()} is sorted in descending order.
+   *
+   * @return one flag per field.
+   */
+  public List<Boolean> getDescending() {
+    return descending;
+  }
+
+  public Comparator<Record> comparator() {
+    return comparator;
+  }
+
+  /**
+   * Checks whether this spec only orders by birth date, which can be sorted without comparisons.
+   *
+   * @return {@code true} if {@code dateOfBirth} is the only field.
+   */
+  boolean isBirthdateOnly() {
+    return fields.size() == 1 && fields.get(0).equals("dateOfBirth");
+  }
+
+  /** Renders the spec with aliases expanded and every direction spelled out. */
+  @Override
+  public String toString() {
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < fields.size(); i++) {
+      keys.add(fields.get(i) + (descending.get(i) ? ":desc" : ":asc"));
+    }
+    return String.join(",", keys);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    SortSpec that = (SortSpec) o;
+    return fields.equals(that.fields) && descending.equals(that.descending);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * fields.hashCode() + descending.hashCode();
+  }
+}
@@ -0,0 +1,47 @@
+package net.lambeaux.homework.gr.core;
+
+/**
+ * Bit tricks that test all eight bytes of a {@code long} at once (SIMD within a register). Words
+ * are expected in little endian order, so the lowest byte of a word is the first byte in memory.
+ */
+final class Swar {
+
+  private static final long ONES = 0x0101010101010101L;
+
+  private static final long HIGH_BITS = 0x8080808080808080L;
+
+  private Swar() {}
+
+  /**
+   * Repeats a byte into every byte of a word.
+   *
+   * @param value the byte to look for.
+   * @return the pattern to pass to {@link #matches(long, long)}.
+   */
+  static long broadcast(byte value) {
+    return (value & 0xffL) * ONES;
+  }
+
+  /**
+   * Flags the bytes of a word that equal the byte of a pattern by setting their high bit. A borrow
+   * can also flag bytes above a real match, but the lowest flag is always exact.
+   *
+   * @param word eight bytes in little endian order.
+   * @param pattern a word from {@link #broadcast(byte)}.
+   * @return the flags, zero if no byte matches.
+   */
+  static long matches(long word, long pattern) {
+    long diff = word ^ pattern;
+    return (diff - ONES) & ~diff & HIGH_BITS;
+  }
+
+  /**
+   * Returns the index of the lowest flagged byte.
+   *
+   * @param flags non-zero flags from {@link #matches(long, long)}.
+   * @return the byte index within the word, between 0 and 7.
+   */
+  static int firstFlagged(long flags) {
+    return Long.numberOfTrailingZeros(flags) >>> 3;
+  }
+}
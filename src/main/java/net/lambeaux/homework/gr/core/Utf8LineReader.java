@@ -0,0 +1,115 @@
+package net.lambeaux.homework.gr.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits UTF-8 input into lines while it is still bytes, and decodes each line into a string on its
+ * own. Line ends are found with {@link LineEnds}, which can test several bytes at a time, instead
+ * of decoding every char first and testing them one by one as {@link java.io.BufferedReader} does.
+ * Follows the same rules as {@link java.io.BufferedReader#readLine()}: a line ends with a line
+ * feed, a carriage return or both, and the last line need not be terminated. Lines longer than the
+ * buffer grow it.
+ */
+class Utf8LineReader implements Closeable {
+
+  private final InputStream in;
+
+  private byte[] buffer;
+
+  private int position;
+
+  private int limit;
+
+  private boolean skipLineFeed;
+
+  private boolean eof;
+
+  private long consumed;
+
+  Utf8LineReader(InputStream in, int bufferSize) {
+    this.in = in;
+    this.buffer = new byte[bufferSize];
+  }
+
+  /**
+   * Reads the next line.
+   *
+   * @return the line without its terminator, or {@code null} at the end of the input.
+   * @throws IOException if the input cannot be read.
+   */
+  String readLine() throws IOException {
+    int scanned = position;
+    while (true) {
+      if (skipLineFeed && position < limit) {
+        skipLineFeed = false;
+        if (buffer[position] == '\n') {
+          position++;
+          consumed++;
+        }
+        scanned = position;
+      }
+      int end = LineEnds.find(buffer, scanned, limit);
+      if (end >= 0) {
+        String line = decode(end);
+        consumed += end + 1 - position;
+        position = end + 1;
+        if (buffer[end] == '\r') {
+          skipLineFeed = true;
+        }
+        return line;
+      }
+      scanned = limit;
+      if (eof) {
+        if (position == limit) {
+          return null;
+        }
+        String line = decode(limit);
+        consumed += limit - position;
+        position = limit;
+        return line;
+      }
+      scanned -= position;
+      fill();
+    }
+  }
+
+  /**
+   * Counts the bytes of every line returned so far, terminators included.
+   *
+   * @return the bytes consumed.
+   */
+  long consumed() {
+    return consumed;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private String decode(int end) {
+    return new String(buffer, position, end - position, StandardCharsets.UTF_8);
+  }
+
+  // Moves the unread bytes to the front, growing the buffer if they fill it, then reads more
+  private void fill() throws IOException {
+    int unread = limit - position;
+    if (unread == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    } else if (position > 0) {
+      System.arraycopy(buffer, position, buffer, 0, unread);
+    }
+    position = 0;
+    limit = unread;
+    int read = in.read(buffer, limit, buffer.length - limit);
+    if (read < 0) {
+      eof = true;
+    } else {
+      limit += read;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package net.lambeaux.homework.gr.ingest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.persistence.InMemoryDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies parsed batches to the database from a single background thread. Batches queued by
+ * concurrent jobs are drained together and written with one {@link InMemoryDatabase#putAll} call,
+ * so parsing never waits on the database lock and several small batches cost a single version bump.
+ * The queue is bounded, which throttles parsers when the database falls behind.
+ */
+class GroupCommitWriter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(GroupCommitWriter.class);
+
+  private static final int MAX_GROUP_RECORDS = 65536;
+
+  private final InMemoryDatabase db;
+
+  private final BlockingQueue<PendingBatch> queue;
+
+  GroupCommitWriter(InMemoryDatabase db, int capacity) {
+    this.db = db;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    Thread thread = new Thread(this::drain, "ingest-writer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Queues a batch for writing, blocking while the queue is full.
+   *
+   * @param records the batch to write.
+   * @return a future that completes once the batch is visible in the database.
+   * @throws InterruptedException if interrupted while waiting for queue space.
+   */
+  CompletableFuture<Void> submit(List<Record> records) throws InterruptedException {
+    PendingBatch batch = new PendingBatch(records);
+    queue.put(batch);
+    return batch.applied;
+  }
+
+  private void drain() {
+    List<PendingBatch> group = new ArrayList<>();
+    while (true) {
+      try {
+        group.add(queue.take());
+      } catch (InterruptedException e) {
+        LOGGER.debug("Ingest writer interrupted, exiting");
+        return;
+      }
+      int size = group.get(0).records.size();
+      PendingBatch next;
+      while (size < MAX_GROUP_RECORDS && (next = queue.poll()) != null) {
+        group.add(next);
+        size += next.records.size();
+      }
+      apply(group, size);
+      group.clear();
+    }
+  }
+
+  private void apply(List<PendingBatch> group, int size) {
+    try {
+      if (group.size() == 1) {
+        db.putAll(group.get(0).records);
+      } else {
+        List<Record> merged = new ArrayList<>(size);
+        group.forEach(batch -> merged.addAll(batch.records));
+        db.putAll(merged);
+      }
+      group.forEach(batch -> batch.applied.complete(null));
+    } catch (RuntimeException e) {
+      LOGGER.debug("Failed to apply ingest batch", e);
+      group.forEach(batch -> batch.applied.completeExceptionally(e));
+    }
+  }
+
+  private static class PendingBatch {
+
+    private final List<Record> records;
+
+    private final CompletableFuture<Void> applied;
+
+    private PendingBatch(List<Record> records) {
+      this.records = records;
+      this.applied = new CompletableFuture<>();
+    }
+  }
+}
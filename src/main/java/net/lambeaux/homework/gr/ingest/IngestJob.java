@@ -0,0 +1,273 @@
+package net.lambeaux.homework.gr.ingest;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single background load of one or more files into the database, along with its live progress
+ * counters.
+ */
+public class IngestJob {
+
+  /** Lifecycle of a job; a job only ever moves forward through these states. */
+  public enum State {
+    QUEUED,
+    RUNNING,
+    SUCCEEDED,
+    FAILED
+  }
+
+  private final long id;
+
+  private final String path;
+
+  private final List<Path> files;
+
+  private final AtomicLong filesDone;
+
+  private final AtomicLong linesRead;
+
+  private final AtomicLong rowsAccepted;
+
+  private final AtomicLong rowsRejected;
+
+  private final CountDownLatch done;
+
+  private volatile State state;
+
+  private volatile long startNanos;
+
+  private volatile long endNanos;
+
+  private volatile String error;
+
+  IngestJob(long id, String path, List<Path> files) {
+    this.id = id;
+    this.path = path;
+    this.files = files;
+    this.filesDone = new AtomicLong();
+    this.linesRead = new AtomicLong();
+    this.rowsAccepted = new AtomicLong();
+    this.rowsRejected = new AtomicLong();
+    this.done = new CountDownLatch(1);
+    this.state = State.QUEUED;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * Returns the location this job was submitted for, which may be a file, directory or glob.
+   *
+   * @return the absolute location.
+   */
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * Returns the files this job loads, in the order they are applied to the database.
+   *
+   * @return the files of this job.
+   */
+  public List<Path> getFiles() {
+    return files;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  public boolean isDone() {
+    return done.getCount() == 0;
+  }
+
+  /**
+   * Blocks until the job has finished, successfully or not.
+   *
+   * @param timeout maximum time to wait.
+   * @param unit unit of {@code timeout}.
+   * @return {@code true} if the job finished, {@code false} if the wait timed out.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+    return done.await(timeout, unit);
+  }
+
+  /**
+   * Captures the current counters of this job in a form that is safe to hand out and serialize.
+   *
+   * @return a point-in-time view of the job.
+   */
+  public Progress progress() {
+    long start = startNanos;
+    long end = isDone() ? endNanos : System.nanoTime();
+    long elapsedNanos = start == 0L ? 0L : Math.max(0L, end - start);
+    long lines = linesRead.get();
+    return new Progress(
+        id,
+        path,
+        state,
+        files.size(),
+        filesDone.get(),
+        lines,
+        rowsAccepted.get(),
+        rowsRejected.get(),
+        TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+        elapsedNanos == 0L ? 0.0 : lines * 1e9 / elapsedNanos,
+        error);
+  }
+
+  void started() {
+    startNanos = System.nanoTime();
+    state = State.RUNNING;
+  }
+
+  void parsed(int lines, int valid) {
+    linesRead.addAndGet(lines);
+    rowsRejected.addAndGet(lines - valid);
+  }
+
+  void applied(int rows) {
+    rowsAccepted.addAndGet(rows);
+  }
+
+  void fileDone() {
+    filesDone.incrementAndGet();
+  }
+
+  void succeeded() {
+    finish(State.SUCCEEDED, null);
+  }
+
+  void failed(String message) {
+    finish(State.FAILED, message);
+  }
+
+  private void finish(State finalState, String message) {
+    if (startNanos == 0L) {
+      startNanos = System.nanoTime();
+    }
+    endNanos = System.nanoTime();
+    error = message;
+    state = finalState;
+    done.countDown();
+  }
+
+  /** Immutable snapshot of a job's counters, serialized as-is by the REST service. */
+  public static class Progress {
+
+    private final long id;
+
+    private final String path;
+
+    private final State state;
+
+    private final int filesTotal;
+
+    private final long filesDone;
+
+    private final long linesRead;
+
+    private final long rowsAccepted;
+
+    private final long rowsRejected;
+
+    private final long elapsedMillis;
+
+    private final double linesPerSecond;
+
+    private final String error;
+
+    private Progress(
+        long id,
+        String path,
+        State state,
+        int filesTotal,
+        long filesDone,
+        long linesRead,
+        long rowsAccepted,
+        long rowsRejected,
+        long elapsedMillis,
+        double linesPerSecond,
+        String error) {
+      this.id = id;
+      this.path = path;
+      this.state = state;
+      this.filesTotal = filesTotal;
+      this.filesDone = filesDone;
+      this.linesRead = linesRead;
+      this.rowsAccepted = rowsAccepted;
+      this.rowsRejected = rowsRejected;
+      this.elapsedMillis = elapsedMillis;
+      this.linesPerSecond = linesPerSecond;
+      this.error = error;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public State getState() {
+      return state;
+    }
+
+    public int getFilesTotal() {
+      return filesTotal;
+    }
+
+    public long getFilesDone() {
+      return filesDone;
+    }
+
+    public long getLinesRead() {
+      return linesRead;
+    }
+
+    public long getRowsAccepted() {
+      return rowsAccepted;
+    }
+
+    public long getRowsRejected() {
+      return rowsRejected;
+    }
+
+    public long getElapsedMillis() {
+      return elapsedMillis;
+    }
+
+    public double getLinesPerSecond() {
+      return linesPerSecond;
+    }
+
+    public String getError() {
+      return error;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "Job %d %s '%s' (%d/%d files): %d lines (%d accepted, %d rejected) in %d ms, "
+              + "%.0f lines/sec%s",
+          id,
+          state,
+          path,
+          filesDone,
+          filesTotal,
+          linesRead,
+          rowsAccepted,
+          rowsRejected,
+          elapsedMillis,
+          linesPerSecond,
+          error == null ? "" : ", " + error);
+    }
+  }
+}
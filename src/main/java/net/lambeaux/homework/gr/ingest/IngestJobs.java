@@ -0,0 +1,287 @@
+package net.lambeaux.homework.gr.ingest;
+
+import static net.lambeaux.homework.gr.MiscValidation.noError;
+import static net.lambeaux.homework.gr.MiscValidation.validateThat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import net.lambeaux.homework.gr.core.ContentReader;
+import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.persistence.InMemoryDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs file loads in the background on a bounded worker pool. A worker streams a single file
+ * through the {@link ContentReader} in fixed-size chunks and hands them to a shared {@link
+ * GroupCommitWriter}, so parsing of the next chunk overlaps with the database write of the last.
+ * Jobs covering a directory or glob parse their files in parallel on a work-stealing pool. Several
+ * jobs can run at once while the database keeps serving reads.
+ */
+public class IngestJobs {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(IngestJobs.class);
+
+  private static final int BATCH_SIZE = 4096;
+
+  private static final int MAX_QUEUED_JOBS = 64;
+
+  private static final int MAX_RETAINED_JOBS = 256;
+
+  private static final int WRITE_QUEUE_CAPACITY = 16;
+
+  private final ContentReader contentReader;
+
+  private final ExecutorService workers;
+
+  private final ForkJoinPool parsers;
+
+  private final GroupCommitWriter writer;
+
+  private final AtomicLong ids;
+
+  private final Map<Long, IngestJob> jobs;
+
+  private final String replicaOf;
+
+  public IngestJobs(ContentReader contentReader, InMemoryDatabase db) {
+    this(contentReader, db, null);
+  }
+
+  /**
+   * Creates the job runner for a database.
+   *
+   * @param contentReader parser for input files.
+   * @param db the database to load into.
+   * @param replicaOf the leader that {@code db} is a read replica of, in which case every job is
+   *     refused, or {@code null} if local loads are allowed.
+   */
+  public IngestJobs(ContentReader contentReader, InMemoryDatabase db, String replicaOf) {
+    this.contentReader = Objects.requireNonNull(contentReader, "content reader cannot be null");
+    this.writer =
+        new GroupCommitWriter(
+            Objects.requireNonNull(db, "database cannot be null"), WRITE_QUEUE_CAPACITY);
+    int threads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    this.workers =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_JOBS),
+            daemonThreads("ingest-worker-"));
+    this.parsers = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    this.ids = new AtomicLong();
+    this.jobs = new ConcurrentSkipListMap<>();
+    this.replicaOf = replicaOf;
+  }
+
+  /**
+   * Validates a file or directory and queues it for loading.
+   *
+   * @param location absolute path of a file, or of a directory whose supported files are loaded.
+   * @return the queued job, which can be polled for progress.
+   * @throws IllegalArgumentException if nothing supported exists at {@code location}.
+   * @throws IllegalStateException if too many jobs are already queued, or the database is a read
+   *     replica.
+   */
+  public IngestJob submit(Path location) {
+    Objects.requireNonNull(location, "location cannot be null");
+    checkWritable();
+    return submit(location.toString(), InputFiles.expand(location, contentReader));
+  }
+
+  /**
+   * Resolves a file, directory or glob against {@code workingDir} and queues it for loading.
+   *
+   * @param workingDir directory that a relative {@code location} is resolved against.
+   * @param location file, directory or glob to load.
+   * @return the queued job, which can be polled for progress.
+   * @throws IllegalArgumentException if nothing supported matched {@code location}.
+   * @throws IllegalStateException if too many jobs are already queued, or the database is a read
+   *     replica.
+   */
+  public IngestJob submit(Path workingDir, String location) {
+    Objects.requireNonNull(workingDir, "workingDir cannot be null");
+    Objects.requireNonNull(location, "location cannot be null");
+    checkWritable();
+    if (InputFiles.isGlob(location)) {
+      List<Path> files = InputFiles.glob(workingDir, location, contentReader);
+      return submit(workingDir.resolve(location).toString(), files);
+    }
+    validateThat(() -> noError(() -> Paths.get(location)), "argument must be a valid path");
+    return submit(workingDir.resolve(location));
+  }
+
+  // Replicas only take writes from their leader, local ones would make them diverge from it
+  private void checkWritable() {
+    if (replicaOf != null) {
+      throw new IllegalStateException(
+          "this instance is a read replica of " + replicaOf + ", load files on the leader");
+    }
+  }
+
+  private IngestJob submit(String location, List<Path> files) {
+    IngestJob job = new IngestJob(ids.incrementAndGet(), location, files);
+    jobs.put(job.getId(), job);
+    try {
+      workers.execute(() -> run(job));
+    } catch (RejectedExecutionException e) {
+      jobs.remove(job.getId());
+      throw new IllegalStateException("too many ingest jobs are queued, try again later", e);
+    }
+    retireFinishedJobs();
+    return job;
+  }
+
+  public Optional<IngestJob> get(long id) {
+    return Optional.ofNullable(jobs.get(id));
+  }
+
+  /**
+   * Returns the queued, running, and most recently finished jobs, oldest first.
+   *
+   * @return known jobs.
+   */
+  public Collection<IngestJob> all() {
+    return new ArrayList<>(jobs.values());
+  }
+
+  private void run(IngestJob job) {
+    job.started();
+    List<CompletableFuture<Void>> writes = new ArrayList<>();
+    try {
+      if (job.getFiles().size() == 1) {
+        stream(job, job.getFiles().get(0), writes);
+      } else {
+        loadInParallel(job, writes);
+      }
+      CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).get();
+      job.succeeded();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      job.failed("ingest was interrupted");
+    } catch (ExecutionException e) {
+      job.failed("could not store records, " + e.getCause().getMessage());
+    } catch (CompletionException e) {
+      LOGGER.debug("Ingest job {} failed", job.getId(), e);
+      job.failed(e.getCause().getMessage());
+    } catch (IOException | RuntimeException e) {
+      LOGGER.debug("Ingest job {} failed", job.getId(), e);
+      job.failed("could not read file, " + e.getMessage());
+    }
+    LOGGER.info("Finished ingest: {}", job.progress());
+  }
+
+  // Single files are written chunk by chunk while the rest of the file is still being parsed
+  private void stream(IngestJob job, Path file, List<CompletableFuture<Void>> writes)
+      throws IOException, InterruptedException {
+    contentReader.read(
+        file,
+        BATCH_SIZE,
+        (records, lines) -> {
+          job.parsed(lines, records.size());
+          if (!records.isEmpty()) {
+            writes.add(write(job, records));
+          }
+        });
+    job.fileDone();
+  }
+
+  /*
+   * Files are parsed concurrently on the work-stealing pool, but handed to the writer strictly in
+   * path order, so a duplicate email in a later file always overwrites the earlier one no matter
+   * which parse finishes first. Only a bounded window of files is parsed ahead of the writer to
+   * keep memory in check.
+   */
+  private void loadInParallel(IngestJob job, List<CompletableFuture<Void>> writes)
+      throws InterruptedException {
+    List<Path> files = job.getFiles();
+    int lookAhead = parsers.getParallelism() * 2;
+    Deque<CompletableFuture<List<List<Record>>>> window = new ArrayDeque<>();
+    int next = 0;
+    for (int i = 0; i < files.size(); i++) {
+      while (next < files.size() && next < i + lookAhead) {
+        window.add(parse(job, files.get(next++)));
+      }
+      for (List<Record> records : window.remove().join()) {
+        writes.add(write(job, records));
+      }
+      job.fileDone();
+    }
+  }
+
+  private CompletableFuture<List<List<Record>>> parse(IngestJob job, Path file) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          List<List<Record>> batches = new ArrayList<>();
+          try {
+            contentReader.read(
+                file,
+                BATCH_SIZE,
+                (records, lines) -> {
+                  job.parsed(lines, records.size());
+                  if (!records.isEmpty()) {
+                    batches.add(records);
+                  }
+                });
+          } catch (IOException e) {
+            throw new UncheckedIOException(
+                "could not read file " + file + ", " + e.getMessage(), e);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("parsing of " + file + " was interrupted", e);
+          }
+          return batches;
+        },
+        parsers);
+  }
+
+  private CompletableFuture<Void> write(IngestJob job, List<Record> records)
+      throws InterruptedException {
+    return writer.submit(records).thenRun(() -> job.applied(records.size()));
+  }
+
+  private void retireFinishedJobs() {
+    for (IngestJob job : jobs.values()) {
+      if (jobs.size() <= MAX_RETAINED_JOBS) {
+        return;
+      }
+      if (job.isDone()) {
+        jobs.remove(job.getId());
+      }
+    }
+  }
+
+  private static ThreadFactory daemonThreads(String prefix) {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
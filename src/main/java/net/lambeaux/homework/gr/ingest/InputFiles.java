@@ -0,0 +1,106 @@
+package net.lambeaux.homework.gr.ingest;
+
+import static net.lambeaux.homework.gr.MiscValidation.validateThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import net.lambeaux.homework.gr.core.ContentReader;
+
+/**
+ * Expands an ingest location into the files to load. A location can be a single file, a directory
+ * (its supported files, not recursive) or a glob such as {@code drops/2021-??/*.csv}. Directories
+ * and globs skip the side files of rejected lines that earlier loads left there. Results are always
+ * sorted by path so that loads are repeatable.
+ */
+class InputFiles {
+
+  private static final String GLOB_CHARS = "*?[{";
+
+  private static final String ALL_DEPTHS = "**";
+
+  private InputFiles() {}
+
+  static boolean isGlob(String location) {
+    return location.chars().anyMatch(c -> GLOB_CHARS.indexOf(c) >= 0);
+  }
+
+  /**
+   * Expands a file or directory.
+   *
+   * @param location absolute path of a file or directory.
+   * @param contentReader decides which files are supported.
+   * @return supported files, sorted by path.
+   * @throws IllegalArgumentException if nothing loadable was found at {@code location}.
+   */
+  static List<Path> expand(Path location, ContentReader contentReader) {
+    File file = location.toFile();
+    validateThat(file::exists, "file " + file.toString() + " must exist");
+    if (file.isDirectory()) {
+      List<Path> files = walk(location, 1, path -> true, contentReader);
+      validateThat(() -> !files.isEmpty(), "directory " + file + " has no supported files");
+      return files;
+    }
+    validateThat(file::isFile, "file " + file.toString() + " must be a file with data");
+    validateThat(
+        () -> contentReader.canHandle(location),
+        "file " + file.toString() + " is not a supported format");
+    return Collections.singletonList(location);
+  }
+
+  /**
+   * Expands a glob. Only the path segments from the first one holding a wildcard onwards are
+   * searched, and {@code **} is needed to descend more than the pattern's own depth.
+   *
+   * @param workingDir directory that a relative {@code pattern} is resolved against.
+   * @param pattern the glob.
+   * @param contentReader decides which files are supported.
+   * @return supported matching files, sorted by path.
+   * @throws IllegalArgumentException if no supported file matched.
+   */
+  static List<Path> glob(Path workingDir, String pattern, ContentReader contentReader) {
+    String normalized = pattern.replace(File.separatorChar, '/');
+    int wildcard = 0;
+    while (GLOB_CHARS.indexOf(normalized.charAt(wildcard)) < 0) {
+      wildcard++;
+    }
+    int baseEnd = normalized.lastIndexOf('/', wildcard);
+    String baseStr = baseEnd < 0 ? "" : normalized.substring(0, baseEnd + 1);
+    String rest = normalized.substring(baseEnd + 1);
+
+    Path base = workingDir.resolve(Paths.get(baseStr)).toAbsolutePath().normalize();
+    validateThat(() -> base.toFile().isDirectory(), "directory " + base + " must exist");
+
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + rest);
+    int depth = rest.contains(ALL_DEPTHS) ? Integer.MAX_VALUE : rest.split("/").length;
+    List<Path> files =
+        walk(base, depth, path -> matcher.matches(base.relativize(path)), contentReader);
+    validateThat(() -> !files.isEmpty(), "pattern " + pattern + " matched no supported files");
+    return files;
+  }
+
+  private static List<Path> walk(
+      Path base, int depth, Predicate<Path> filter, ContentReader reader) {
+    try (Stream<Path> paths = Files.walk(base, depth)) {
+      return paths
+          .filter(Files::isRegularFile)
+          .filter(filter)
+          .filter(reader::canHandle)
+          .filter(path -> !reader.isQuarantine(path))
+          .sorted()
+          .collect(Collectors.toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException("could not list files under " + base, e);
+    }
+  }
+}
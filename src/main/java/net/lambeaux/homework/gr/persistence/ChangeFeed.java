@@ -0,0 +1,212 @@
+package net.lambeaux.homework.gr.persistence;
+
+import static net.lambeaux.homework.gr.MiscValidation.validateThat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import net.lambeaux.homework.gr.core.Record;
+
+/**
+ * Ring buffer of the most recent record writes, each numbered with a sequence that starts at one
+ * and increases by one per stored record. Subscribers remember the last sequence they have seen and
+ * ask for everything after it, so a reconnecting client can resume where it left off as long as the
+ * ring still retains that point. Sequences are only comparable within one feed, which a random
+ * {@link #epoch()} identifies.
+ *
+ * <p>Reads are lock-free. Writes must come from one thread at a time, which {@link
+ * InMemoryDatabase} guarantees with its write lock. Each slot carries the sequence it holds; a
+ * writer invalidates the slot before replacing its record, so a reader that still finds the
+ * expected sequence after reading the record knows it was not overwritten in the meantime.
+ */
+public class ChangeFeed {
+
+  public static final int DEFAULT_CAPACITY = 1 << 16;
+
+  private static final long INVALID = -1L;
+
+  private final AtomicLongArray sequences;
+
+  private final AtomicReferenceArray<Record> records;
+
+  private final int mask;
+
+  private final Object signal;
+
+  private final long epoch;
+
+  private volatile long head;
+
+  public ChangeFeed() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public ChangeFeed(int capacity) {
+    validateThat(
+        () -> capacity > 0 && Integer.bitCount(capacity) == 1,
+        "change feed capacity must be a positive power of two, " + capacity);
+    this.sequences = new AtomicLongArray(capacity);
+    this.records = new AtomicReferenceArray<>(capacity);
+    this.mask = capacity - 1;
+    this.signal = new Object();
+    this.epoch = ThreadLocalRandom.current().nextLong(1L, Long.MAX_VALUE);
+    this.head = 0L;
+    for (int i = 0; i < capacity; i++) {
+      sequences.lazySet(i, INVALID);
+    }
+  }
+
+  public int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Returns a random positive number chosen when this feed was created. A sequence saved by a
+   * client only means something to a feed of the same epoch; a restarted process starts a new feed
+   * whose sequences count from zero again.
+   *
+   * @return the epoch of this feed.
+   */
+  public long epoch() {
+    return epoch;
+  }
+
+  /**
+   * Returns the sequence of the latest published record.
+   *
+   * @return the latest sequence, or zero if nothing has been published yet.
+   */
+  public long head() {
+    return head;
+  }
+
+  /**
+   * Appends records in order and makes them visible with a single update of {@link #head()}, then
+   * wakes up anyone in {@link #awaitAfter(long, long, TimeUnit)}. Callers must serialize writes.
+   *
+   * @param batch records that were just stored, in the order they were applied.
+   */
+  void publish(Collection<Record> batch) {
+    long sequence = head;
+    for (Record rec : batch) {
+      sequence++;
+      int slot = (int) sequence & mask;
+      sequences.set(slot, INVALID);
+      records.set(slot, rec);
+      sequences.set(slot, sequence);
+    }
+    head = sequence;
+    synchronized (signal) {
+      signal.notifyAll();
+    }
+  }
+
+  /**
+   * Blocks until a record after {@code sequence} has been published or the timeout elapses.
+   *
+   * @param sequence the last sequence the caller has seen.
+   * @param timeout the longest time to wait.
+   * @param unit unit of {@code timeout}.
+   * @return the current {@link #head()}, which is only larger than {@code sequence} if something
+   *     new was published.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public long awaitAfter(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (signal) {
+      long current = head;
+      while (current <= sequence) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return current;
+        }
+        TimeUnit.NANOSECONDS.timedWait(signal, remaining);
+        current = head;
+      }
+      return current;
+    }
+  }
+
+  /**
+   * Collects the records published after {@code sequence}. If the ring has already dropped some of
+   * them, the batch starts at the oldest retained record and reports how many were missed, so the
+   * caller knows it must re-read the full data set to be consistent.
+   *
+   * @param sequence the last sequence the caller has seen.
+   * @param max the most records to return.
+   * @return the next batch, possibly empty.
+   */
+  public Batch readAfter(long sequence, int max) {
+    validateThat(() -> max > 0, "batch size must be positive, " + max);
+    while (true) {
+      long latest = head;
+      validateThat(
+          () -> sequence >= 0 && sequence <= latest,
+          String.format("sequence %d is not between 0 and %d", sequence, latest));
+      long from = Math.max(sequence, latest - capacity());
+      long to = Math.min(latest, from + max);
+      List<Record> found = new ArrayList<>((int) (to - from));
+      boolean overwritten = false;
+      for (long s = from + 1; s <= to && !overwritten; s++) {
+        int slot = (int) s & mask;
+        Record rec = records.get(slot);
+        overwritten = sequences.get(slot) != s;
+        found.add(rec);
+      }
+      if (!overwritten) {
+        return new Batch(from + 1, to, from - sequence, found);
+      }
+      // The writer lapped this reader, start over from the new oldest record once it is published
+      Thread.yield();
+    }
+  }
+
+  /** A run of consecutive changes, numbered {@code fromSequence} to {@code toSequence}. */
+  public static class Batch {
+
+    private final long fromSequence;
+
+    private final long toSequence;
+
+    private final long missed;
+
+    private final List<Record> records;
+
+    private Batch(long fromSequence, long toSequence, long missed, List<Record> records) {
+      this.fromSequence = fromSequence;
+      this.toSequence = toSequence;
+      this.missed = missed;
+      this.records = Collections.unmodifiableList(records);
+    }
+
+    public long getFromSequence() {
+      return fromSequence;
+    }
+
+    public long getToSequence() {
+      return toSequence;
+    }
+
+    /**
+     * Returns how many changes right before this batch were no longer retained.
+     *
+     * @return zero if the batch continues exactly where the caller left off.
+     */
+    public long getMissed() {
+      return missed;
+    }
+
+    public List<Record> getRecords() {
+      return records;
+    }
+
+    public boolean isEmpty() {
+      return records.isEmpty();
+    }
+  }
+}
@@ -0,0 +1,326 @@
+package net.lambeaux.homework.gr.persistence;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.core.RecordJson;
+
+/**
+ * Append-only, memory-mapped storage for records evicted from the heap. Records are written into
+ * fixed size segment files that are mapped once and never grow; an entry is addressed by its
+ * segment id in the high and its offset in the low 32 bits of a {@code long}. Each entry is stored
+ * as
+ *
+ * <pre>
+ *   int position          index of the record in its {@link RecordVersion}
+ *   int length            byte length of the six fields below
+ *   5 x (int, UTF-8)      email, last name, first name, favorite color, MM/dd/yyyy birth date
+ *   int, UTF-8            the record's JSON array element, see {@link RecordJson#encoded(Record)}
+ * </pre>
+ *
+ * <p>The email comes first so that index probes can compare it without decoding the rest. The JSON
+ * element is encoded on eviction if the record was never listed, and handed to the record read
+ * back, so listings of evicted records copy bytes instead of encoding them every time. Writes and
+ * compaction must come from one thread at a time, which {@link InMemoryDatabase} guarantees with
+ * its write lock. Reads go through an immutable {@link Segments} table and are lock-free; entries
+ * are written before the version referring to them is published, so a reader never sees a partial
+ * entry. A segment whose live entries were moved out by compaction is dropped from newer tables and
+ * its file deleted; versions that still refer to it keep the mapping alive until they are
+ * collected.
+ */
+class ColdStore {
+
+  static final long NONE = -1L;
+
+  private static final int HEADER_BYTES = 8;
+
+  private static final int FIELD_COUNT = 5;
+
+  private final Path directory;
+
+  private final int segmentBytes;
+
+  private final SimpleDateFormat dateFormat;
+
+  private Segments segments;
+
+  private int[] liveBytes;
+
+  private Segment active;
+
+  ColdStore(Path directory, int segmentBytes) {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+    this.segments = new Segments(new Segment[0]);
+    this.liveBytes = new int[0];
+    this.active = null;
+  }
+
+  Segments segments() {
+    return segments;
+  }
+
+  /**
+   * Appends a record, starting a new segment when the active one is full.
+   *
+   * @param rec the record to store.
+   * @param position index of the record in the version that will refer to the entry.
+   * @return the address of the new entry.
+   */
+  long append(Record rec, int position) {
+    byte[][] fields = {
+      utf8(rec.getEmail()),
+      utf8(rec.getLastName()),
+      utf8(rec.getFirstName()),
+      utf8(rec.getFavoriteColor()),
+      utf8(dateFormat.format(rec.getDateOfBirth())),
+      RecordJson.encoded(rec)
+    };
+    int length = 0;
+    for (byte[] field : fields) {
+      length += Integer.BYTES + field.length;
+    }
+    ByteBuffer out = reserve(HEADER_BYTES + length);
+    out.putInt(position).putInt(length);
+    for (byte[] field : fields) {
+      out.putInt(field.length).put(field);
+    }
+    return commit(HEADER_BYTES + length);
+  }
+
+  /**
+   * Copies an entry as is into the active segment, as compaction does with live entries.
+   *
+   * @param address the entry to copy.
+   * @return the address of the copy.
+   */
+  long copy(long address) {
+    ByteBuffer in = segments.entry(address);
+    int size = HEADER_BYTES + in.getInt(in.position() + Integer.BYTES);
+    ((Buffer) in).limit(in.position() + size);
+    reserve(size).put(in);
+    return commit(size);
+  }
+
+  /**
+   * Marks an entry as no longer referred to by the latest version, so compaction can reclaim it.
+   *
+   * @param address the overwritten entry.
+   */
+  void release(long address) {
+    ByteBuffer in = segments.entry(address);
+    liveBytes[segmentId(address)] -= HEADER_BYTES + in.getInt(in.position() + Integer.BYTES);
+  }
+
+  /**
+   * Picks the full segment with the smallest share of live bytes, if at most {@code maxLiveRatio}
+   * of it is still live.
+   *
+   * @param maxLiveRatio largest share of live bytes worth compacting.
+   * @return the segment id, or {@code -1} if no segment qualifies.
+   */
+  int compactionCandidate(double maxLiveRatio) {
+    int candidate = -1;
+    double lowest = maxLiveRatio;
+    for (int id = 0; id < segments.byId.length; id++) {
+      Segment segment = segments.byId[id];
+      if (segment != null && segment != active) {
+        double ratio = (double) liveBytes[id] / segment.used;
+        if (ratio <= lowest) {
+          candidate = id;
+          lowest = ratio;
+        }
+      }
+    }
+    return candidate;
+  }
+
+  /**
+   * Walks every entry of a segment, live or not.
+   *
+   * @param id the segment to walk.
+   * @param visitor receives the position and address of each entry.
+   */
+  void forEachEntry(int id, EntryVisitor visitor) {
+    Segment segment = segments.byId[id];
+    ByteBuffer in = segment.buffer.duplicate();
+    int offset = 0;
+    while (offset < segment.used) {
+      int position = in.getInt(offset);
+      visitor.visit(position, address(id, offset));
+      offset += HEADER_BYTES + in.getInt(offset + Integer.BYTES);
+    }
+  }
+
+  /**
+   * Drops a segment whose live entries have all been copied elsewhere and deletes its file.
+   *
+   * @param id the compacted segment.
+   */
+  void retire(int id) {
+    Segment segment = segments.byId[id];
+    Segment[] byId = segments.byId.clone();
+    byId[id] = null;
+    segments = new Segments(byId);
+    liveBytes[id] = 0;
+    deleteQuietly(segment.file);
+  }
+
+  /** Deletes every segment file; the store must not be used afterwards. */
+  void close() {
+    for (Segment segment : segments.byId) {
+      if (segment != null) {
+        deleteQuietly(segment.file);
+      }
+    }
+    segments = new Segments(new Segment[0]);
+    active = null;
+  }
+
+  static int segmentId(long address) {
+    return (int) (address >>> 32);
+  }
+
+  private static long address(int id, int offset) {
+    return ((long) id << 32) | offset;
+  }
+
+  private ByteBuffer reserve(int size) {
+    if (size > segmentBytes) {
+      throw new IllegalStateException(
+          "record of " + size + " bytes does not fit a segment of " + segmentBytes + " bytes");
+    }
+    if (active == null || active.used + size > segmentBytes) {
+      active = newSegment();
+    }
+    ByteBuffer out = active.buffer.duplicate();
+    ((Buffer) out).position(active.used);
+    return out;
+  }
+
+  private long commit(int size) {
+    long address = address(active.id, active.used);
+    active.used += size;
+    liveBytes[active.id] += size;
+    return address;
+  }
+
+  private Segment newSegment() {
+    int id = segments.byId.length;
+    Path file = directory.resolve(String.format("segment-%08d.dat", id));
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      raf.setLength(segmentBytes);
+      ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+      Segment segment = new Segment(id, file, buffer);
+      Segment[] byId = Arrays.copyOf(segments.byId, id + 1);
+      byId[id] = segment;
+      segments = new Segments(byId);
+      liveBytes = Arrays.copyOf(liveBytes, id + 1);
+      return segment;
+    } catch (IOException e) {
+      throw new UncheckedIOException("could not create cold storage segment " + file, e);
+    }
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      file.toFile().deleteOnExit();
+    }
+  }
+
+  private static byte[] utf8(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** Receives the entries of a segment, see {@link #forEachEntry(int, EntryVisitor)}. */
+  @FunctionalInterface
+  interface EntryVisitor {
+    void visit(int position, long address);
+  }
+
+  /** Immutable table of the segments a version can refer to. Safe for concurrent reads. */
+  static class Segments {
+
+    private final Segment[] byId;
+
+    private Segments(Segment[] byId) {
+      this.byId = byId;
+    }
+
+    /**
+     * Decodes the record of an entry.
+     *
+     * @param address the entry.
+     * @return a new record instance holding the stored fields and JSON element.
+     */
+    Record read(long address) {
+      ByteBuffer in = entry(address);
+      ((Buffer) in).position(in.position() + HEADER_BYTES);
+      String[] fields = new String[FIELD_COUNT];
+      for (int i = 0; i < FIELD_COUNT; i++) {
+        fields[i] = string(in);
+      }
+      Record rec = new Record(fields[1], fields[2], fields[0], fields[3], fields[4]);
+      byte[] json = new byte[in.getInt()];
+      in.get(json);
+      return RecordJson.withEncoded(rec, json);
+    }
+
+    /**
+     * Decodes only the email of an entry.
+     *
+     * @param address the entry.
+     * @return the stored email.
+     */
+    String readEmail(long address) {
+      ByteBuffer in = entry(address);
+      ((Buffer) in).position(in.position() + HEADER_BYTES);
+      return string(in);
+    }
+
+    // Positioned at the entry's header, on a private view of the segment
+    private ByteBuffer entry(long address) {
+      ByteBuffer in = byId[segmentId(address)].buffer.duplicate();
+      ((Buffer) in).position((int) address);
+      return in;
+    }
+
+    private static String string(ByteBuffer in) {
+      byte[] bytes = new byte[in.getInt()];
+      in.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+
+  private static class Segment {
+
+    private final int id;
+
+    private final Path file;
+
+    // Typed and repositioned as plain buffers: built on a newer JDK, the covariant overrides of
+    // duplicate(), position(int) and limit(int) would be linked, and Java 8 does not have them
+    private final ByteBuffer buffer;
+
+    private int used;
+
+    private Segment(int id, Path file, ByteBuffer buffer) {
+      this.id = id;
+      this.file = file;
+      this.buffer = buffer;
+      this.used = 0;
+    }
+  }
+}
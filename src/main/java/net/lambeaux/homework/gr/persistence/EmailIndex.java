@@ -0,0 +1,206 @@
+package net.lambeaux.homework.gr.persistence;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntFunction;
+
+/**
+ * Open-addressing hash table from email to the position of its record in the {@link
+ * RecordVersion}s. Slots live in two flat arrays, one holding a precomputed 64-bit hash per slot
+ * and one holding the position, with linear probing and no per-entry node objects or record
+ * references, so the index stays small and on the heap while records may be evicted to the {@link
+ * ColdStore}. A probe only asks for the email at a position, to rule out a collision, when the full
+ * 64-bit hashes already match.
+ *
+ * <p>Reads are lock-free. Writes must come from one thread at a time, which {@link
+ * InMemoryDatabase} guarantees with its write lock. A writer fills in the position before it
+ * publishes the slot's hash, and publishes a grown table with a single volatile write, so a
+ * concurrent reader never observes a half-written slot.
+ *
+ * <p>Entries are only removed to undo a write that failed before its version was published. A
+ * removed slot keeps a tombstone hash that probes step over, so no other entry has to move under a
+ * concurrent reader; tombstones are dropped the next time the table grows.
+ */
+class EmailIndex {
+
+  private static final int MIN_CAPACITY = 16;
+
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  private static final long EMPTY = 0L;
+
+  private static final long TOMBSTONE = -1L;
+
+  private volatile Table table;
+
+  private int size;
+
+  private int tombstones;
+
+  EmailIndex() {
+    this.table = new Table(MIN_CAPACITY);
+    this.size = 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Finds the position stored for an email without taking any lock.
+   *
+   * @param email key to look up.
+   * @param emailAt resolves the email held at a position, or {@code null} if that position is not
+   *     known to the caller.
+   * @return the position, or {@code -1} if there is none.
+   */
+  int get(String email, IntFunction<String> emailAt) {
+    long hash = hash(email);
+    Table current = table;
+    for (int i = current.slot(hash); ; i = current.next(i)) {
+      long slotHash = current.hashes.get(i);
+      if (slotHash == EMPTY) {
+        return -1;
+      }
+      if (slotHash == hash) {
+        int position = current.positions[i];
+        if (email.equals(emailAt.apply(position))) {
+          return position;
+        }
+      }
+    }
+  }
+
+  /**
+   * Stores the position of a new email, or finds the position of an email already stored. Callers
+   * must serialize writes.
+   *
+   * @param email key to store.
+   * @param position position to keep if the email is new.
+   * @param emailAt resolves the email held at a position already stored.
+   * @return the position kept for the email if it was already stored, or {@code -1} if it is new.
+   */
+  int put(String email, int position, IntFunction<String> emailAt) {
+    ensureCapacity(size + 1);
+    long hash = hash(email);
+    Table current = table;
+    for (int i = current.slot(hash); ; i = current.next(i)) {
+      long slotHash = current.hashes.get(i);
+      if (slotHash == EMPTY) {
+        current.positions[i] = position;
+        current.hashes.set(i, hash);
+        size++;
+        return -1;
+      }
+      if (slotHash == hash && email.equals(emailAt.apply(current.positions[i]))) {
+        return current.positions[i];
+      }
+    }
+  }
+
+  /**
+   * Removes the entry for an email, as added by {@link #put(String, int, IntFunction)}. Callers
+   * must serialize writes.
+   *
+   * @param email key to remove.
+   * @param position position stored for the email.
+   */
+  void remove(String email, int position) {
+    long hash = hash(email);
+    Table current = table;
+    for (int i = current.slot(hash); ; i = current.next(i)) {
+      long slotHash = current.hashes.get(i);
+      if (slotHash == EMPTY) {
+        return;
+      }
+      if (slotHash == hash && current.positions[i] == position) {
+        current.hashes.set(i, TOMBSTONE);
+        size--;
+        tombstones++;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Grows the table up front so that {@code expectedSize} entries fit without further resizing.
+   * Callers must serialize writes.
+   *
+   * @param expectedSize number of entries the table should be able to hold.
+   */
+  void ensureCapacity(int expectedSize) {
+    Table current = table;
+    if (expectedSize + tombstones <= current.threshold) {
+      return;
+    }
+    if (expectedSize > MAX_CAPACITY / 4 * 3) {
+      throw new IllegalStateException("email index cannot hold " + expectedSize + " entries");
+    }
+    int capacity = current.capacity();
+    while (expectedSize > capacity / 4 * 3) {
+      capacity <<= 1;
+    }
+    Table grown = new Table(capacity);
+    for (int i = 0; i < current.capacity(); i++) {
+      long hash = current.hashes.get(i);
+      if (hash != EMPTY && hash != TOMBSTONE) {
+        int slot = grown.slot(hash);
+        while (grown.hashes.get(slot) != EMPTY) {
+          slot = grown.next(slot);
+        }
+        grown.positions[slot] = current.positions[i];
+        grown.hashes.lazySet(slot, hash);
+      }
+    }
+    table = grown;
+    tombstones = 0;
+  }
+
+  /*
+   * FNV-1a over the UTF-16 chars, then the murmur3 finalizer so that the low bits used for the slot
+   * depend on every input char. Zero marks an empty slot and minus one a removed one, so neither is
+   * ever returned.
+   */
+  static long hash(String key) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++) {
+      h ^= key.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h == EMPTY || h == TOMBSTONE ? 1L : h;
+  }
+
+  private static class Table {
+
+    private final AtomicLongArray hashes;
+
+    private final int[] positions;
+
+    private final int mask;
+
+    private final int threshold;
+
+    private Table(int capacity) {
+      this.hashes = new AtomicLongArray(capacity);
+      this.positions = new int[capacity];
+      this.mask = capacity - 1;
+      this.threshold = capacity / 4 * 3;
+    }
+
+    private int capacity() {
+      return mask + 1;
+    }
+
+    private int slot(long hash) {
+      return (int) hash & mask;
+    }
+
+    private int next(int slot) {
+      return (slot + 1) & mask;
+    }
+  }
+}
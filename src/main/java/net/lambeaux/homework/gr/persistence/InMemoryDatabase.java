@@ -1,27 +1,431 @@
 package net.lambeaux.homework.gr.persistence;
 
+import static net.lambeaux.homework.gr.MiscValidation.validateThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.profiling.PhaseEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Thread-safe store of {@link Record}s keyed by email. Every write call publishes exactly one new
+ * immutable {@link #version()} of the data, so a batch applied with {@link #putAll(Collection)}
+ * becomes visible to readers all at once. Readers never lock: {@link #allValues()} and {@link
+ * #snapshot()} pin the latest published version and keep seeing it however long they take, while
+ * writers carry on deriving newer versions that share every unchanged chunk with it. Single-record
+ * lookups through {@link #get(String)} go to a lock-free email index, and {@link #search(String,
+ * int)} to a trigram index over names and emails that every write updates incrementally.
+ *
+ * <p>By default every record stays on the heap. A database created with a hot capacity keeps at
+ * most that many records on the heap and evicts the rest to memory-mapped {@link ColdStore} segment
+ * files, choosing victims with the CLOCK algorithm: writes and {@link #get(String)} lookups mark a
+ * record as recently used, and the eviction hand spares marked records once. Lookups and scans read
+ * cold records transparently. A background thread compacts segments once most of their entries have
+ * been overwritten, one segment per write lock acquisition.
+ *
+ * <p>Every stored record is also appended to the {@link #changes()} feed, in the same order in
+ * which the writes were applied, after the version holding it has been published.
+ */
 public class InMemoryDatabase {
 
-  private final Map<String, Record> data;
+  private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryDatabase.class);
+
+  private static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+  private static final double COMPACTION_MAX_LIVE_RATIO = 0.5;
+
+  private static final long COMPACTION_INTERVAL_MS = 1000L;
+
+  private final Lock writeLock;
+
+  private final EmailIndex index;
+
+  private final ChangeFeed changes;
+
+  private final SearchIndex search;
+
+  private final int hotCapacity;
+
+  private final ColdStore cold;
+
+  private final Thread compactor;
+
+  private volatile RecordVersion current;
+
+  private volatile byte[] referenced;
+
+  private int hot;
+
+  private int hand;
 
   public InMemoryDatabase() {
-    this.data = new HashMap<>();
+    this.writeLock = new ReentrantLock();
+    this.index = new EmailIndex();
+    this.changes = new ChangeFeed();
+    this.search = new SearchIndex();
+    this.hotCapacity = Integer.MAX_VALUE;
+    this.cold = null;
+    this.compactor = null;
+    this.current = RecordVersion.EMPTY;
+  }
+
+  /**
+   * Creates a database that keeps at most {@code hotCapacity} records on the heap.
+   *
+   * @param hotCapacity the most records to keep on the heap.
+   * @param coldDirectory existing directory for the segment files of evicted records.
+   */
+  public InMemoryDatabase(int hotCapacity, Path coldDirectory) {
+    this(hotCapacity, coldDirectory, DEFAULT_SEGMENT_BYTES);
   }
 
-  InMemoryDatabase(Map<String, Record> data) {
-    this.data = data;
+  InMemoryDatabase(int hotCapacity, Path coldDirectory, int segmentBytes) {
+    validateThat(() -> hotCapacity > 0, "hot capacity must be positive");
+    validateThat(() -> Files.isDirectory(coldDirectory), "cold storage must be a directory");
+    this.writeLock = new ReentrantLock();
+    this.index = new EmailIndex();
+    this.changes = new ChangeFeed();
+    this.search = new SearchIndex();
+    this.hotCapacity = hotCapacity;
+    this.cold = new ColdStore(coldDirectory, segmentBytes);
+    this.current = RecordVersion.EMPTY;
+    this.referenced = new byte[0];
+    this.compactor = new Thread(this::compactPeriodically, "cold-compactor");
+    this.compactor.setDaemon(true);
+    this.compactor.start();
   }
 
+  /**
+   * Returns every record of the latest version without copying or locking. The result is never
+   * affected by later writes.
+   *
+   * @return an unmodifiable view of all records held at the time of the call.
+   */
   public Collection<Record> allValues() {
-    return data.values();
+    return current.records();
+  }
+
+  /**
+   * Returns every record together with the {@link #changes()} sequence it reflects, so a consumer
+   * can load the records and then continue with the changes published after that sequence.
+   *
+   * @return all records of the latest version and the feed sequence of its last write.
+   */
+  public Snapshot snapshot() {
+    RecordVersion pinned = current;
+    return new Snapshot(pinned.records(), pinned.sequence());
+  }
+
+  /**
+   * Looks up a single record without locking; it may see part of a batch that is still being
+   * applied.
+   *
+   * @param email key of the record.
+   * @return the record, or {@code null} if none is stored for {@code email}.
+   */
+  public Record get(String email) {
+    Objects.requireNonNull(email, "email cannot be null");
+    RecordVersion pinned = current;
+    int position = index.get(email, pinned::emailAt);
+    if (position < 0) {
+      return null;
+    }
+    touch(position);
+    return pinned.get(position);
+  }
+
+  /**
+   * Searches the last names, first names and emails of the latest version, see {@link
+   * SearchIndex#search(RecordVersion, String, int)}.
+   *
+   * @param query whitespace separated terms that must all match, ignoring case.
+   * @param limit the most records to return.
+   * @return the best matches, best first.
+   * @throws IllegalArgumentException if the query is empty or a term is shorter than 2 characters.
+   */
+  public List<Record> search(String query, int limit) {
+    Objects.requireNonNull(query, "query cannot be null");
+    validateThat(() -> limit > 0, "limit must be positive");
+    PhaseEvents.Store event = new PhaseEvents.Store();
+    event.begin();
+    RecordVersion version = current;
+    List<Record> results = search.search(version, query, limit);
+    commit(event, "search", results.size(), version);
+    return results;
+  }
+
+  /**
+   * Returns a counter that increases by one for every completed write call.
+   *
+   * @return the current data version.
+   */
+  public long version() {
+    return current.version();
+  }
+
+  /**
+   * Returns the feed that every stored record is published to.
+   *
+   * @return the change feed of this database.
+   */
+  public ChangeFeed changes() {
+    return changes;
   }
 
   public void put(String key, Record val) {
-    data.put(key, val);
+    Objects.requireNonNull(key, "key cannot be null");
+    Objects.requireNonNull(val, "val cannot be null");
+    validateThat(() -> key.equals(val.getEmail()), "records must be keyed by their email");
+    apply(Collections.singletonList(val));
+  }
+
+  /**
+   * Stores a whole chunk of records keyed by email as one version. The index is grown once for the
+   * whole chunk up front. Duplicate emails within the batch resolve to the last one, which matches
+   * the outcome of calling {@link #put(String, Record)} for each record in order.
+   *
+   * @param batch records to store, in arrival order.
+   */
+  public void putAll(Collection<Record> batch) {
+    Objects.requireNonNull(batch, "batch cannot be null");
+    if (batch.isEmpty()) {
+      return;
+    }
+    batch.forEach(rec -> Objects.requireNonNull(rec, "batch cannot hold null"));
+    apply(batch);
+  }
+
+  /**
+   * Counts the records currently held on the heap.
+   *
+   * @return the number of hot records.
+   */
+  int hotRecords() {
+    writeLock.lock();
+    try {
+      return cold == null ? current.size() : hot;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /** Stops the compactor and deletes the segment files of evicted records, if there are any. */
+  public void close() {
+    if (cold == null) {
+      return;
+    }
+    compactor.interrupt();
+    writeLock.lock();
+    try {
+      cold.close();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /*
+   * Callers validate the whole batch before it gets here. Should the write still fail before the
+   * new version is published, e.g. when an evicted record cannot be written to cold storage, the
+   * index entries of new emails are removed again and the hot count restored, so the shared index
+   * never holds positions the published version does not have. Overwritten cold entries are only
+   * released once the version that drops them is published. Stale search postings need no undo, a
+   * search checks every candidate against the version it reads.
+   */
+  private void apply(Collection<Record> batch) {
+    PhaseEvents.Store event = new PhaseEvents.Store();
+    event.begin();
+    writeLock.lock();
+    try {
+      RecordVersion base = current;
+      RecordVersion.Builder next = base.toBuilder();
+      int hotBefore = hot;
+      List<Long> released = new ArrayList<>();
+      try {
+        index.ensureCapacity(index.size() + batch.size());
+        SearchIndex.Update indexed = search.update();
+        for (Record rec : batch) {
+          int position = index.put(rec.getEmail(), next.size(), next::emailAt);
+          if (position < 0) {
+            position = next.add(rec);
+            indexed.touch(position, null);
+            hot++;
+          } else {
+            Record replaced = next.hot(position);
+            indexed.touch(position, replaced != null ? replaced : base.get(position));
+            long previous = next.set(position, rec);
+            if (previous != ColdStore.NONE) {
+              released.add(previous);
+              hot++;
+            }
+          }
+          touch(position);
+        }
+        indexed.apply(next::hot);
+        if (cold != null) {
+          evict(next);
+        }
+      } catch (RuntimeException | Error e) {
+        for (int position = base.size(); position < next.size(); position++) {
+          index.remove(next.emailAt(position), position);
+        }
+        hot = hotBefore;
+        throw e;
+      }
+      current =
+          next.build(
+              base.version() + 1,
+              base.sequence() + batch.size(),
+              cold == null ? null : cold.segments());
+      for (long address : released) {
+        cold.release(address);
+      }
+      changes.publish(batch);
+    } finally {
+      writeLock.unlock();
+    }
+    commit(event, "write", batch.size(), current);
+  }
+
+  private static void commit(
+      PhaseEvents.Store event, String operation, int records, RecordVersion version) {
+    if (event.shouldCommit()) {
+      event.operation = operation;
+      event.records = records;
+      event.databaseSize = version.size();
+      event.commit();
+    }
+  }
+
+  // Advances the CLOCK hand until the heap holds no more than the hot capacity
+  private void evict(RecordVersion.Builder next) {
+    byte[] marks = referenced;
+    while (hot > hotCapacity) {
+      if (hand >= next.size()) {
+        hand = 0;
+      }
+      Record rec = next.hot(hand);
+      if (rec != null) {
+        if (marks[hand] != 0) {
+          marks[hand] = 0;
+        } else {
+          next.evict(hand, cold.append(rec, hand));
+          hot--;
+        }
+      }
+      hand++;
+    }
+  }
+
+  // Readers may race with the writer growing the marks, which only loses a hint
+  private void touch(int position) {
+    if (cold == null) {
+      return;
+    }
+    byte[] marks = referenced;
+    if (position >= marks.length) {
+      if (!writeLock.tryLock()) {
+        return;
+      }
+      try {
+        marks = referenced;
+        if (position >= marks.length) {
+          marks = Arrays.copyOf(marks, Math.max(position + 1, marks.length + (marks.length >> 1)));
+          referenced = marks;
+        }
+      } finally {
+        writeLock.unlock();
+      }
+    }
+    marks[position] = 1;
+  }
+
+  /**
+   * Moves the live entries of the segment with the most overwritten entries into the active segment
+   * and deletes it. The data and version number stay the same.
+   *
+   * @return {@code true} if a segment was compacted.
+   */
+  boolean compact() {
+    writeLock.lock();
+    try {
+      int id = cold.compactionCandidate(COMPACTION_MAX_LIVE_RATIO);
+      if (id < 0) {
+        return false;
+      }
+      RecordVersion base = current;
+      RecordVersion.Builder next = base.toBuilder();
+      cold.forEachEntry(
+          id,
+          (position, address) -> {
+            if (position < next.size() && next.address(position) == address) {
+              next.relocate(position, cold.copy(address));
+            }
+          });
+      cold.retire(id);
+      current = next.build(base.version(), base.sequence(), cold.segments());
+      return true;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /*
+   * A failed compaction, e.g. when no new segment can be created on a full disk, leaves the latest
+   * version as it was, so the thread carries on and tries again on the next round. Only the first
+   * of consecutive failures is logged with its stack trace.
+   */
+  private void compactPeriodically() {
+    boolean failing = false;
+    try {
+      while (true) {
+        Thread.sleep(COMPACTION_INTERVAL_MS);
+        try {
+          while (compact()) {
+            // Keep going while segments qualify, releasing the write lock in between
+          }
+          failing = false;
+        } catch (RuntimeException e) {
+          if (failing) {
+            LOGGER.warn("Cold storage compaction failed again: {}", e.getMessage());
+          } else {
+            LOGGER.warn("Cold storage compaction failed, retrying every round", e);
+          }
+          failing = true;
+        }
+      }
+    } catch (InterruptedException e) {
+      // Database closed
+    }
+  }
+
+  /** Point-in-time view of the database, see {@link #snapshot()}. */
+  public static class Snapshot {
+
+    private final List<Record> records;
+
+    private final long sequence;
+
+    private Snapshot(List<Record> records, long sequence) {
+      this.records = records;
+      this.sequence = sequence;
+    }
+
+    public List<Record> getRecords() {
+      return records;
+    }
+
+    public long getSequence() {
+      return sequence;
+    }
   }
 }
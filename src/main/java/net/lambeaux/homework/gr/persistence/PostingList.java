@@ -0,0 +1,258 @@
+package net.lambeaux.homework.gr.persistence;
+
+import java.util.Arrays;
+
+/**
+ * Immutable, compressed set of record positions. Most positions live in a packed part: sorted,
+ * split into blocks of {@value #BLOCK_SIZE}, and delta encoded as variable length integers within
+ * each block, with the first value and byte offset of every block kept uncompressed so that a
+ * membership test only decodes one block. Recent changes sit in two small sorted buffers of added
+ * and removed positions, and are folded into the packed part once they outgrow a fraction of it,
+ * which keeps the cost of an update proportional to the change rather than the list.
+ */
+class PostingList {
+
+  static final PostingList EMPTY =
+      new PostingList(new byte[0], new int[0], new int[0], 0, new int[0], new int[0]);
+
+  private static final int BLOCK_SIZE = 128;
+
+  private static final int MIN_BUFFERED = 64;
+
+  private static final int[] NONE = new int[0];
+
+  private final byte[] packed;
+
+  private final int[] blockFirst;
+
+  private final int[] blockOffset;
+
+  private final int packedCount;
+
+  private final int[] added;
+
+  private final int[] removed;
+
+  private PostingList(
+      byte[] packed,
+      int[] blockFirst,
+      int[] blockOffset,
+      int packedCount,
+      int[] added,
+      int[] removed) {
+    this.packed = packed;
+    this.blockFirst = blockFirst;
+    this.blockOffset = blockOffset;
+    this.packedCount = packedCount;
+    this.added = added;
+    this.removed = removed;
+  }
+
+  int size() {
+    return packedCount + added.length - removed.length;
+  }
+
+  boolean contains(int position) {
+    if (Arrays.binarySearch(added, position) >= 0) {
+      return true;
+    }
+    return packedContains(position) && Arrays.binarySearch(removed, position) < 0;
+  }
+
+  /**
+   * Derives the list with some positions added and others removed.
+   *
+   * @param adds sorted, distinct positions to add.
+   * @param removes sorted, distinct positions to remove, disjoint from {@code adds}.
+   * @return the updated list; this list is left unchanged.
+   */
+  PostingList update(int[] adds, int[] removes) {
+    int[] nextAdded = difference(added, removes);
+    int[] nextRemoved = difference(removed, adds);
+    int[] newlyAdded = new int[adds.length];
+    int count = 0;
+    int packedLast = packedLast();
+    for (int position : adds) {
+      if (position > packedLast || !packedContains(position)) {
+        newlyAdded[count++] = position;
+      }
+    }
+    nextAdded = union(nextAdded, Arrays.copyOf(newlyAdded, count));
+    int[] newlyRemoved = new int[removes.length];
+    count = 0;
+    for (int position : removes) {
+      if (position <= packedLast && packedContains(position)) {
+        newlyRemoved[count++] = position;
+      }
+    }
+    nextRemoved = union(nextRemoved, Arrays.copyOf(newlyRemoved, count));
+    if (nextAdded.length + nextRemoved.length > Math.max(MIN_BUFFERED, packedCount / 8)) {
+      if (nextRemoved.length == 0 && nextAdded[0] > packedLast) {
+        return append(nextAdded);
+      }
+      return pack(merge(decode(), nextAdded, nextRemoved));
+    }
+    return new PostingList(packed, blockFirst, blockOffset, packedCount, nextAdded, nextRemoved);
+  }
+
+  /**
+   * Decodes every position.
+   *
+   * @return the sorted positions.
+   */
+  int[] toArray() {
+    return merge(decode(), added, removed);
+  }
+
+  static PostingList pack(int[] positions) {
+    return positions.length == 0 ? EMPTY : EMPTY.append(positions);
+  }
+
+  // Encodes sorted positions greater than every packed one after the packed part, dropping buffers
+  private PostingList append(int[] tail) {
+    int count = packedCount + tail.length;
+    int blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    int[] first = Arrays.copyOf(blockFirst, blocks);
+    int[] offset = Arrays.copyOf(blockOffset, blocks);
+    byte[] out = Arrays.copyOf(packed, packed.length + tail.length * 5);
+    int size = packed.length;
+    int previous = packedLast();
+    for (int i = packedCount; i < count; i++) {
+      int position = tail[i - packedCount];
+      if (i % BLOCK_SIZE == 0) {
+        first[i / BLOCK_SIZE] = position;
+        offset[i / BLOCK_SIZE] = size;
+      } else {
+        int delta = position - previous;
+        while ((delta & ~0x7f) != 0) {
+          out[size++] = (byte) ((delta & 0x7f) | 0x80);
+          delta >>>= 7;
+        }
+        out[size++] = (byte) delta;
+      }
+      previous = position;
+    }
+    return new PostingList(Arrays.copyOf(out, size), first, offset, count, NONE, NONE);
+  }
+
+  // New records get increasing positions, so most additions sort after the packed part
+  private int packedLast() {
+    if (packedCount == 0) {
+      return -1;
+    }
+    int block = blockFirst.length - 1;
+    int value = blockFirst[block];
+    int offset = blockOffset[block];
+    for (int i = block * BLOCK_SIZE + 1; i < packedCount; i++) {
+      int delta = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = packed[offset++];
+        delta |= (b & 0x7f) << shift;
+        shift += 7;
+      } while (b < 0);
+      value += delta;
+    }
+    return value;
+  }
+
+  private boolean packedContains(int position) {
+    int block = Arrays.binarySearch(blockFirst, position);
+    if (block >= 0) {
+      return true;
+    }
+    block = -block - 2;
+    if (block < 0) {
+      return false;
+    }
+    int value = blockFirst[block];
+    int count = Math.min(BLOCK_SIZE, packedCount - block * BLOCK_SIZE);
+    int offset = blockOffset[block];
+    for (int i = 1; i < count && value < position; i++) {
+      int delta = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = packed[offset++];
+        delta |= (b & 0x7f) << shift;
+        shift += 7;
+      } while (b < 0);
+      value += delta;
+    }
+    return value == position;
+  }
+
+  private int[] decode() {
+    int[] values = new int[packedCount];
+    int offset = 0;
+    for (int i = 0; i < packedCount; i++) {
+      if (i % BLOCK_SIZE == 0) {
+        values[i] = blockFirst[i / BLOCK_SIZE];
+        continue;
+      }
+      int delta = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = packed[offset++];
+        delta |= (b & 0x7f) << shift;
+        shift += 7;
+      } while (b < 0);
+      values[i] = values[i - 1] + delta;
+    }
+    return values;
+  }
+
+  private static int[] merge(int[] packed, int[] added, int[] removed) {
+    return union(difference(packed, removed), added);
+  }
+
+  static int[] union(int[] a, int[] b) {
+    if (b.length == 0) {
+      return a;
+    }
+    if (a.length == 0) {
+      return b;
+    }
+    int[] out = new int[a.length + b.length];
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j]) {
+        out[n++] = a[i++];
+      } else if (a[i] > b[j]) {
+        out[n++] = b[j++];
+      } else {
+        out[n++] = a[i++];
+        j++;
+      }
+    }
+    while (i < a.length) {
+      out[n++] = a[i++];
+    }
+    while (j < b.length) {
+      out[n++] = b[j++];
+    }
+    return n == out.length ? out : Arrays.copyOf(out, n);
+  }
+
+  static int[] difference(int[] a, int[] b) {
+    if (a.length == 0 || b.length == 0) {
+      return a;
+    }
+    int[] out = new int[a.length];
+    int j = 0;
+    int n = 0;
+    for (int value : a) {
+      while (j < b.length && b[j] < value) {
+        j++;
+      }
+      if (j == b.length || b[j] != value) {
+        out[n++] = value;
+      }
+    }
+    return n == out.length ? a : Arrays.copyOf(out, n);
+  }
+}
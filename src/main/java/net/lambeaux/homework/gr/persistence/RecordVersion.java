@@ -0,0 +1,279 @@
+package net.lambeaux.homework.gr.persistence;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import net.lambeaux.homework.gr.core.Record;
+
+/**
+ * Immutable version of every stored record, in the order their emails were first stored. Records
+ * live in fixed size chunks, so a writer derives the next version by copying the small array of
+ * chunk references plus only the chunks it touches; untouched chunks are shared between versions. A
+ * reader that holds a version sees exactly that data no matter what is written afterwards, and the
+ * version is reclaimed by the garbage collector once no reader holds it.
+ *
+ * <p>A position either holds its record on the heap or, once evicted, the address of its entry in
+ * the {@link ColdStore}. Cold records are decoded into a new instance on every access; chunks
+ * without any cold record carry no address array.
+ */
+class RecordVersion {
+
+  private static final int CHUNK_BITS = 10;
+
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  static final RecordVersion EMPTY =
+      new RecordVersion(new Record[0][], new long[0][], 0, 0L, 0L, null);
+
+  private final Record[][] chunks;
+
+  private final long[][] addresses;
+
+  private final int size;
+
+  private final long version;
+
+  private final long sequence;
+
+  private final ColdStore.Segments cold;
+
+  private final List<Record> records;
+
+  private RecordVersion(
+      Record[][] chunks,
+      long[][] addresses,
+      int size,
+      long version,
+      long sequence,
+      ColdStore.Segments cold) {
+    this.chunks = chunks;
+    this.addresses = addresses;
+    this.size = size;
+    this.version = version;
+    this.sequence = sequence;
+    this.cold = cold;
+    this.records = new View();
+  }
+
+  int size() {
+    return size;
+  }
+
+  long version() {
+    return version;
+  }
+
+  /**
+   * Returns the {@link ChangeFeed} sequence of the last write included in this version.
+   *
+   * @return the feed sequence.
+   */
+  long sequence() {
+    return sequence;
+  }
+
+  /**
+   * Returns the records of this version without copying them.
+   *
+   * @return an unmodifiable, random access list.
+   */
+  List<Record> records() {
+    return records;
+  }
+
+  /**
+   * Returns the record at a position.
+   *
+   * @param position index of the record.
+   * @return the record, or {@code null} if the position is not part of this version.
+   */
+  Record get(int position) {
+    if (position >= size) {
+      return null;
+    }
+    Record rec = chunks[position >>> CHUNK_BITS][position & CHUNK_MASK];
+    return rec != null ? rec : cold.read(address(addresses, position));
+  }
+
+  /**
+   * Returns the email at a position, without decoding the rest of a cold record.
+   *
+   * @param position index of the record.
+   * @return the email, or {@code null} if the position is not part of this version.
+   */
+  String emailAt(int position) {
+    if (position >= size) {
+      return null;
+    }
+    Record rec = chunks[position >>> CHUNK_BITS][position & CHUNK_MASK];
+    return rec != null ? rec.getEmail() : cold.readEmail(address(addresses, position));
+  }
+
+  Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  private static long address(long[][] addresses, int position) {
+    return addresses[position >>> CHUNK_BITS][position & CHUNK_MASK];
+  }
+
+  private class View extends AbstractList<Record> implements RandomAccess {
+
+    @Override
+    public Record get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("index " + index + " of " + size);
+      }
+      return RecordVersion.this.get(index);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  /**
+   * Derives the next version from a base version. Each chunk is copied at most once, the first time
+   * the builder writes to it; the base version is never modified. A builder derives a single
+   * version and is not thread-safe.
+   */
+  static class Builder {
+
+    private final RecordVersion base;
+
+    private Record[][] chunks;
+
+    private long[][] addresses;
+
+    private final boolean[] owned;
+
+    private int size;
+
+    private Builder(RecordVersion base) {
+      this.base = base;
+      this.chunks = base.chunks.clone();
+      this.addresses = base.addresses.clone();
+      this.owned = new boolean[chunks.length];
+      this.size = base.size;
+    }
+
+    int size() {
+      return size;
+    }
+
+    /**
+     * Returns the record at a position if it is held on the heap.
+     *
+     * @param position index of the record.
+     * @return the record, or {@code null} if it is cold.
+     */
+    Record hot(int position) {
+      return chunks[position >>> CHUNK_BITS][position & CHUNK_MASK];
+    }
+
+    /**
+     * Returns the cold store address of the record at a position.
+     *
+     * @param position index of the record.
+     * @return the address, or {@link ColdStore#NONE} if the record is on the heap.
+     */
+    long address(int position) {
+      return hot(position) != null ? ColdStore.NONE : RecordVersion.address(addresses, position);
+    }
+
+    /**
+     * Returns the email at a position, reading cold records through the base version.
+     *
+     * @param position index of the record.
+     * @return the email.
+     */
+    String emailAt(int position) {
+      Record rec = hot(position);
+      return rec != null ? rec.getEmail() : base.cold.readEmail(address(position));
+    }
+
+    /**
+     * Replaces the record at a position already held by the version, keeping it on the heap.
+     *
+     * @param position index of the record to replace.
+     * @param rec the new record.
+     * @return the cold store address the position held until now, or {@link ColdStore#NONE}.
+     */
+    long set(int position, Record rec) {
+      long previous = address(position);
+      writableChunk(position >>> CHUNK_BITS)[position & CHUNK_MASK] = rec;
+      return previous;
+    }
+
+    /**
+     * Appends a record after the last position.
+     *
+     * @param rec the new record.
+     * @return the position of the appended record.
+     */
+    int add(Record rec) {
+      int position = size++;
+      int chunk = position >>> CHUNK_BITS;
+      if (chunk == chunks.length) {
+        int grown = Math.max(4, chunks.length + (chunks.length >> 1));
+        chunks = Arrays.copyOf(chunks, grown);
+        addresses = Arrays.copyOf(addresses, grown);
+      }
+      writableChunk(chunk)[position & CHUNK_MASK] = rec;
+      return position;
+    }
+
+    /**
+     * Moves the record at a position off the heap.
+     *
+     * @param position index of the record.
+     * @param address where the cold store now holds it.
+     */
+    void evict(int position, long address) {
+      int chunk = position >>> CHUNK_BITS;
+      writableChunk(chunk)[position & CHUNK_MASK] = null;
+      if (addresses[chunk] == null) {
+        addresses[chunk] = new long[CHUNK_SIZE];
+      }
+      addresses[chunk][position & CHUNK_MASK] = address;
+    }
+
+    /**
+     * Points a cold position at the copy of its entry that compaction made.
+     *
+     * @param position index of the record.
+     * @param address the new address of the entry.
+     */
+    void relocate(int position, long address) {
+      int chunk = position >>> CHUNK_BITS;
+      writableChunk(chunk);
+      addresses[chunk][position & CHUNK_MASK] = address;
+    }
+
+    RecordVersion build(long version, long sequence, ColdStore.Segments cold) {
+      int used = (size + CHUNK_MASK) >>> CHUNK_BITS;
+      Record[][] publishedChunks = used == chunks.length ? chunks : Arrays.copyOf(chunks, used);
+      long[][] publishedAddresses =
+          used == addresses.length ? addresses : Arrays.copyOf(addresses, used);
+      return new RecordVersion(publishedChunks, publishedAddresses, size, version, sequence, cold);
+    }
+
+    // Chunks past the base version's last one were created by this builder and are always owned
+    private Record[] writableChunk(int chunk) {
+      if (chunks[chunk] == null) {
+        chunks[chunk] = new Record[CHUNK_SIZE];
+      } else if (chunk < owned.length && !owned[chunk]) {
+        chunks[chunk] = chunks[chunk].clone();
+        if (addresses[chunk] != null) {
+          addresses[chunk] = addresses[chunk].clone();
+        }
+        owned[chunk] = true;
+      }
+      return chunks[chunk];
+    }
+  }
+}
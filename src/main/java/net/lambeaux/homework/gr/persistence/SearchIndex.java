@@ -0,0 +1,393 @@
+package net.lambeaux.homework.gr.persistence;
+
+import static net.lambeaux.homework.gr.MiscValidation.validateThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.core.RecordOrder;
+
+/**
+ * Trigram index over the last name, first name and email of every record, mapping each lower case
+ * trigram to the {@link PostingList} of record positions whose fields contain it. Every field is
+ * indexed with a start marker in front and an end marker behind, so two character terms can still
+ * be looked up as field prefixes.
+ *
+ * <p>Writers update the index once per write call, just before the version holding the changes is
+ * published, by replacing the posting lists of the trigrams that gained or lost positions. Readers
+ * do not lock; since every candidate is checked against the version the reader pinned, a search
+ * that overlaps a write never returns a record that does not match, it can only miss records the
+ * write touches.
+ */
+class SearchIndex {
+
+  private static final char START = '\u0002';
+
+  private static final char END = '\u0003';
+
+  private static final int MIN_TERM_LENGTH = 2;
+
+  private static final int SCORE_EQUALS = 4;
+
+  private static final int SCORE_PREFIX = 2;
+
+  private static final int SCORE_CONTAINS = 1;
+
+  private static final Comparator<Match> RANKING =
+      Comparator.comparingInt((Match match) -> -match.score)
+          .thenComparing(match -> match.rec, RecordOrder.NAME)
+          .thenComparing(match -> match.rec, RecordOrder.EMAIL);
+
+  private static final long[] NO_TRIGRAMS = new long[0];
+
+  private static final int[] NONE = new int[0];
+
+  private final Map<Long, PostingList> postings = new ConcurrentHashMap<>();
+
+  /**
+   * Starts collecting the changes of one write call. Not thread-safe.
+   *
+   * @return an empty update.
+   */
+  Update update() {
+    return new Update();
+  }
+
+  /**
+   * Finds the records whose last name, first name or email contain every whitespace separated term
+   * of a query, ignoring case. Terms of two characters only match the start of a field. Records
+   * that match a term exactly rank above those that start with it, which rank above those that
+   * merely contain it; ties are ordered by name.
+   *
+   * @param version the version to search.
+   * @param query the search terms.
+   * @param limit the most records to return.
+   * @return the best matches, best first.
+   */
+  List<Record> search(RecordVersion version, String query, int limit) {
+    String[] terms = terms(query);
+    List<PostingList> lists = new ArrayList<>();
+    for (String term : terms) {
+      for (long trigram : queryTrigrams(term)) {
+        PostingList list = postings.get(trigram);
+        if (list == null) {
+          return new ArrayList<>();
+        }
+        lists.add(list);
+      }
+    }
+    lists.sort(Comparator.comparingInt(PostingList::size));
+    // Keeps only the best matches seen so far, with the worst of them at the head
+    PriorityQueue<Match> best = new PriorityQueue<>(RANKING.reversed());
+    for (int position : lists.get(0).toArray()) {
+      if (inAll(lists, position)) {
+        Record rec = version.get(position);
+        int score = rec == null ? 0 : score(rec, terms);
+        if (score > 0) {
+          best.add(new Match(rec, score));
+          if (best.size() > limit) {
+            best.poll();
+          }
+        }
+      }
+    }
+    List<Match> matches = new ArrayList<>(best);
+    matches.sort(RANKING);
+    List<Record> results = new ArrayList<>();
+    for (Match match : matches) {
+      results.add(match.rec);
+    }
+    return results;
+  }
+
+  /**
+   * Splits a query into lower case terms.
+   *
+   * @param query the raw query.
+   * @return the terms, at least one.
+   * @throws IllegalArgumentException if the query has no terms or a term is too short to index.
+   */
+  static String[] terms(String query) {
+    String trimmed = query.trim().toLowerCase(Locale.ROOT);
+    validateThat(() -> !trimmed.isEmpty(), "search query cannot be empty");
+    String[] terms = trimmed.split("\\s+");
+    for (String term : terms) {
+      validateThat(
+          () -> term.length() >= MIN_TERM_LENGTH,
+          String.format(
+              "search term '%s' is too short, use at least %d characters", term, MIN_TERM_LENGTH));
+    }
+    return terms;
+  }
+
+  private static boolean inAll(List<PostingList> lists, int position) {
+    for (int i = 1; i < lists.size(); i++) {
+      if (!lists.get(i).contains(position)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Every term has to match some field, the score adds up the best match of each term
+  private static int score(Record rec, String[] terms) {
+    String[] fields = fields(rec);
+    int total = 0;
+    for (String term : terms) {
+      int best = 0;
+      for (String field : fields) {
+        if (field.equals(term)) {
+          best = Math.max(best, SCORE_EQUALS);
+        } else if (field.startsWith(term)) {
+          best = Math.max(best, SCORE_PREFIX);
+        } else if (term.length() > MIN_TERM_LENGTH && field.contains(term)) {
+          best = Math.max(best, SCORE_CONTAINS);
+        }
+      }
+      if (best == 0) {
+        return 0;
+      }
+      total += best;
+    }
+    return total;
+  }
+
+  private static String[] fields(Record rec) {
+    return new String[] {
+      rec.getLastName().toLowerCase(Locale.ROOT),
+      rec.getFirstName().toLowerCase(Locale.ROOT),
+      rec.getEmail().toLowerCase(Locale.ROOT)
+    };
+  }
+
+  // Two character terms become the prefix trigram, longer ones every trigram inside them
+  private static long[] queryTrigrams(String term) {
+    if (term.length() == MIN_TERM_LENGTH) {
+      return new long[] {trigram(START, term.charAt(0), term.charAt(1))};
+    }
+    long[] trigrams = new long[term.length() - 2];
+    for (int i = 0; i < trigrams.length; i++) {
+      trigrams[i] = trigram(term.charAt(i), term.charAt(i + 1), term.charAt(i + 2));
+    }
+    return trigrams;
+  }
+
+  private static long[] recordTrigrams(Record rec) {
+    if (rec == null) {
+      return NO_TRIGRAMS;
+    }
+    String[] fields = fields(rec);
+    int count = 0;
+    for (String field : fields) {
+      count += field.length();
+    }
+    long[] trigrams = new long[count];
+    int n = 0;
+    for (String field : fields) {
+      char a = START;
+      char b = field.isEmpty() ? END : field.charAt(0);
+      for (int i = 1; i <= field.length(); i++) {
+        char c = i < field.length() ? field.charAt(i) : END;
+        trigrams[n++] = trigram(a, b, c);
+        a = b;
+        b = c;
+      }
+    }
+    Arrays.sort(trigrams, 0, n);
+    int distinct = 0;
+    for (int i = 0; i < n; i++) {
+      if (distinct == 0 || trigrams[distinct - 1] != trigrams[i]) {
+        trigrams[distinct++] = trigrams[i];
+      }
+    }
+    return Arrays.copyOf(trigrams, distinct);
+  }
+
+  // The multiplication is a bijection that spreads the chars over the bits Long.hashCode() uses
+  private static long trigram(char a, char b, char c) {
+    return (((long) a << 32) | ((long) b << 16) | c) * 0x9e3779b97f4a7c15L;
+  }
+
+  private static class Match {
+
+    private final Record rec;
+
+    private final int score;
+
+    private Match(Record rec, int score) {
+      this.rec = rec;
+      this.score = score;
+    }
+  }
+
+  /**
+   * Changes of one write call, applied to the index as a whole by {@link #apply(IntFunction)}. Only
+   * the state before the write and the state after it matter, so a record overwritten twice within
+   * the same call is indexed once.
+   */
+  class Update {
+
+    private final Map<Integer, Record> replaced = new HashMap<>();
+
+    private int firstAdded = Integer.MAX_VALUE;
+
+    private int lastAdded = -1;
+
+    /**
+     * Records that a position is about to be written.
+     *
+     * @param position the position being written.
+     * @param previous the record held there before this write call, or {@code null} if the position
+     *     is new.
+     */
+    void touch(int position, Record previous) {
+      if (previous == null) {
+        firstAdded = Math.min(firstAdded, position);
+        lastAdded = Math.max(lastAdded, position);
+      } else if (position < firstAdded) {
+        replaced.putIfAbsent(position, previous);
+      }
+    }
+
+    /**
+     * Indexes the final records of the write call.
+     *
+     * @param recordAt resolves the record each touched position holds after the write call.
+     */
+    void apply(IntFunction<Record> recordAt) {
+      Groups adds = new Groups();
+      Groups removes = new Groups();
+      for (Map.Entry<Integer, Record> entry : replaced.entrySet()) {
+        int position = entry.getKey();
+        long[] before = recordTrigrams(entry.getValue());
+        long[] after = recordTrigrams(recordAt.apply(position));
+        collect(removes, position, before, after);
+        collect(adds, position, after, before);
+      }
+      for (int position = firstAdded; position <= lastAdded; position++) {
+        collect(adds, position, recordTrigrams(recordAt.apply(position)), NO_TRIGRAMS);
+      }
+      for (int slot = 0; slot < adds.keys.length; slot++) {
+        Positions added = adds.values[slot];
+        if (added != null) {
+          Positions removed = removes.take(adds.keys[slot]);
+          change(adds.keys[slot], added.sorted(), removed == null ? NONE : removed.sorted());
+        }
+      }
+      for (int slot = 0; slot < removes.keys.length; slot++) {
+        Positions removed = removes.values[slot];
+        if (removed != null && !removed.taken) {
+          change(removes.keys[slot], NONE, removed.sorted());
+        }
+      }
+    }
+
+    private void change(long trigram, int[] adds, int[] removes) {
+      PostingList list = postings.getOrDefault(trigram, PostingList.EMPTY).update(adds, removes);
+      if (list.size() == 0) {
+        postings.remove(trigram);
+      } else {
+        postings.put(trigram, list);
+      }
+    }
+
+    // Adds the position to the buffer of every trigram in the sorted set that the other lacks
+    private void collect(Groups into, int position, long[] trigrams, long[] other) {
+      int j = 0;
+      for (long trigram : trigrams) {
+        while (j < other.length && other[j] < trigram) {
+          j++;
+        }
+        if (j == other.length || other[j] != trigram) {
+          into.get(trigram).add(position);
+        }
+      }
+    }
+  }
+
+  // Open addressing map from trigram to positions, so collecting needs no boxed key per trigram
+  private static class Groups {
+
+    private long[] keys = new long[256];
+
+    private Positions[] values = new Positions[256];
+
+    private int size;
+
+    private Positions get(long trigram) {
+      int slot = slot(keys, values, trigram);
+      if (values[slot] == null) {
+        if (++size > keys.length / 2) {
+          grow();
+          slot = slot(keys, values, trigram);
+        }
+        keys[slot] = trigram;
+        values[slot] = new Positions();
+      }
+      return values[slot];
+    }
+
+    // Marks the group as handled, the slot stays occupied so probing is unaffected
+    private Positions take(long trigram) {
+      Positions positions = values[slot(keys, values, trigram)];
+      if (positions != null) {
+        positions.taken = true;
+      }
+      return positions;
+    }
+
+    private void grow() {
+      long[] oldKeys = keys;
+      Positions[] oldValues = values;
+      keys = new long[oldKeys.length * 2];
+      values = new Positions[oldValues.length * 2];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldValues[i] != null) {
+          int slot = slot(keys, values, oldKeys[i]);
+          keys[slot] = oldKeys[i];
+          values[slot] = oldValues[i];
+        }
+      }
+    }
+
+    // Trigrams are already well mixed, so their high bits pick the first slot to probe
+    private static int slot(long[] keys, Positions[] values, long trigram) {
+      int mask = keys.length - 1;
+      int slot = (int) (trigram >>> 40) & mask;
+      while (values[slot] != null && keys[slot] != trigram) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+  }
+
+  private static class Positions {
+
+    private int[] values = new int[4];
+
+    private int size;
+
+    private boolean taken;
+
+    private void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    private int[] sorted() {
+      int[] result = Arrays.copyOf(values, size);
+      Arrays.sort(result);
+      return result;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package net.lambeaux.homework.gr.profiling;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder events that time the phases of a request: parsing input, storing records, sorting
+ * them and serializing the response. Callers follow the usual pattern of {@code begin()} before the
+ * phase and {@code shouldCommit()} before filling in the fields and calling {@code commit()}, so
+ * that when no recording is running an event costs a couple of checks and no field work.
+ *
+ * <p>Stack traces are left out, the phase and its fields already say where the time went.
+ */
+public final class PhaseEvents {
+
+  static final String CATEGORY = "Records";
+
+  /** Every phase event, for enabling them in a recording. */
+  static final List<Class<? extends Event>> ALL =
+      Collections.unmodifiableList(
+          Arrays.asList(Parse.class, Store.class, Sort.class, Serialize.class));
+
+  private PhaseEvents() {}
+
+  /** Lines of an input file or request body parsed into records, up to one chunk at a time. */
+  @Name("net.lambeaux.homework.gr.Parse")
+  @Label("Parse")
+  @Category(CATEGORY)
+  @Description("Input lines parsed into records")
+  @StackTrace(false)
+  public static final class Parse extends Event {
+
+    @Label("Source")
+    public String source;
+
+    @Label("Lines")
+    public long lines;
+
+    @Label("Records")
+    public long records;
+
+    @Label("Rejected")
+    public long rejected;
+
+    @Label("Bytes")
+    @Description("UTF-8 size of the parsed lines, after any decompression")
+    @DataAmount
+    public long bytes;
+  }
+
+  /** One write or search against the database, including the wait for the write lock. */
+  @Name("net.lambeaux.homework.gr.Store")
+  @Label("Store")
+  @Category(CATEGORY)
+  @Description("Records written to or searched in the database")
+  @StackTrace(false)
+  public static final class Store extends Event {
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Records")
+    @Description("Records written, or records found by a search")
+    public long records;
+
+    @Label("Database Size")
+    @Description("Records held once the operation completed")
+    public long databaseSize;
+  }
+
+  /** Records sorted for a listing. */
+  @Name("net.lambeaux.homework.gr.Sort")
+  @Label("Sort")
+  @Category(CATEGORY)
+  @Description("Records sorted for a listing")
+  @StackTrace(false)
+  public static final class Sort extends Event {
+
+    @Label("Sort Key")
+    public String sortKey;
+
+    @Label("Records")
+    public long records;
+  }
+
+  /** Records written into a response body. */
+  @Name("net.lambeaux.homework.gr.Serialize")
+  @Label("Serialize")
+  @Category(CATEGORY)
+  @Description("Records encoded into a response body")
+  @StackTrace(false)
+  public static final class Serialize extends Event {
+
+    @Label("Content Type")
+    public String contentType;
+
+    @Label("Records")
+    public long records;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+  }
+}
@@ -0,0 +1,137 @@
+package net.lambeaux.homework.gr.profiling;
+
+import static net.lambeaux.homework.gr.MiscValidation.validateThat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+
+/**
+ * Controls a single on-demand flight recording of this process, so a live instance can be profiled
+ * under load without a restart. The recording uses the JDK's low overhead {@code default} settings
+ * plus every {@link PhaseEvents} event, and keeps the last {@link #MAX_AGE} on disk so it can run
+ * for as long as needed. Dumping writes that window to a file and leaves the recording running.
+ */
+public class Recordings {
+
+  static final Duration MAX_AGE = Duration.ofMinutes(10);
+
+  private static final String SETTINGS = "default";
+
+  private static final String NAME = "gr-on-demand";
+
+  private Recording recording;
+
+  /**
+   * Starts the recording.
+   *
+   * @return the status of the started recording.
+   * @throws IOException if the settings cannot be read.
+   * @throws IllegalArgumentException if the recording is already running.
+   */
+  public synchronized Status start() throws IOException {
+    validateThat(() -> recording == null, "a recording is already running");
+    Recording started;
+    try {
+      started = new Recording(Configuration.getConfiguration(SETTINGS));
+    } catch (ParseException e) {
+      throw new IllegalStateException("could not parse the JDK's " + SETTINGS + " settings", e);
+    }
+    for (Class<? extends Event> phase : PhaseEvents.ALL) {
+      started.enable(phase);
+    }
+    started.setName(NAME);
+    started.setToDisk(true);
+    started.setMaxAge(MAX_AGE);
+    started.start();
+    recording = started;
+    return status();
+  }
+
+  /**
+   * Writes what the running recording holds to a file.
+   *
+   * @param file the destination, replaced if it exists.
+   * @throws IOException if the file cannot be written.
+   * @throws IllegalArgumentException if no recording is running.
+   */
+  public synchronized void dump(Path file) throws IOException {
+    validateThat(() -> recording != null, "no recording is running");
+    recording.dump(file);
+  }
+
+  /**
+   * Stops the recording and discards its data; dump it first to keep it.
+   *
+   * @return the status, no longer running.
+   * @throws IllegalArgumentException if no recording is running.
+   */
+  public synchronized Status stop() {
+    validateThat(() -> recording != null, "no recording is running");
+    recording.close();
+    recording = null;
+    return status();
+  }
+
+  public synchronized Status status() {
+    if (recording == null) {
+      return new Status(false, null, 0, 0);
+    }
+    Instant startTime = recording.getStartTime();
+    return new Status(
+        true,
+        startTime.toString(),
+        Duration.between(startTime, Instant.now()).toMillis(),
+        recording.getSize());
+  }
+
+  /** Immutable snapshot of the recording, serialized as-is by the REST service. */
+  public static class Status {
+
+    private final boolean running;
+
+    private final String startTime;
+
+    private final long elapsedMillis;
+
+    private final long sizeBytes;
+
+    private Status(boolean running, String startTime, long elapsedMillis, long sizeBytes) {
+      this.running = running;
+      this.startTime = startTime;
+      this.elapsedMillis = elapsedMillis;
+      this.sizeBytes = sizeBytes;
+    }
+
+    public boolean isRunning() {
+      return running;
+    }
+
+    public String getStartTime() {
+      return startTime;
+    }
+
+    public long getElapsedMillis() {
+      return elapsedMillis;
+    }
+
+    public long getSizeBytes() {
+      return sizeBytes;
+    }
+
+    @Override
+    public String toString() {
+      if (!running) {
+        return "No recording is running";
+      }
+      return String.format(
+          "Recording since %s (%d s), %d bytes on disk, keeping the last %d minutes",
+          startTime, elapsedMillis / 1000, sizeBytes, MAX_AGE.toMinutes());
+    }
+  }
+}
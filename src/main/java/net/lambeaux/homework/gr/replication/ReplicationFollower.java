@@ -0,0 +1,249 @@
+package net.lambeaux.homework.gr.replication;
+
+import static net.lambeaux.homework.gr.replication.ReplicationProtocol.CHANGES;
+import static net.lambeaux.homework.gr.replication.ReplicationProtocol.HEARTBEAT;
+import static net.lambeaux.homework.gr.replication.ReplicationProtocol.NO_EPOCH;
+import static net.lambeaux.homework.gr.replication.ReplicationProtocol.NO_SEQUENCE;
+import static net.lambeaux.homework.gr.replication.ReplicationProtocol.SNAPSHOT_CHUNK;
+import static net.lambeaux.homework.gr.replication.ReplicationProtocol.SNAPSHOT_END;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.persistence.InMemoryDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a local {@link InMemoryDatabase} in sync with a {@link ReplicationLeader}. Changes are
+ * applied with {@link InMemoryDatabase#putAll} in the leader's order, so the local indexes and
+ * change feed update exactly as they would for a local write. Snapshot chunks are held back until
+ * the snapshot ends and then stored as one version, so readers never see part of a snapshot. The
+ * follower reconnects on its own after any failure and resumes from the last leader sequence it
+ * applied, unless the leader's feed has another epoch by then, in which case the leader sends a
+ * fresh snapshot.
+ */
+public class ReplicationFollower implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReplicationFollower.class);
+
+  private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+  private static final int READ_TIMEOUT_MILLIS = (int) ReplicationLeader.HEARTBEAT_MILLIS * 5;
+
+  private static final long RETRY_MILLIS = 1000L;
+
+  private final InMemoryDatabase db;
+
+  private final String host;
+
+  private final int port;
+
+  private final Thread thread;
+
+  private volatile Socket socket;
+
+  private volatile boolean connected;
+
+  private volatile boolean closed;
+
+  private volatile long appliedEpoch;
+
+  private volatile long appliedSequence;
+
+  private volatile long leaderSequence;
+
+  private volatile long lastContactMillis;
+
+  public ReplicationFollower(InMemoryDatabase db, String host, int port) {
+    this.db = Objects.requireNonNull(db, "database cannot be null");
+    this.host = Objects.requireNonNull(host, "host cannot be null");
+    this.port = port;
+    this.appliedEpoch = NO_EPOCH;
+    this.appliedSequence = NO_SEQUENCE;
+    this.leaderSequence = NO_SEQUENCE;
+    this.thread = new Thread(this::follow, "replication-follower");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Reports how far this replica has caught up with its leader.
+   *
+   * @return the current replication status.
+   */
+  public Status status() {
+    long applied = appliedSequence;
+    long leader = Math.max(leaderSequence, applied);
+    long contact = lastContactMillis;
+    return new Status(
+        host + ":" + port,
+        connected,
+        applied,
+        leader,
+        applied < 0 ? -1 : leader - applied,
+        contact == 0 ? -1 : System.currentTimeMillis() - contact);
+  }
+
+  /**
+   * Tells whether the leader's data has arrived, so the replica can answer reads.
+   *
+   * @return {@code true} once the first snapshot from the leader has been stored.
+   */
+  public boolean isSnapshotLoaded() {
+    return appliedSequence != NO_SEQUENCE;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    thread.interrupt();
+    Socket current = socket;
+    if (current != null) {
+      current.close();
+    }
+  }
+
+  private void follow() {
+    while (!closed) {
+      try (Socket current = new Socket()) {
+        socket = current;
+        current.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+        current.setSoTimeout(READ_TIMEOUT_MILLIS);
+        current.setTcpNoDelay(true);
+        connected = true;
+        LOGGER.info("Following replication leader {}:{}", host, port);
+        tail(current);
+      } catch (IOException | RuntimeException e) {
+        if (!closed) {
+          LOGGER.info("Lost replication leader {}:{}: {}", host, port, e.getMessage());
+        }
+      } finally {
+        connected = false;
+      }
+      try {
+        Thread.sleep(RETRY_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void tail(Socket current) throws IOException {
+    DataOutputStream out = new DataOutputStream(current.getOutputStream());
+    out.writeLong(appliedEpoch);
+    out.writeLong(appliedSequence);
+    out.flush();
+
+    DataInputStream in = new DataInputStream(new BufferedInputStream(current.getInputStream()));
+    List<Record> snapshot = new ArrayList<>();
+    while (!closed) {
+      byte type = in.readByte();
+      lastContactMillis = System.currentTimeMillis();
+      switch (type) {
+        case SNAPSHOT_CHUNK:
+          snapshot.addAll(ReplicationProtocol.readRecords(in));
+          break;
+        case SNAPSHOT_END:
+          long epoch = in.readLong();
+          long snapshotSequence = in.readLong();
+          db.putAll(snapshot);
+          snapshot = new ArrayList<>();
+          appliedEpoch = epoch;
+          appliedSequence = snapshotSequence;
+          LOGGER.info("Loaded replication snapshot at sequence {}", appliedSequence);
+          break;
+        case CHANGES:
+          long sequence = in.readLong();
+          db.putAll(ReplicationProtocol.readRecords(in));
+          appliedSequence = sequence;
+          break;
+        case HEARTBEAT:
+          leaderSequence = in.readLong();
+          break;
+        default:
+          throw new IOException("unknown replication frame type " + type);
+      }
+    }
+  }
+
+  /** Replication status of a follower. */
+  public static class Status {
+
+    private final String role = "follower";
+
+    private final String leader;
+
+    private final boolean connected;
+
+    private final long appliedSequence;
+
+    private final long leaderSequence;
+
+    private final long lag;
+
+    private final long millisSinceContact;
+
+    private Status(
+        String leader,
+        boolean connected,
+        long appliedSequence,
+        long leaderSequence,
+        long lag,
+        long millisSinceContact) {
+      this.leader = leader;
+      this.connected = connected;
+      this.appliedSequence = appliedSequence;
+      this.leaderSequence = leaderSequence;
+      this.lag = lag;
+      this.millisSinceContact = millisSinceContact;
+    }
+
+    public String getRole() {
+      return role;
+    }
+
+    public String getLeader() {
+      return leader;
+    }
+
+    public boolean isConnected() {
+      return connected;
+    }
+
+    public long getAppliedSequence() {
+      return appliedSequence;
+    }
+
+    /**
+     * Returns the latest leader sequence this follower knows of, from heartbeats or changes.
+     *
+     * @return the leader's sequence, or {@code -1} before first contact.
+     */
+    public long getLeaderSequence() {
+      return leaderSequence;
+    }
+
+    /**
+     * Returns how many changes the leader has made that this follower has not applied yet.
+     *
+     * @return the lag in changes, or {@code -1} before the first snapshot has loaded.
+     */
+    public long getLag() {
+      return lag;
+    }
+
+    public long getMillisSinceContact() {
+      return millisSinceContact;
+    }
+  }
+}
@@ -0,0 +1,373 @@
+package net.lambeaux.homework.gr.replication;
+
+import static net.lambeaux.homework.gr.replication.ReplicationProtocol.CHANGES;
+import static net.lambeaux.homework.gr.replication.ReplicationProtocol.HEARTBEAT;
+import static net.lambeaux.homework.gr.replication.ReplicationProtocol.NO_SEQUENCE;
+import static net.lambeaux.homework.gr.replication.ReplicationProtocol.SNAPSHOT_CHUNK;
+import static net.lambeaux.homework.gr.replication.ReplicationProtocol.SNAPSHOT_END;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import net.lambeaux.homework.gr.changes.ChangeDispatcher;
+import net.lambeaux.homework.gr.changes.ChangeDispatcher.Subscription;
+import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.persistence.ChangeFeed;
+import net.lambeaux.homework.gr.persistence.InMemoryDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the ordered log of database writes to read replicas over TCP. A follower that reconnects
+ * with a sequence the {@link ChangeFeed} still retains continues from there; any other follower,
+ * including one that last followed a feed of another {@link ChangeFeed#epoch()} such as the one of
+ * a leader process since restarted, first receives a snapshot of the whole database. After that,
+ * the follower is an ordinary subscriber of a {@link ChangeDispatcher}, so a slow follower receives
+ * coalesced batches. A follower that falls further behind than the feed retains is disconnected,
+ * and bootstraps again from a fresh snapshot when it reconnects.
+ */
+public class ReplicationLeader implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReplicationLeader.class);
+
+  static final int SNAPSHOT_CHUNK_SIZE = 4096;
+
+  static final long HEARTBEAT_MILLIS = 1000L;
+
+  static final long WRITE_TIMEOUT_MILLIS = HEARTBEAT_MILLIS * 5;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final InMemoryDatabase db;
+
+  private final ChangeDispatcher dispatcher;
+
+  private final ServerSocket serverSocket;
+
+  private final ExecutorService connections;
+
+  private final ScheduledExecutorService heartbeats;
+
+  private final Set<FollowerConnection> followers;
+
+  public ReplicationLeader(InMemoryDatabase db, int port) throws IOException {
+    this.db = Objects.requireNonNull(db, "database cannot be null");
+    this.dispatcher = new ChangeDispatcher(db.changes());
+    this.serverSocket = new ServerSocket(port);
+    this.followers = ConcurrentHashMap.newKeySet();
+
+    AtomicInteger connectionCount = new AtomicInteger();
+    this.connections =
+        Executors.newCachedThreadPool(
+            runnable ->
+                daemon(runnable, "replication-follower-" + connectionCount.incrementAndGet()));
+    this.heartbeats =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> daemon(runnable, "replication-heartbeat"));
+    heartbeats.scheduleWithFixedDelay(
+        this::sendHeartbeats, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+
+    Thread acceptor = daemon(this::accept, "replication-leader");
+    acceptor.start();
+    LOGGER.info("Replication leader listening on port {}", getPort());
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Reports every connected follower and how far behind the latest write it is.
+   *
+   * @return the current replication status.
+   */
+  public Status status() {
+    long head = db.changes().head();
+    return new Status(
+        getPort(),
+        head,
+        followers.stream().map(follower -> follower.status(head)).collect(Collectors.toList()));
+  }
+
+  @Override
+  public void close() throws IOException {
+    heartbeats.shutdownNow();
+    serverSocket.close();
+    for (FollowerConnection follower : followers) {
+      follower.close();
+    }
+    connections.shutdownNow();
+    dispatcher.close();
+  }
+
+  private void accept() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket socket = serverSocket.accept();
+        connections.execute(() -> serve(socket));
+      } catch (SocketException e) {
+        LOGGER.debug("Replication leader socket closed", e);
+      } catch (IOException | RuntimeException e) {
+        LOGGER.error("Could not accept replication follower", e);
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    FollowerConnection follower = null;
+    try {
+      socket.setTcpNoDelay(true);
+      follower = new FollowerConnection(socket);
+      followers.add(follower);
+      follower.run();
+    } catch (IOException | RuntimeException e) {
+      LOGGER.info("Replication follower {} disconnected: {}", socket, e.getMessage());
+    } finally {
+      if (follower != null) {
+        followers.remove(follower);
+        follower.close();
+      } else {
+        closeQuietly(socket);
+      }
+    }
+  }
+
+  private void sendHeartbeats() {
+    long now = System.currentTimeMillis();
+    for (FollowerConnection follower : followers) {
+      if (now - follower.lastWriteMillis > WRITE_TIMEOUT_MILLIS) {
+        LOGGER.info(
+            "Replication follower {} stopped reading for {} ms, disconnecting",
+            follower.socket,
+            now - follower.lastWriteMillis);
+        follower.close();
+      } else if (follower.heartbeatPending.compareAndSet(false, true)) {
+        connections.execute(follower::heartbeat);
+      }
+    }
+  }
+
+  private static Thread daemon(Runnable runnable, String name) {
+    Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      LOGGER.debug("Could not close replication connection", e);
+    }
+  }
+
+  /** One follower's connection; frames are written under the output stream's monitor. */
+  private class FollowerConnection {
+
+    private final Socket socket;
+
+    private final DataInputStream in;
+
+    private final DataOutputStream out;
+
+    private volatile long sentSequence;
+
+    private volatile Subscription subscription;
+
+    private final AtomicBoolean heartbeatPending;
+
+    // Time the last frame or snapshot chunk was handed to the socket, or the connection opened
+    private volatile long lastWriteMillis;
+
+    private FollowerConnection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      this.out =
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+      this.sentSequence = NO_SEQUENCE;
+      this.heartbeatPending = new AtomicBoolean();
+      this.lastWriteMillis = System.currentTimeMillis();
+    }
+
+    /*
+     * Bootstraps the follower, then blocks until it hangs up. All later frames are written by the
+     * dispatcher's sender threads and the heartbeat thread.
+     */
+    private void run() throws IOException {
+      ChangeFeed feed = db.changes();
+      long epoch = in.readLong();
+      long applied = in.readLong();
+      long head = feed.head();
+      if (epoch != feed.epoch()
+          || applied == NO_SEQUENCE
+          || applied > head
+          || applied < head - feed.capacity()) {
+        applied = sendSnapshot();
+      }
+      sentSequence = applied;
+      subscription = dispatcher.subscribe(applied, this::sendChanges);
+      LOGGER.info("Replication follower {} is tailing from sequence {}", socket, applied);
+      while (in.read() >= 0) {
+        // Followers send nothing after the handshake, reading only detects the disconnect
+      }
+      throw new IOException("follower closed the connection");
+    }
+
+    private long sendSnapshot() throws IOException {
+      InMemoryDatabase.Snapshot snapshot = db.snapshot();
+      List<Record> records = snapshot.getRecords();
+      synchronized (out) {
+        for (int i = 0; i < records.size(); i += SNAPSHOT_CHUNK_SIZE) {
+          out.writeByte(SNAPSHOT_CHUNK);
+          ReplicationProtocol.writeRecords(
+              out, records.subList(i, Math.min(records.size(), i + SNAPSHOT_CHUNK_SIZE)));
+          lastWriteMillis = System.currentTimeMillis();
+        }
+        out.writeByte(SNAPSHOT_END);
+        out.writeLong(db.changes().epoch());
+        out.writeLong(snapshot.getSequence());
+        out.flush();
+        lastWriteMillis = System.currentTimeMillis();
+      }
+      LOGGER.info(
+          "Sent snapshot of {} records at sequence {} to replication follower {}",
+          records.size(),
+          snapshot.getSequence(),
+          socket);
+      return snapshot.getSequence();
+    }
+
+    private void sendChanges(ChangeFeed.Batch batch) throws IOException {
+      if (batch.getMissed() > 0) {
+        close();
+        throw new IOException(
+            String.format("follower fell %d changes behind the feed", batch.getMissed()));
+      }
+      try {
+        synchronized (out) {
+          out.writeByte(CHANGES);
+          out.writeLong(batch.getToSequence());
+          ReplicationProtocol.writeRecords(out, batch.getRecords());
+          out.flush();
+          lastWriteMillis = System.currentTimeMillis();
+        }
+        sentSequence = batch.getToSequence();
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+    }
+
+    private void heartbeat() {
+      try {
+        if (subscription == null) {
+          return;
+        }
+        synchronized (out) {
+          out.writeByte(HEARTBEAT);
+          out.writeLong(db.changes().head());
+          out.flush();
+          lastWriteMillis = System.currentTimeMillis();
+        }
+      } catch (IOException e) {
+        close();
+      } finally {
+        heartbeatPending.set(false);
+      }
+    }
+
+    private FollowerStatus status(long head) {
+      long sent = sentSequence;
+      return new FollowerStatus(
+          socket.getInetAddress(), socket.getPort(), sent, sent < 0 ? head : head - sent);
+    }
+
+    private void close() {
+      Subscription current = subscription;
+      if (current != null) {
+        current.cancel();
+      }
+      closeQuietly(socket);
+    }
+  }
+
+  /** Replication status of the leader. */
+  public static class Status {
+
+    private final String role = "leader";
+
+    private final int port;
+
+    private final long sequence;
+
+    private final List<FollowerStatus> followers;
+
+    private Status(int port, long sequence, List<FollowerStatus> followers) {
+      this.port = port;
+      this.sequence = sequence;
+      this.followers = followers;
+    }
+
+    public String getRole() {
+      return role;
+    }
+
+    public int getPort() {
+      return port;
+    }
+
+    public long getSequence() {
+      return sequence;
+    }
+
+    public List<FollowerStatus> getFollowers() {
+      return followers;
+    }
+  }
+
+  /** How far one follower has been sent. */
+  public static class FollowerStatus {
+
+    private final String address;
+
+    private final long sentSequence;
+
+    private final long lag;
+
+    private FollowerStatus(InetAddress address, int port, long sentSequence, long lag) {
+      this.address = address.getHostAddress() + ":" + port;
+      this.sentSequence = sentSequence;
+      this.lag = lag;
+    }
+
+    public String getAddress() {
+      return address;
+    }
+
+    public long getSentSequence() {
+      return sentSequence;
+    }
+
+    public long getLag() {
+      return lag;
+    }
+  }
+}
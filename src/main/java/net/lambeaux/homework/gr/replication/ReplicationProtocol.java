@@ -0,0 +1,68 @@
+package net.lambeaux.homework.gr.replication;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import net.lambeaux.homework.gr.core.Record;
+
+/**
+ * Wire format between a {@link ReplicationLeader} and its followers. A follower opens the
+ * connection by sending the epoch of the leader's change feed it last applied from, or {@link
+ * #NO_EPOCH}, and the last sequence of that feed it has applied, or {@link #NO_SEQUENCE}. The
+ * leader answers with a stream of frames, each starting with a one byte type:
+ *
+ * <ul>
+ *   <li>{@link #SNAPSHOT_CHUNK}: a count followed by that many records.
+ *   <li>{@link #SNAPSHOT_END}: the epoch and sequence that the preceding chunks reflect.
+ *   <li>{@link #CHANGES}: the sequence of the last change, a count and that many records.
+ *   <li>{@link #HEARTBEAT}: the leader's latest sequence, sent while there is nothing else to send.
+ * </ul>
+ *
+ * <p>A record is written as its five fields in input order, with the date in {@code MM/dd/yyyy}.
+ */
+class ReplicationProtocol {
+
+  static final long NO_EPOCH = 0L;
+
+  static final long NO_SEQUENCE = -1L;
+
+  static final byte SNAPSHOT_CHUNK = 'S';
+
+  static final byte SNAPSHOT_END = 'E';
+
+  static final byte CHANGES = 'C';
+
+  static final byte HEARTBEAT = 'H';
+
+  private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT =
+      ThreadLocal.withInitial(() -> new SimpleDateFormat("MM/dd/yyyy"));
+
+  private ReplicationProtocol() {}
+
+  static void writeRecords(DataOutputStream out, List<Record> records) throws IOException {
+    out.writeInt(records.size());
+    SimpleDateFormat dateFormat = DATE_FORMAT.get();
+    for (Record rec : records) {
+      out.writeUTF(rec.getLastName());
+      out.writeUTF(rec.getFirstName());
+      out.writeUTF(rec.getEmail());
+      out.writeUTF(rec.getFavoriteColor());
+      out.writeUTF(dateFormat.format(rec.getDateOfBirth()));
+    }
+  }
+
+  static List<Record> readRecords(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    if (count < 0) {
+      throw new IOException("invalid record count in replication frame, " + count);
+    }
+    List<Record> records = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      records.add(new Record(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF()));
+    }
+    return records;
+  }
+}
@@ -0,0 +1,47 @@
+package net.lambeaux.homework.gr.core;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the end of a line in a byte buffer eight bytes at a time. A byte array view {@link
+ * VarHandle} reads each word with a single unaligned load, which Java 8 has no public API for; the
+ * tail that does not fill a word is tested one byte at a time.
+ */
+final class LineEnds {
+
+  private static final VarHandle WORDS =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  private static final long LINE_FEEDS = Swar.broadcast((byte) '\n');
+
+  private static final long CARRIAGE_RETURNS = Swar.broadcast((byte) '\r');
+
+  private LineEnds() {}
+
+  /**
+   * Finds the first line feed or carriage return.
+   *
+   * @param bytes the buffer.
+   * @param from first index to test.
+   * @param to index after the last one to test.
+   * @return the index of the terminator, or {@code -1} if there is none.
+   */
+  static int find(byte[] bytes, int from, int to) {
+    int i = from;
+    for (; i <= to - Long.BYTES; i += Long.BYTES) {
+      long word = (long) WORDS.get(bytes, i);
+      long flags = Swar.matches(word, LINE_FEEDS) | Swar.matches(word, CARRIAGE_RETURNS);
+      if (flags != 0) {
+        return i + Swar.firstFlagged(flags);
+      }
+    }
+    for (; i < to; i++) {
+      if (bytes[i] == '\n' || bytes[i] == '\r') {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
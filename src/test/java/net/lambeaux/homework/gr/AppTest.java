@@ -1,5 +1,7 @@
 package net.lambeaux.homework.gr;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.doReturn;
@@ -8,21 +10,36 @@ import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import io.javalin.Javalin;
 import io.restassured.RestAssured;
 import io.restassured.http.Header;
 import io.restassured.response.Response;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
+import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import net.lambeaux.homework.gr.core.BinaryRecords;
 import net.lambeaux.homework.gr.core.ContentReader;
 import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.ingest.IngestJobs;
+import net.lambeaux.homework.gr.persistence.ChangeFeed;
 import net.lambeaux.homework.gr.persistence.InMemoryDatabase;
+import net.lambeaux.homework.gr.profiling.Recordings;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -50,10 +67,14 @@ public class AppTest {
 
   private static String appUrl;
 
+  private static String jobsUrl;
+
   @BeforeClass
   public static void beforeClass() throws IOException {
     app = Javalin.create().start();
     appUrl = String.format("http://localhost:%d/records", app.port());
+    jobsUrl = String.format("http://localhost:%d/ingest-jobs", app.port());
+    doReturn(new ChangeFeed()).when(MOCK_DB).changes();
     App.startAppWithDependencies(app, new ContentReader(), MOCK_DB, false);
 
     LOGGER.info("Running app tests at {}", appUrl);
@@ -70,6 +91,64 @@ public class AppTest {
     reset(MOCK_DB);
   }
 
+  @Test
+  public void testReady() {
+    Response response = RestAssured.get(appUrl.replace("/records", "/extras/ready"));
+    assertThat(response.getStatusCode(), is(200));
+    assertThat(response.jsonPath().getBoolean("ready"), is(true));
+  }
+
+  @Test
+  public void testNotReadyUntilStartupCompletes() {
+    AtomicBoolean started = new AtomicBoolean();
+    InMemoryDatabase db = new InMemoryDatabase();
+    ContentReader contentReader = new ContentReader();
+    Javalin starting = Javalin.create();
+    App.registerHandlers(
+        starting,
+        contentReader,
+        db,
+        null,
+        new IngestJobs(contentReader, db),
+        new Recordings(),
+        started::get);
+    starting.start(0);
+    try {
+      String readyUrl = String.format("http://localhost:%d/extras/ready", starting.port());
+      Response response = RestAssured.get(readyUrl);
+      assertThat(response.getStatusCode(), is(503));
+      assertThat(response.jsonPath().getBoolean("ready"), is(false));
+
+      started.set(true);
+      assertThat(RestAssured.get(readyUrl).getStatusCode(), is(200));
+    } finally {
+      starting.stop();
+    }
+  }
+
+  @Test
+  public void testRecordingControls() {
+    String recordingUrl = appUrl.replace("/records", "/extras/recording");
+    Response started = RestAssured.post(recordingUrl);
+    assertThat(started.getStatusCode(), is(200));
+    assertThat(started.jsonPath().getBoolean("running"), is(true));
+
+    Response dump = RestAssured.get(recordingUrl.concat("/dump"));
+    assertThat(dump.getStatusCode(), is(200));
+    assertThat(dump.getContentType(), is("application/octet-stream"));
+    assertThat(new String(dump.asByteArray(), 0, 4, StandardCharsets.US_ASCII), is("FLR\u0000"));
+
+    Response stopped = RestAssured.delete(recordingUrl);
+    assertThat(stopped.getStatusCode(), is(200));
+    assertThat(stopped.jsonPath().getBoolean("running"), is(false));
+  }
+
+  @Test
+  public void testWarmupLeavesDatabaseAlone() throws IOException {
+    Warmup.run(new ContentReader(true), 100, 2);
+    verifyNoMoreInteractions(MOCK_DB);
+  }
+
   @Test
   public void testCreateCsv() {
     int statusCode =
@@ -121,6 +200,30 @@ public class AppTest {
     verifyNoMoreInteractions(MOCK_DB);
   }
 
+  @Test
+  public void testCreateCsvGzipEncoded() throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (GZIPOutputStream out = new GZIPOutputStream(body)) {
+      out.write(
+          "George, Fred, fred.george@example.net, blue, 08/12/1901"
+              .getBytes(StandardCharsets.UTF_8));
+    }
+    int statusCode =
+        RestAssured.given()
+            .header(new Header("Content-Type", "text/csv"))
+            .header(new Header("Content-Encoding", "gzip"))
+            .body(body.toByteArray())
+            .post(appUrl)
+            .statusCode();
+
+    assertThat(statusCode, is(200));
+    verify(MOCK_DB)
+        .put(
+            "fred.george@example.net",
+            new Record("George", "Fred", "fred.george@example.net", "blue", "08/12/1901"));
+    verifyNoMoreInteractions(MOCK_DB);
+  }
+
   @Test
   public void testGetByEmail() throws Exception {
     doReturn(cannedRecords()).when(MOCK_DB).allValues();
@@ -145,6 +248,148 @@ public class AppTest {
     assertThat(response.getBody().asString(), is(testResource(SORTED_BY_NAME)));
   }
 
+  @Test
+  public void testGetByEmailBinary() throws Exception {
+    doReturn(cannedRecords()).when(MOCK_DB).allValues();
+    Response response =
+        RestAssured.given()
+            .header(new Header("Accept", BinaryRecords.MIME_TYPE))
+            .get(appUrl.concat("/email"));
+    assertThat(response.getStatusCode(), is(200));
+    assertThat(response.getContentType(), is(BinaryRecords.MIME_TYPE));
+
+    List<Record> records = new ArrayList<>();
+    BinaryRecords.decoder(response.getBody().asInputStream()).forEachRemaining(records::add);
+    assertThat(
+        records.stream().map(Record::getEmail).collect(Collectors.toList()),
+        contains("joey.zimmer@example.net", "kool.dude@example.net", "owen.lars@example.net"));
+  }
+
+  @Test
+  public void testGetByBirthdateCsv() {
+    doReturn(cannedRecords()).when(MOCK_DB).allValues();
+    Response response =
+        RestAssured.given()
+            .header(new Header("Accept", "text/csv"))
+            .get(appUrl.concat("/birthdate"));
+    assertThat(response.getStatusCode(), is(200));
+    assertThat(
+        response.getBody().asString(),
+        is(
+            "George, Fred, kool.dude@example.net, blue, 08/12/1901\n"
+                + "Zimmer, Joey, joey.zimmer@example.net, purple, 07/01/1944\n"
+                + "Lars, Owen, owen.lars@example.net, yellow, 08/12/2950\n"));
+  }
+
+  @Test
+  public void testSearch() {
+    doReturn(new ArrayList<>(cannedRecords()).subList(0, 1)).when(MOCK_DB).search("fred", 5);
+    Response response =
+        RestAssured.given()
+            .queryParam("q", "fred")
+            .queryParam("limit", "5")
+            .get(appUrl.concat("/search"));
+    assertThat(response.getStatusCode(), is(200));
+    assertThat(response.jsonPath().getList("email"), contains("kool.dude@example.net"));
+  }
+
+  @Test
+  public void testGetBySortSpec() {
+    doReturn(cannedRecords()).when(MOCK_DB).allValues();
+    Response response =
+        RestAssured.given()
+            .header(new Header("Accept", "text/ssv"))
+            .queryParam("sort", "favoriteColor:desc,email")
+            .get(appUrl);
+    assertThat(response.getStatusCode(), is(200));
+    assertThat(
+        response.getBody().asString(),
+        is(
+            "Lars Owen owen.lars@example.net yellow 08/12/2950\n"
+                + "Zimmer Joey joey.zimmer@example.net purple 07/01/1944\n"
+                + "George Fred kool.dude@example.net blue 08/12/1901\n"));
+  }
+
+  @Test
+  public void testCreateBinary() throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    BinaryRecords.Encoder encoder = BinaryRecords.encoder(body);
+    for (Record rec : cannedRecords()) {
+      encoder.write(rec);
+    }
+    encoder.finish();
+    int statusCode =
+        RestAssured.given()
+            .header(new Header("Content-Type", BinaryRecords.MIME_TYPE))
+            .body(body.toByteArray())
+            .post(appUrl)
+            .statusCode();
+
+    assertThat(statusCode, is(200));
+    verify(MOCK_DB).putAll(new ArrayList<>(cannedRecords()));
+    verifyNoMoreInteractions(MOCK_DB);
+  }
+
+  @Test
+  public void testCreateBinaryGzip() throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(body)) {
+      BinaryRecords.Encoder encoder = BinaryRecords.encoder(gzip);
+      for (Record rec : cannedRecords()) {
+        encoder.write(rec);
+      }
+      encoder.finish();
+    }
+    int statusCode =
+        RestAssured.given()
+            .header(new Header("Content-Type", BinaryRecords.MIME_TYPE))
+            .header(new Header("Content-Encoding", "gzip"))
+            .body(body.toByteArray())
+            .post(appUrl)
+            .statusCode();
+
+    assertThat(statusCode, is(200));
+    verify(MOCK_DB).putAll(new ArrayList<>(cannedRecords()));
+    verifyNoMoreInteractions(MOCK_DB);
+  }
+
+  @Test
+  public void testChangeStreamResetsTokenFromAnotherEpoch() throws IOException {
+    URL url = new URL(appUrl.replace("/records", "/record-changes?since=1:0"));
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    conn.setRequestProperty("Accept", "text/event-stream");
+    conn.setReadTimeout(10000);
+    try (BufferedReader in =
+        new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+      List<String> event = new ArrayList<>();
+      String line;
+      while ((line = in.readLine()) != null && !(line.isEmpty() && !event.isEmpty())) {
+        if (!line.isEmpty()) {
+          event.add(line);
+        }
+      }
+      String data =
+          event.stream()
+              .filter(l -> l.startsWith("data: "))
+              .map(l -> l.substring("data: ".length()))
+              .collect(Collectors.joining("\n"));
+      JsonObject message = new JsonParser().parse(data).getAsJsonObject();
+      String token = message.get("token").getAsString();
+      assertThat(message.get("reset").getAsBoolean(), is(true));
+      assertThat(message.getAsJsonArray("records").size(), is(0));
+      assertThat(token.endsWith(":0") && !token.equals("1:0"), is(true));
+      assertThat(event, hasItem("id: " + token));
+    } finally {
+      conn.disconnect();
+    }
+  }
+
+  @Test
+  public void testGetUnknownIngestJob() {
+    Response response = RestAssured.given().get(jobsUrl.concat("/42"));
+    assertThat(response.getStatusCode(), is(404));
+  }
+
   private static String testResource(String resourceName) throws IOException, URISyntaxException {
     return new String(
         Files.readAllBytes(Paths.get(AppTest.class.getResource(resourceName).toURI())),
@@ -1,10 +1,14 @@
 package net.lambeaux.homework.gr;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.inOrder;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -16,11 +20,20 @@ import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.lambeaux.homework.gr.core.ContentReader;
 import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.ingest.IngestJob;
+import net.lambeaux.homework.gr.ingest.IngestJobs;
 import net.lambeaux.homework.gr.persistence.InMemoryDatabase;
+import net.lambeaux.homework.gr.profiling.Recordings;
 import org.jline.reader.LineReader;
 import org.jline.terminal.Terminal;
 import org.junit.Before;
@@ -57,6 +70,8 @@ public class CommandLineTest {
   private static final String REC_WEAVER_TO_STRING =
       "Ted Weaver (ted.weaver@example.net), born 03/13/1988, likes green";
 
+  private static final String NL = System.lineSeparator();
+
   private static final String DIR_SAMPLE_DATA = "/sample-data/";
 
   private static final String FILE_UNSUPPORTED_DOT_TXT = "unsupported.txt";
@@ -81,6 +96,10 @@ public class CommandLineTest {
 
   @Mock private PrintWriter mockPrintWriter;
 
+  private IngestJobs ingestJobs;
+
+  private Recordings recordings;
+
   private CommandLine commandLine;
 
   private static void copyTestResource(String fileName, File dest) throws IOException {
@@ -102,7 +121,9 @@ public class CommandLineTest {
     doReturn(mockTerminal).when(mockLineReader).getTerminal();
     doReturn(mockPrintWriter).when(mockTerminal).writer();
 
-    commandLine = new CommandLine(mockDb, mockLineReader, dirRoot.toPath());
+    ingestJobs = new IngestJobs(new ContentReader(), mockDb);
+    recordings = new Recordings();
+    commandLine = new CommandLine(mockDb, ingestJobs, recordings, mockLineReader, dirRoot.toPath());
   }
 
   /*
@@ -137,7 +158,7 @@ public class CommandLineTest {
   */
 
   @Test
-  public void testIngestCsvRel() throws IOException {
+  public void testIngestCsvRel() throws Exception {
     Path abs = folder.getRoot().toPath().resolve(FILE_SAMPLE_DOT_CSV);
     String input = String.format("ingest %s", FILE_SAMPLE_DOT_CSV);
     LOGGER.info("Running command '{}'", input);
@@ -147,14 +168,15 @@ public class CommandLineTest {
     verify(mockLineReader).getTerminal();
     verify(mockTerminal).writer();
     verify(mockPrintWriter)
-        .println(eq(String.format("Successfully ingested '%s'", abs.toString())));
+        .println(eq(String.format("Started ingest job 1 for '%s'", abs.toString())));
     verifyNoMoreInteractions(mockLineReader, mockTerminal, mockPrintWriter);
 
+    awaitIngestJobs();
     verifyMockDbSampleData();
   }
 
   @Test
-  public void testIngestCsvAbs() throws IOException {
+  public void testIngestCsvAbs() throws Exception {
     Path abs = folder.getRoot().toPath().resolve(FILE_SAMPLE_DOT_CSV);
     String input = String.format("ingest %s", abs.toString());
     LOGGER.info("Running command '{}'", input);
@@ -164,14 +186,15 @@ public class CommandLineTest {
     verify(mockLineReader).getTerminal();
     verify(mockTerminal).writer();
     verify(mockPrintWriter)
-        .println(eq(String.format("Successfully ingested '%s'", abs.toString())));
+        .println(eq(String.format("Started ingest job 1 for '%s'", abs.toString())));
     verifyNoMoreInteractions(mockLineReader, mockTerminal, mockPrintWriter);
 
+    awaitIngestJobs();
     verifyMockDbSampleData();
   }
 
   @Test
-  public void testIngestPsvRel() throws IOException {
+  public void testIngestPsvRel() throws Exception {
     Path abs = folder.getRoot().toPath().resolve(FILE_SAMPLE_DOT_PSV);
     String input = String.format("ingest %s", FILE_SAMPLE_DOT_PSV);
     LOGGER.info("Running command '{}'", input);
@@ -181,14 +204,15 @@ public class CommandLineTest {
     verify(mockLineReader).getTerminal();
     verify(mockTerminal).writer();
     verify(mockPrintWriter)
-        .println(eq(String.format("Successfully ingested '%s'", abs.toString())));
+        .println(eq(String.format("Started ingest job 1 for '%s'", abs.toString())));
     verifyNoMoreInteractions(mockLineReader, mockTerminal, mockPrintWriter);
 
+    awaitIngestJobs();
     verifyMockDbSampleData();
   }
 
   @Test
-  public void testIngestPsvAbs() throws IOException {
+  public void testIngestPsvAbs() throws Exception {
     Path abs = folder.getRoot().toPath().resolve(FILE_SAMPLE_DOT_PSV);
     String input = String.format("ingest %s", abs.toString());
     LOGGER.info("Running command '{}'", input);
@@ -198,14 +222,15 @@ public class CommandLineTest {
     verify(mockLineReader).getTerminal();
     verify(mockTerminal).writer();
     verify(mockPrintWriter)
-        .println(eq(String.format("Successfully ingested '%s'", abs.toString())));
+        .println(eq(String.format("Started ingest job 1 for '%s'", abs.toString())));
     verifyNoMoreInteractions(mockLineReader, mockTerminal, mockPrintWriter);
 
+    awaitIngestJobs();
     verifyMockDbSampleData();
   }
 
   @Test
-  public void testIngestSsvRel() throws IOException {
+  public void testIngestSsvRel() throws Exception {
     Path abs = folder.getRoot().toPath().resolve(FILE_SAMPLE_DOT_SSV);
     String input = String.format("ingest %s", FILE_SAMPLE_DOT_SSV);
     LOGGER.info("Running command '{}'", input);
@@ -215,14 +240,15 @@ public class CommandLineTest {
     verify(mockLineReader).getTerminal();
     verify(mockTerminal).writer();
     verify(mockPrintWriter)
-        .println(eq(String.format("Successfully ingested '%s'", abs.toString())));
+        .println(eq(String.format("Started ingest job 1 for '%s'", abs.toString())));
     verifyNoMoreInteractions(mockLineReader, mockTerminal, mockPrintWriter);
 
+    awaitIngestJobs();
     verifyMockDbSampleData();
   }
 
   @Test
-  public void testIngestSsvAbs() throws IOException {
+  public void testIngestSsvAbs() throws Exception {
     Path abs = folder.getRoot().toPath().resolve(FILE_SAMPLE_DOT_SSV);
     String input = String.format("ingest %s", abs.toString());
     LOGGER.info("Running command '{}'", input);
@@ -232,9 +258,25 @@ public class CommandLineTest {
     verify(mockLineReader).getTerminal();
     verify(mockTerminal).writer();
     verify(mockPrintWriter)
-        .println(eq(String.format("Successfully ingested '%s'", abs.toString())));
+        .println(eq(String.format("Started ingest job 1 for '%s'", abs.toString())));
     verifyNoMoreInteractions(mockLineReader, mockTerminal, mockPrintWriter);
 
+    awaitIngestJobs();
+    verifyMockDbSampleData();
+  }
+
+  @Test
+  public void testJobsCommand() throws Exception {
+    Path abs = folder.getRoot().toPath().resolve(FILE_SAMPLE_DOT_CSV);
+    commandLine.handleInput(String.format("ingest %s", FILE_SAMPLE_DOT_CSV));
+    awaitIngestJobs();
+
+    commandLine.handleInput("jobs");
+
+    verify(mockPrintWriter)
+        .println(
+            startsWith(
+                String.format("Job 1 SUCCEEDED '%s' (1/1 files): 3 lines (3 accepted", abs)));
     verifyMockDbSampleData();
   }
 
@@ -340,7 +382,7 @@ public class CommandLineTest {
     commandLine.handleInput("list output1-email-desc-lastname-asc");
 
     verify(mockLineReader).getTerminal();
-    verify(mockTerminal, times(5)).writer();
+    verify(mockTerminal).writer();
     verify(mockDb).allValues();
     verifyNoMoreInteractions(mockLineReader, mockDb, mockTerminal);
 
@@ -353,7 +395,7 @@ public class CommandLineTest {
     commandLine.handleInput("list output2-birthdate-asc");
 
     verify(mockLineReader).getTerminal();
-    verify(mockTerminal, times(5)).writer();
+    verify(mockTerminal).writer();
     verify(mockDb).allValues();
     verifyNoMoreInteractions(mockLineReader, mockDb, mockTerminal);
 
@@ -366,13 +408,55 @@ public class CommandLineTest {
     commandLine.handleInput("list output3-lastname-desc");
 
     verify(mockLineReader).getTerminal();
-    verify(mockTerminal, times(5)).writer();
+    verify(mockTerminal).writer();
     verify(mockDb).allValues();
     verifyNoMoreInteractions(mockLineReader, mockDb, mockTerminal);
 
     verifyListOutput3();
   }
 
+  @Test
+  public void testListCommandSortSpec() throws IOException {
+    doReturn(testRecords()).when(mockDb).allValues();
+    commandLine.handleInput("list dateOfBirth:desc");
+
+    verifyListing(REC_WEAVER_TO_STRING, REC_SMITH_TO_STRING, REC_AMES_TO_STRING);
+  }
+
+  @Test
+  public void testListCommandPaged() throws IOException {
+    doReturn(testRecords()).when(mockDb).allValues();
+    commandLine.handleInput("list output2-birthdate-asc --limit 2 --page 2");
+
+    verify(mockPrintWriter)
+        .print(
+            eq(
+                " ---------------- Listing entries -----------------"
+                    + NL
+                    + REC_WEAVER_TO_STRING
+                    + NL
+                    + " Page 2 of 2, showing 1 of 3 entries"
+                    + NL
+                    + " --------------------------------------------------"
+                    + NL));
+  }
+
+  @Test
+  public void testListCommandPageOutOfRange() throws IOException {
+    doReturn(testRecords()).when(mockDb).allValues();
+    commandLine.handleInput("list output2-birthdate-asc --page 3 --limit 2");
+
+    verify(mockPrintWriter)
+        .print(
+            eq(
+                " ---------------- Listing entries -----------------"
+                    + NL
+                    + " Page 3 of 2, showing 0 of 3 entries"
+                    + NL
+                    + " --------------------------------------------------"
+                    + NL));
+  }
+
   /*
   ----------------------------------------------------------
   List - failure
@@ -397,6 +481,99 @@ public class CommandLineTest {
     verifyZeroInteractions(mockDb, mockTerminal, mockPrintWriter);
   }
 
+  @Test
+  public void testListCommandBadPagingOptions() {
+    for (String input :
+        Arrays.asList(
+            "list output1-email-desc-lastname-asc --limit",
+            "list output1-email-desc-lastname-asc --limit 0",
+            "list output1-email-desc-lastname-asc --limit two",
+            "list output1-email-desc-lastname-asc --page 2",
+            "list output1-email-desc-lastname-asc --size 2")) {
+      assertThrows(IllegalArgumentException.class, () -> commandLine.handleInput(input));
+    }
+
+    verify(mockLineReader).getTerminal();
+    verifyNoMoreInteractions(mockLineReader);
+    verifyZeroInteractions(mockDb, mockTerminal, mockPrintWriter);
+  }
+
+  /*
+  ----------------------------------------------------------
+  Export
+  ----------------------------------------------------------
+  */
+
+  @Test
+  public void testExportCommand() throws IOException {
+    doReturn(testRecords()).when(mockDb).allValues();
+    for (String ext : Arrays.asList("csv", "psv", "ssv")) {
+      String name = "export." + ext;
+      commandLine.handleInput("export output3-lastname-desc " + name);
+
+      Path abs = folder.getRoot().toPath().resolve(name);
+      verify(mockPrintWriter)
+          .println(eq(String.format("Exported 3 entries to '%s'", abs.toAbsolutePath())));
+      assertThat(new ContentReader().read(abs), contains(REC_WEAVER, REC_SMITH, REC_AMES));
+    }
+  }
+
+  @Test
+  public void testExportCommandBadArguments() {
+    for (String input :
+        Arrays.asList(
+            "export output3-lastname-desc",
+            "export output3-lastname-desc " + FILE_UNSUPPORTED_DOT_TXT,
+            "export output3-lastname-desc " + FOLDER_THAT_EXISTS,
+            "export output3-lastname-desc " + DOES_NOT_EXIST + "/export.csv",
+            "export hi export.csv")) {
+      assertThrows(IllegalArgumentException.class, () -> commandLine.handleInput(input));
+    }
+
+    verify(mockLineReader).getTerminal();
+    verifyNoMoreInteractions(mockLineReader);
+    verifyZeroInteractions(mockDb, mockTerminal, mockPrintWriter);
+  }
+
+  /*
+  ----------------------------------------------------------
+  Recording
+  ----------------------------------------------------------
+  */
+
+  @Test
+  public void testRecordingCapturesPhases() throws IOException {
+    doReturn(testRecords()).when(mockDb).allValues();
+    commandLine.handleInput("recording start");
+    try {
+      commandLine.handleInput("list lastName:asc");
+      commandLine.handleInput("recording dump phases.jfr");
+    } finally {
+      commandLine.handleInput("recording stop");
+    }
+
+    Path abs = folder.getRoot().toPath().resolve("phases.jfr");
+    verify(mockPrintWriter).println(eq(String.format("Dumped recording to '%s'", abs)));
+    List<RecordedEvent> sorts =
+        RecordingFile.readAllEvents(abs).stream()
+            .filter(event -> event.getEventType().getName().equals("net.lambeaux.homework.gr.Sort"))
+            .collect(Collectors.toList());
+    assertThat(sorts.size(), is(1));
+    assertThat(sorts.get(0).getString("sortKey"), is("lastName:asc"));
+    assertThat(sorts.get(0).getLong("records"), is(3L));
+    assertThat(recordings.status().isRunning(), is(false));
+  }
+
+  @Test
+  public void testRecordingCommandBadArguments() {
+    for (String input :
+        Arrays.asList(
+            "recording", "recording stop", "recording dump", "recording hi", "recording start x")) {
+      assertThrows(IllegalArgumentException.class, () -> commandLine.handleInput(input));
+    }
+    assertThat(recordings.status().isRunning(), is(false));
+  }
+
   /*
   ----------------------------------------------------------
   Support
@@ -424,42 +601,29 @@ public class CommandLineTest {
   }
 
   private void verifyListOutput1() {
-    InOrder orderedCall = inOrder(mockPrintWriter);
-    orderedCall
-        .verify(mockPrintWriter)
-        .println(eq(" ---------------- Listing entries -----------------"));
-    orderedCall.verify(mockPrintWriter).println(eq(REC_WEAVER_TO_STRING));
-    orderedCall.verify(mockPrintWriter).println(eq(REC_AMES_TO_STRING));
-    orderedCall.verify(mockPrintWriter).println(eq(REC_SMITH_TO_STRING));
-    orderedCall
-        .verify(mockPrintWriter)
-        .println(eq(" --------------------------------------------------"));
+    verifyListing(REC_WEAVER_TO_STRING, REC_AMES_TO_STRING, REC_SMITH_TO_STRING);
   }
 
   private void verifyListOutput2() {
-    InOrder orderedCall = inOrder(mockPrintWriter);
-    orderedCall
-        .verify(mockPrintWriter)
-        .println(eq(" ---------------- Listing entries -----------------"));
-    orderedCall.verify(mockPrintWriter).println(eq(REC_AMES_TO_STRING));
-    orderedCall.verify(mockPrintWriter).println(eq(REC_SMITH_TO_STRING));
-    orderedCall.verify(mockPrintWriter).println(eq(REC_WEAVER_TO_STRING));
-    orderedCall
-        .verify(mockPrintWriter)
-        .println(eq(" --------------------------------------------------"));
+    verifyListing(REC_AMES_TO_STRING, REC_SMITH_TO_STRING, REC_WEAVER_TO_STRING);
   }
 
   private void verifyListOutput3() {
+    verifyListing(REC_WEAVER_TO_STRING, REC_SMITH_TO_STRING, REC_AMES_TO_STRING);
+  }
+
+  private void verifyListing(String... lines) {
+    StringBuilder expected = new StringBuilder();
+    expected.append(" ---------------- Listing entries -----------------").append(NL);
+    for (String line : lines) {
+      expected.append(line).append(NL);
+    }
+    expected.append(" --------------------------------------------------").append(NL);
+
     InOrder orderedCall = inOrder(mockPrintWriter);
-    orderedCall
-        .verify(mockPrintWriter)
-        .println(eq(" ---------------- Listing entries -----------------"));
-    orderedCall.verify(mockPrintWriter).println(eq(REC_WEAVER_TO_STRING));
-    orderedCall.verify(mockPrintWriter).println(eq(REC_SMITH_TO_STRING));
-    orderedCall.verify(mockPrintWriter).println(eq(REC_AMES_TO_STRING));
-    orderedCall
-        .verify(mockPrintWriter)
-        .println(eq(" --------------------------------------------------"));
+    orderedCall.verify(mockPrintWriter).print(eq(expected.toString()));
+    orderedCall.verify(mockPrintWriter).flush();
+    verifyNoMoreInteractions(mockPrintWriter);
   }
 
   // Set of verifications that map to valid files in src/test/resources/sample-data
@@ -467,10 +631,14 @@ public class CommandLineTest {
     return Stream.of(REC_AMES, REC_SMITH, REC_WEAVER).collect(Collectors.toList());
   }
 
+  private void awaitIngestJobs() throws InterruptedException {
+    for (IngestJob job : ingestJobs.all()) {
+      assertTrue("Ingest job did not finish in time", job.await(10, TimeUnit.SECONDS));
+    }
+  }
+
   private void verifyMockDbSampleData() {
-    verify(mockDb).put(eq("bob.smith@example.net"), eq(REC_SMITH));
-    verify(mockDb).put(eq("ted.weaver@example.net"), eq(REC_WEAVER));
-    verify(mockDb).put(eq("redacted@example.net"), eq(REC_AMES));
+    verify(mockDb).putAll(eq(Arrays.asList(REC_SMITH, REC_WEAVER, REC_AMES)));
 
     verifyNoMoreInteractions(mockDb);
   }
@@ -0,0 +1,97 @@
+package net.lambeaux.homework.gr;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+  private static final int CALLERS = 8;
+
+  @Test
+  public void testConcurrentCallersShareOneComputation() throws Exception {
+    SingleFlight<String, byte[]> flight = new SingleFlight<>();
+    AtomicInteger computations = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    byte[] shared = new byte[] {1, 2, 3};
+
+    List<Thread> threads = new ArrayList<>();
+    List<byte[]> results = Collections.synchronizedList(new ArrayList<>());
+    for (int i = 0; i < CALLERS; i++) {
+      Thread thread =
+          new Thread(
+              () -> {
+                try {
+                  results.add(
+                      flight.get(
+                          "key",
+                          () -> {
+                            computations.incrementAndGet();
+                            assertTrue(release.await(10, TimeUnit.SECONDS));
+                            return shared;
+                          }));
+                } catch (Exception e) {
+                  throw new IllegalStateException(e);
+                }
+              });
+      threads.add(thread);
+      thread.start();
+    }
+    // The computing caller waits on the latch and every other caller on the shared result
+    awaitAllParked(threads);
+    release.countDown();
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+
+    assertThat(results.size(), is(CALLERS));
+    for (byte[] result : results) {
+      assertThat(result == shared, is(true));
+    }
+    assertThat(computations.get(), is(1));
+    assertThat(flight.inFlight(), is(0));
+  }
+
+  @Test
+  public void testFailureReachesEveryCallerAndIsNotKept() throws Exception {
+    SingleFlight<String, String> flight = new SingleFlight<>();
+    try {
+      flight.get(
+          "key",
+          () -> {
+            throw new IllegalStateException("boom");
+          });
+      fail("Expected the computation's exception");
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage(), is("boom"));
+    }
+    assertThat(flight.inFlight(), is(0));
+    assertThat(flight.get("key", () -> "ok"), is("ok"));
+  }
+
+  @Test
+  public void testDifferentKeysDoNotWait() throws Exception {
+    SingleFlight<String, String> flight = new SingleFlight<>();
+    assertThat(flight.get("a", () -> flight.get("b", () -> "inner")), is("inner"));
+  }
+
+  private static void awaitAllParked(List<Thread> threads) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    for (Thread thread : threads) {
+      while (thread.getState() != Thread.State.WAITING
+          && thread.getState() != Thread.State.TIMED_WAITING) {
+        assertTrue("Caller never started waiting", System.currentTimeMillis() < deadline);
+        Thread.sleep(5);
+      }
+    }
+  }
+}
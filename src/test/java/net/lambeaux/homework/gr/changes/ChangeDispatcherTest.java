@@ -0,0 +1,164 @@
+package net.lambeaux.homework.gr.changes;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.persistence.ChangeFeed;
+import net.lambeaux.homework.gr.persistence.InMemoryDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangeDispatcherTest {
+
+  private static final Record REC_SMITH =
+      new Record("Smith", "Bob", "bob.smith@example.net", "red", "01/23/1972");
+
+  private static final Record REC_WEAVER =
+      new Record("Weaver", "Ted", "ted.weaver@example.net", "green", "03/13/1988");
+
+  private static final Record REC_AMES =
+      new Record("Ames", "Sarah", "sarah.ames@example.net", "yellow", "11/05/1994");
+
+  private InMemoryDatabase db;
+
+  private ChangeDispatcher dispatcher;
+
+  @Before
+  public void before() {
+    db = new InMemoryDatabase();
+    dispatcher = new ChangeDispatcher(db.changes());
+  }
+
+  @After
+  public void after() {
+    dispatcher.close();
+  }
+
+  @Test
+  public void testSubscriberReceivesNewChanges() throws Exception {
+    db.put(REC_SMITH.getEmail(), REC_SMITH);
+    BlockingQueue<ChangeFeed.Batch> received = new LinkedBlockingQueue<>();
+    dispatcher.subscribe(dispatcher.head(), received::add);
+    db.put(REC_WEAVER.getEmail(), REC_WEAVER);
+
+    ChangeFeed.Batch batch = received.poll(10, TimeUnit.SECONDS);
+    assertThat(batch.getRecords(), contains(REC_WEAVER));
+    assertThat(batch.getToSequence(), is(2L));
+  }
+
+  @Test
+  public void testSubscriberResumesFromSequence() throws Exception {
+    db.put(REC_SMITH.getEmail(), REC_SMITH);
+    db.put(REC_WEAVER.getEmail(), REC_WEAVER);
+    BlockingQueue<ChangeFeed.Batch> received = new LinkedBlockingQueue<>();
+    dispatcher.subscribe(1L, received::add);
+
+    assertThat(received.poll(10, TimeUnit.SECONDS).getRecords(), contains(REC_WEAVER));
+  }
+
+  @Test
+  public void testSlowSubscriberGetsCoalescedBatch() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<ChangeFeed.Batch> received = Collections.synchronizedList(new ArrayList<>());
+    dispatcher.subscribe(
+        0L,
+        batch -> {
+          release.await();
+          received.add(batch);
+        });
+    db.put(REC_SMITH.getEmail(), REC_SMITH);
+    db.put(REC_WEAVER.getEmail(), REC_WEAVER);
+    db.put(REC_AMES.getEmail(), REC_AMES);
+    release.countDown();
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (lastSequence(received) < 3L && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(lastSequence(received), is(3L));
+    assertThat(received.size(), lessThan(3));
+  }
+
+  @Test
+  public void testFailingSubscriberIsDropped() throws Exception {
+    CountDownLatch attempted = new CountDownLatch(1);
+    dispatcher.subscribe(
+        0L,
+        batch -> {
+          attempted.countDown();
+          throw new IllegalStateException("client went away");
+        });
+    db.put(REC_SMITH.getEmail(), REC_SMITH);
+
+    assertThat(attempted.await(10, TimeUnit.SECONDS), is(true));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (dispatcher.subscriberCount() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(dispatcher.subscriberCount(), is(0));
+  }
+
+  @Test
+  public void testTokensOnlyResumeTheSameEpoch() {
+    db.put(REC_SMITH.getEmail(), REC_SMITH);
+    String token = dispatcher.token(1L);
+    assertThat(dispatcher.resumeSequence(token), is(OptionalLong.of(1L)));
+
+    // A restarted process has a new feed, whose sequences start over
+    try (ChangeDispatcher restarted = new ChangeDispatcher(new ChangeFeed())) {
+      assertThat(restarted.resumeSequence(token), is(OptionalLong.empty()));
+      assertThat(restarted.resumeSequence("1"), is(OptionalLong.empty()));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMalformedTokenIsRejected() {
+    dispatcher.resumeSequence("latest");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCannotResumeAheadOfFeed() {
+    dispatcher.subscribe(5L, batch -> {});
+  }
+
+  @Test
+  public void testCloseStopsThreadsAndSubscriptions() throws Exception {
+    CountDownLatch delivering = new CountDownLatch(1);
+    dispatcher.subscribe(
+        dispatcher.head(),
+        batch -> {
+          delivering.countDown();
+          Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+        });
+    db.put(REC_SMITH.getEmail(), REC_SMITH);
+    assertThat(delivering.await(10, TimeUnit.SECONDS), is(true));
+
+    dispatcher.close();
+    assertThat(dispatcher.awaitTermination(10, TimeUnit.SECONDS), is(true));
+    assertThat(dispatcher.subscriberCount(), is(0));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testCannotSubscribeAfterClose() {
+    dispatcher.close();
+    dispatcher.subscribe(dispatcher.head(), batch -> {});
+  }
+
+  private static long lastSequence(List<ChangeFeed.Batch> received) {
+    synchronized (received) {
+      return received.isEmpty() ? 0L : received.get(received.size() - 1).getToSequence();
+    }
+  }
+}
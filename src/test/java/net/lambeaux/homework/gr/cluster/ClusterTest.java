@@ -0,0 +1,240 @@
+package net.lambeaux.homework.gr.cluster;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import io.javalin.Javalin;
+import io.restassured.RestAssured;
+import io.restassured.http.Header;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import net.lambeaux.homework.gr.App;
+import net.lambeaux.homework.gr.core.BinaryRecords;
+import net.lambeaux.homework.gr.core.ContentReader;
+import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.persistence.InMemoryDatabase;
+import org.eclipse.jetty.server.Server;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClusterTest {
+
+  private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+  private static final List<Record> RECORDS =
+      Arrays.asList(
+          new Record("Smith", "Bob", "bob.smith@example.net", "red", "01/23/1972"),
+          new Record("Weaver", "Ted", "ted.weaver@example.net", "green", "03/13/1988"),
+          new Record("Ames", "Sarah", "sarah.ames@example.net", "yellow", "11/05/1994"),
+          new Record("George", "Fred", "fred.george@example.net", "blue", "08/12/1901"),
+          new Record("Lee", "Ann", "ann.lee@example.net", "purple", "06/30/1960"),
+          new Record("Diaz", "Luis", "luis.diaz@example.net", "orange", "02/14/1979"));
+
+  private final List<Javalin> apps = new ArrayList<>();
+
+  private final List<InMemoryDatabase> dbs = new ArrayList<>();
+
+  private List<String> urls;
+
+  @Before
+  public void before() throws IOException {
+    urls = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      Javalin app = Javalin.create().start(0);
+      apps.add(app);
+      dbs.add(new InMemoryDatabase());
+      urls.add("http://localhost:" + app.port());
+    }
+    for (int i = 0; i < apps.size(); i++) {
+      App.startAppWithDependencies(
+          apps.get(i), new ContentReader(), dbs.get(i), false, new Cluster(urls, i));
+    }
+  }
+
+  @After
+  public void after() {
+    apps.forEach(Javalin::stop);
+  }
+
+  @Test
+  public void testCreateIsForwardedToOwner() {
+    Cluster cluster = new Cluster(urls, 0);
+    for (Record rec : RECORDS) {
+      int statusCode =
+          RestAssured.given()
+              .header(new Header("Content-Type", "text/csv"))
+              .body(csv(rec))
+              .post(urls.get(0) + "/records")
+              .statusCode();
+      assertThat(statusCode, is(200));
+    }
+    for (Record rec : RECORDS) {
+      assertThat(dbs.get(cluster.owner(rec.getEmail())).get(rec.getEmail()), is(rec));
+    }
+  }
+
+  @Test
+  public void testBinaryUploadIsSplitByOwner() throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    BinaryRecords.Encoder encoder = BinaryRecords.encoder(body);
+    for (Record rec : RECORDS) {
+      encoder.write(rec);
+    }
+    encoder.finish();
+    int statusCode =
+        RestAssured.given()
+            .header(new Header("Content-Type", BinaryRecords.MIME_TYPE))
+            .body(body.toByteArray())
+            .post(urls.get(1) + "/records")
+            .statusCode();
+
+    assertThat(statusCode, is(200));
+    Cluster cluster = new Cluster(urls, 1);
+    for (Record rec : RECORDS) {
+      for (int node = 0; node < dbs.size(); node++) {
+        Record stored = dbs.get(node).get(rec.getEmail());
+        assertThat(stored, is(node == cluster.owner(rec.getEmail()) ? rec : null));
+      }
+    }
+  }
+
+  @Test
+  public void testSortedReadsMergeAllPartitions() throws IOException {
+    Cluster cluster = new Cluster(urls, 0);
+    for (Record rec : RECORDS) {
+      dbs.get(cluster.owner(rec.getEmail())).put(rec.getEmail(), rec);
+    }
+    assertThat(dbs.get(0).allValues().size(), is(not(RECORDS.size())));
+
+    InMemoryDatabase single = new InMemoryDatabase();
+    RECORDS.forEach(rec -> single.put(rec.getEmail(), rec));
+    Javalin standalone = Javalin.create().start(0);
+    try {
+      App.startAppWithDependencies(standalone, new ContentReader(), single, false);
+      for (String sort : Arrays.asList("email", "birthdate", "name")) {
+        String expected =
+            RestAssured.get("http://localhost:" + standalone.port() + "/records/" + sort)
+                .asString();
+        for (String url : urls) {
+          assertThat(RestAssured.get(url + "/records/" + sort).asString(), is(expected));
+        }
+      }
+    } finally {
+      standalone.stop();
+    }
+  }
+
+  @Test
+  public void testPartitionFailingEarlyAnswersBadGateway() throws IOException {
+    try (Partitions partitions = brokenPartition(10)) {
+      assertThat(RestAssured.get(partitions.url + "/records/email").statusCode(), is(502));
+    }
+  }
+
+  @Test
+  public void testPartitionFailingMidwayAbortsTheResponse() throws IOException {
+    try (Partitions partitions = brokenPartition(20000)) {
+      HttpURLConnection conn =
+          (HttpURLConnection) new URL(partitions.url + "/records/email").openConnection();
+      assertThat(conn.getResponseCode(), is(200));
+      try (InputStream in = conn.getInputStream()) {
+        byte[] buffer = new byte[64 * 1024];
+        while (in.read(buffer) >= 0) {
+          // Reads up to the point where the partition failed
+        }
+        fail("Expected the response to end prematurely");
+      } catch (IOException e) {
+        // The client cannot mistake the partial listing for a complete one
+      } finally {
+        conn.disconnect();
+      }
+    }
+  }
+
+  /*
+   * Starts a node whose only other partition sends the given number of records, then cuts its
+   * response off in the middle of the next one.
+   */
+  private static Partitions brokenPartition(int records) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    BinaryRecords.Encoder encoder = BinaryRecords.encoder(body);
+    for (int i = 0; i <= records; i++) {
+      encoder.write(new Record("Smith", "Bob", "bob" + i + "@example.net", "red", "01/23/1972"));
+    }
+    encoder.flush();
+    byte[] truncated = Arrays.copyOf(body.toByteArray(), body.size() - 3);
+    Javalin broken = Javalin.create().start(0);
+    broken.get("/records", ctx -> ctx.result(truncated));
+
+    // The aborted request completes on the node around the time its client sees the failure, a
+    // short stop timeout keeps the node from waiting on it when it shuts down gracefully
+    Javalin node =
+        Javalin.create(
+                config ->
+                    config.server(
+                        () -> {
+                          Server server = new Server();
+                          server.setStopTimeout(STOP_TIMEOUT_MILLIS);
+                          return server;
+                        }))
+            .start(0);
+    String url = "http://localhost:" + node.port();
+    List<String> nodes = Arrays.asList(url, "http://localhost:" + broken.port());
+    App.startAppWithDependencies(
+        node, new ContentReader(), new InMemoryDatabase(), false, new Cluster(nodes, 0));
+    return new Partitions(url, broken, node);
+  }
+
+  @Test
+  public void testOwnerIsStableAndSpreadsRecords() {
+    Cluster first = new Cluster(urls, 0);
+    Cluster second = new Cluster(urls, 2);
+    List<Integer> owners = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      String email = "user" + i + "@example.net";
+      assertThat(first.owner(email), is(second.owner(email)));
+      owners.add(first.owner(email));
+    }
+    assertThat(new HashSet<>(owners), containsInAnyOrder(0, 1, 2));
+  }
+
+  private static class Partitions implements Closeable {
+
+    private final String url;
+
+    private final List<Javalin> apps;
+
+    private Partitions(String url, Javalin... apps) {
+      this.url = url;
+      this.apps = Arrays.asList(apps);
+    }
+
+    @Override
+    public void close() {
+      apps.forEach(Javalin::stop);
+    }
+  }
+
+  private static String csv(Record rec) {
+    return String.join(
+        ", ",
+        rec.getLastName(),
+        rec.getFirstName(),
+        rec.getEmail(),
+        rec.getFavoriteColor(),
+        new SimpleDateFormat("MM/dd/yyyy").format(rec.getDateOfBirth()));
+  }
+}
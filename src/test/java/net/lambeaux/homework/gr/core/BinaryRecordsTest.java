@@ -0,0 +1,79 @@
+package net.lambeaux.homework.gr.core;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class BinaryRecordsTest {
+
+  private static final Record REC_SMITH =
+      new Record("Smith", "Bob", "bob.smith@example.net", "red", "01/23/1972");
+
+  private static final Record REC_WEAVER =
+      new Record("Weaver", "Ted", "ted.weaver@example.net", "red", "03/13/1888");
+
+  private static final Record REC_AMES =
+      new Record("Am\u00e9s", "Zo\u00eb", "zoe.ames@example.net", "gr\u00fcn", "11/05/2994");
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    byte[] encoded = encode(Arrays.asList(REC_SMITH, REC_WEAVER, REC_AMES));
+    assertThat(decode(encoded), contains(REC_SMITH, REC_WEAVER, REC_AMES));
+  }
+
+  @Test
+  public void testEmptyStream() throws IOException {
+    assertThat(decode(encode(new ArrayList<>())).isEmpty(), is(true));
+  }
+
+  @Test
+  public void testRepeatedColorsAreDictionaryCoded() throws IOException {
+    List<Record> records = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      records.add(
+          new Record(
+              "Smith", "Bob", "bob" + i + "@example.net", "a-long-color-name", "01/23/1972"));
+    }
+    int withColor = encode(records).length;
+    int colorOnce = encode(records.subList(0, 1)).length;
+    assertThat(withColor - colorOnce, lessThan(99 * 32));
+  }
+
+  @Test(expected = IOException.class)
+  public void testRejectsOtherContent() throws IOException {
+    BinaryRecords.decoder(new ByteArrayInputStream("Smith, Bob".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test(expected = UncheckedIOException.class)
+  public void testRejectsTruncatedStream() throws IOException {
+    byte[] encoded = encode(Arrays.asList(REC_SMITH, REC_WEAVER));
+    decode(Arrays.copyOf(encoded, encoded.length - 5));
+  }
+
+  private static byte[] encode(List<Record> records) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryRecords.Encoder encoder = BinaryRecords.encoder(out);
+    for (Record rec : records) {
+      encoder.write(rec);
+    }
+    encoder.finish();
+    return out.toByteArray();
+  }
+
+  private static List<Record> decode(byte[] encoded) throws IOException {
+    List<Record> records = new ArrayList<>();
+    BinaryRecords.decoder(new ByteArrayInputStream(encoded)).forEachRemaining(records::add);
+    return records;
+  }
+}
@@ -0,0 +1,208 @@
+package net.lambeaux.homework.gr.core;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import io.airlift.compress.zstd.ZstdOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ContentReaderTest {
+
+  private static final Record REC_SMITH =
+      new Record("Smith", "Bob", "bob.smith@example.net", "red", "01/23/1972");
+
+  private static final Record REC_WEAVER =
+      new Record("Weaver", "Ted", "ted.weaver@example.net", "green", "03/13/1988");
+
+  private static final Record REC_AMES =
+      new Record("Ames", "Richard", "redacted@example.net", "unknown", "11/01/1923");
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final ContentReader contentReader = new ContentReader();
+
+  @Test
+  public void testCanHandleCompressedExtensions() {
+    assertThat(contentReader.canHandle(folder.getRoot().toPath().resolve("a.csv.gz")), is(true));
+    assertThat(contentReader.canHandle(folder.getRoot().toPath().resolve("a.psv.zst")), is(true));
+    assertThat(contentReader.canHandle(folder.getRoot().toPath().resolve("a.txt.gz")), is(false));
+  }
+
+  @Test
+  public void testReadGzip() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("sample.csv.gz");
+    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+      copyTestResource("sample.csv", out);
+    }
+    assertThat(contentReader.read(file), contains(REC_SMITH, REC_WEAVER, REC_AMES));
+  }
+
+  @Test
+  public void testReadZstd() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("sample.psv.zst");
+    try (OutputStream out = new ZstdOutputStream(Files.newOutputStream(file))) {
+      copyTestResource("sample.psv", out);
+    }
+    assertThat(contentReader.read(file), contains(REC_SMITH, REC_WEAVER, REC_AMES));
+  }
+
+  @Test
+  public void testReadDetectsCompressionFromMagicBytes() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("sample.ssv");
+    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+      copyTestResource("sample.ssv", out);
+    }
+    assertThat(contentReader.read(file), contains(REC_SMITH, REC_WEAVER, REC_AMES));
+  }
+
+  @Test
+  public void testReadLazyMatchesEager() throws IOException {
+    ContentReader lazyReader = new ContentReader(true);
+    for (String fileName : Arrays.asList("sample.csv", "sample.psv", "sample.ssv")) {
+      Path file = folder.getRoot().toPath().resolve(fileName);
+      try (OutputStream out = Files.newOutputStream(file)) {
+        copyTestResource(fileName, out);
+      }
+      assertThat(lazyReader.read(file), contains(REC_SMITH, REC_WEAVER, REC_AMES));
+    }
+  }
+
+  @Test
+  public void testReadLazyDecodesOnFirstAccess() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("sample.csv");
+    try (OutputStream out = Files.newOutputStream(file)) {
+      copyTestResource("sample.csv", out);
+    }
+    Record rec = new ContentReader(true).read(file).get(0);
+    assertThat(rec.getEmail(), is(REC_SMITH.getEmail()));
+    assertThat(rec.getDateOfBirth(), is(REC_SMITH.getDateOfBirth()));
+    assertThat(rec.toString(), is(REC_SMITH.toString()));
+  }
+
+  @Test
+  public void testReadLazyRejectsSameLinesAsEager() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("bad-data.csv");
+    try (OutputStream out = Files.newOutputStream(file)) {
+      copyTestResource("bad-data.csv", out);
+    }
+    assertThat(new ContentReader(true).read(file), is(contentReader.read(file)));
+    assertThat(contentReader.read(file), contains(REC_WEAVER));
+  }
+
+  @Test
+  public void testReadQuarantinesRejectedLines() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("bad-data.csv.gz");
+    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+      copyTestResource("bad-data.csv", out);
+    }
+    assertThat(contentReader.read(file), contains(REC_WEAVER));
+    assertThat(
+        Files.readAllLines(folder.getRoot().toPath().resolve("bad-data.rejected.csv")),
+        contains(
+            "1,FIELD_COUNT,0,Smith, Bob, bob.smith@example.net, 01/23/1972",
+            "3,BAD_DATE,5,Ames, Richard, redacted@example.net, unknown, 11/01"));
+  }
+
+  @Test
+  public void testReadQuarantinesToConfiguredDirectory() throws IOException {
+    Path dir = folder.newFolder("quarantine").toPath();
+    Path file = folder.getRoot().toPath().resolve("bad-data.csv");
+    try (OutputStream out = Files.newOutputStream(file)) {
+      copyTestResource("bad-data.csv", out);
+    }
+    new ContentReader(false, dir).read(file);
+    assertThat(Files.readAllLines(mirrored(dir, file, "bad-data.rejected.csv")).size(), is(2));
+    assertThat(Files.exists(folder.getRoot().toPath().resolve("bad-data.rejected.csv")), is(false));
+  }
+
+  @Test
+  public void testReadNeverOverwritesQuarantinedLines() throws IOException {
+    Path dir = folder.newFolder("quarantine").toPath();
+    Path first = folder.newFolder("a").toPath().resolve("bad-data.csv");
+    Path second = folder.newFolder("b").toPath().resolve("bad-data.csv");
+    for (Path file : Arrays.asList(first, second)) {
+      try (OutputStream out = Files.newOutputStream(file)) {
+        copyTestResource("bad-data.csv", out);
+      }
+    }
+    ContentReader reader = new ContentReader(false, dir);
+    reader.read(first);
+    reader.read(second);
+    reader.read(first);
+    assertThat(Files.readAllLines(mirrored(dir, first, "bad-data.rejected.csv")).size(), is(2));
+    assertThat(Files.readAllLines(mirrored(dir, second, "bad-data.rejected.csv")).size(), is(2));
+    assertThat(Files.readAllLines(mirrored(dir, first, "bad-data-2.rejected.csv")).size(), is(2));
+  }
+
+  private static Path mirrored(Path dir, Path source, String name) {
+    Path parent = source.toAbsolutePath().getParent();
+    return dir.resolve(parent.getRoot().relativize(parent).toString()).resolve(name);
+  }
+
+  @Test
+  public void testReadCleanFileLeavesNoQuarantine() throws IOException, InterruptedException {
+    Path file = folder.getRoot().toPath().resolve("sample.psv");
+    try (OutputStream out = Files.newOutputStream(file)) {
+      copyTestResource("sample.psv", out);
+    }
+    contentReader.read(file, 1, (records, lines) -> {});
+    assertThat(Files.exists(folder.getRoot().toPath().resolve("sample.rejected.psv")), is(false));
+  }
+
+  @Test
+  public void testLineCheckReportsErrorCodes() {
+    ContentReader.LineCheck check = new ContentReader.LineCheck();
+    String[][] cases = {
+      {"Smith, Bob, bob.smith@example.net, red", "FIELD_COUNT", "-1"},
+      {"Smith, Bob, bob.smith@example.net, red, 01/23/1972, extra", "FIELD_COUNT", "-1"},
+      {"Smith,  , bob.smith@example.net, red, 01/23/1972", "EMPTY_FIELD", "1"},
+      {"Smith, Bob, bob.smith@example.net, red, 1972-01-23", "BAD_DATE", "4"}
+    };
+    for (String[] c : cases) {
+      for (boolean lazy : Arrays.asList(false, true)) {
+        Record rec = lazy ? check.parseLazy(c[0], ',') : check.parse(c[0], ",");
+        assertThat(rec == null, is(true));
+        assertThat(check.getError().name(), is(c[1]));
+        assertThat(check.getField(), is(Integer.parseInt(c[2])));
+      }
+    }
+    String good = "Smith, Bob, bob.smith@example.net, red, 01/23/1972";
+    assertThat(check.parse(good, ","), is(REC_SMITH));
+    assertThat(check.parseLazy(good, ','), is(REC_SMITH));
+    assertThat(
+        LineError.EMPTY_FIELD.describe(1, "a,,c"),
+        is("expected a value for field 2 on line, a,,c"));
+  }
+
+  @Test(expected = IOException.class)
+  public void testReadTruncatedGzip() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("sample.csv.gz");
+    Path full = folder.getRoot().toPath().resolve("full.csv.gz");
+    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(full))) {
+      copyTestResource("sample.csv", out);
+    }
+    byte[] bytes = Files.readAllBytes(full);
+    Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+    contentReader.read(file);
+  }
+
+  private static void copyTestResource(String fileName, OutputStream out) throws IOException {
+    try (InputStream in = ContentReaderTest.class.getResourceAsStream("/sample-data/" + fileName)) {
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package net.lambeaux.homework.gr.core;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DelimitedWriterTest {
+
+  private static final Record REC_SMITH =
+      new Record("Smith", "Bob", "bob.smith@example.net", "red", "01/23/1972");
+
+  private static final Record REC_AMES =
+      new Record("Am\u00e9s", "Zo\u00eb", "zoe.ames@example.net", "gr\u00fcn", "11/05/2994");
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testWritesInputLayout() throws IOException {
+    assertThat(
+        write(DelimitedWriter.TEXT_CSV, REC_SMITH),
+        is("Smith, Bob, bob.smith@example.net, red, 01/23/1972\n"));
+    assertThat(
+        write(DelimitedWriter.TEXT_PSV, REC_SMITH),
+        is("Smith | Bob | bob.smith@example.net | red | 01/23/1972\n"));
+    assertThat(
+        write(DelimitedWriter.TEXT_SSV, REC_SMITH),
+        is("Smith Bob bob.smith@example.net red 01/23/1972\n"));
+  }
+
+  @Test
+  public void testExportReadsBackIn() throws IOException {
+    for (String ext : Arrays.asList("csv", "psv", "ssv")) {
+      Path file = folder.newFile("export." + ext).toPath();
+      Files.write(file, write("text/" + ext, REC_SMITH, REC_AMES).getBytes(StandardCharsets.UTF_8));
+      assertThat(new ContentReader().read(file), contains(REC_SMITH, REC_AMES));
+    }
+  }
+
+  @Test
+  public void testDatesMatchSimpleDateFormat() throws IOException {
+    SimpleDateFormat format = new SimpleDateFormat("MM/dd/yyyy");
+    Calendar calendar = Calendar.getInstance();
+    calendar.clear();
+    calendar.set(1500, Calendar.JANUARY, 1);
+    while (calendar.get(Calendar.YEAR) < 2100) {
+      String date = format.format(calendar.getTime());
+      Record rec = new Record("Smith", "Bob", "bob@example.net", "red", date);
+      assertThat(
+          write(DelimitedWriter.TEXT_SSV, rec), is("Smith Bob bob@example.net red " + date + "\n"));
+      calendar.add(Calendar.DAY_OF_MONTH, 17);
+    }
+  }
+
+  @Test
+  public void testNegotiate() {
+    assertThat(DelimitedWriter.negotiate("application/json, text/psv;q=0.9"), is("text/psv"));
+    assertThat(DelimitedWriter.negotiate("text/csv"), is("text/csv"));
+    assertThat(DelimitedWriter.negotiate("application/json"), is(nullValue()));
+    assertThat(DelimitedWriter.negotiate(null), is(nullValue()));
+  }
+
+  private static String write(String mediaType, Record... records) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DelimitedWriter writer = new DelimitedWriter(out, mediaType);
+    List<Record> list = Arrays.asList(records);
+    for (Record rec : list) {
+      writer.write(rec);
+    }
+    writer.flush();
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
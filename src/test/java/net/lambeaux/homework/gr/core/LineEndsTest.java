@@ -0,0 +1,199 @@
+package net.lambeaux.homework.gr.core;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the word at a time {@link LineEnds} from {@code src/main/java9} against the portable one.
+ * Tests run from the class directories, where the versioned class is never picked, so the reader
+ * classes are packaged into a multi-release JAR the same way the build does and loaded from there.
+ */
+public class LineEndsTest {
+
+  private static final String PACKAGE = "net/lambeaux/homework/gr/core/";
+
+  private static final String VERSIONED = "META-INF/versions/9/";
+
+  private static final String[] CLASSES = {"LineEnds", "Swar", "Utf8LineReader"};
+
+  private static final String[] INPUTS = {
+    "",
+    "one",
+    "one\r\ntwo\r\nthree\r\n",
+    "one\ntwo\rthree\r\n\r\nfour",
+    "\r\n\r\n\r\n\r\n\r\n\r\n",
+    "abcdefg\nabcdefgh\r\nabcdefghijklmno\rabcdefghijklmnop",
+    "Smith, Bob, bob.smith@example.net, red, 01/23/1972",
+    "Am\u00e9s, Zo\u00eb, zoe.ames@example.net, gr\u00fcn, 11/05/2994\r\nnext\u000b\u0085"
+  };
+
+  @ClassRule public static TemporaryFolder folder = new TemporaryFolder();
+
+  private static URLClassLoader loader;
+
+  private static Method find;
+
+  private static Constructor<?> reader;
+
+  private static Method readLine;
+
+  @BeforeClass
+  public static void loadVersionedClasses() throws Exception {
+    assumeFalse(
+        "multi-release JARs need Java 9",
+        System.getProperty("java.specification.version").startsWith("1."));
+    loader = new URLClassLoader(new URL[] {multiReleaseJar().toURI().toURL()}, null);
+    Class<?> lineEnds = loader.loadClass("net.lambeaux.homework.gr.core.LineEnds");
+    find = lineEnds.getDeclaredMethod("find", byte[].class, int.class, int.class);
+    find.setAccessible(true);
+    Class<?> lineReader = loader.loadClass("net.lambeaux.homework.gr.core.Utf8LineReader");
+    reader = lineReader.getDeclaredConstructor(InputStream.class, int.class);
+    reader.setAccessible(true);
+    readLine = lineReader.getDeclaredMethod("readLine");
+    readLine.setAccessible(true);
+  }
+
+  @AfterClass
+  public static void closeLoader() throws IOException {
+    if (loader != null) {
+      loader.close();
+    }
+  }
+
+  @Test
+  public void testJarLoadsTheWordAtATimeVersion() {
+    assertThat(
+        Arrays.stream(find.getDeclaringClass().getDeclaredFields())
+            .anyMatch(field -> field.getName().equals("WORDS")),
+        is(true));
+  }
+
+  @Test
+  public void testFindsTheSameEndsAsThePortableVersion() throws ReflectiveOperationException {
+    for (String input : INPUTS) {
+      assertSameEnds(input.getBytes(StandardCharsets.UTF_8));
+    }
+    Random random = new Random(11);
+    // Terminators, their neighbours and high bytes are where a word at a time test could go wrong
+    byte[] alphabet = {'a', '\n', '\r', '\t', 0x0b, 0x0e, (byte) 0x8a, (byte) 0x8d, (byte) 0xff};
+    for (int run = 0; run < 500; run++) {
+      byte[] bytes = new byte[random.nextInt(40)];
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = random.nextInt(4) == 0 ? alphabet[random.nextInt(alphabet.length)] : (byte) 'a';
+      }
+      assertSameEnds(bytes);
+    }
+  }
+
+  @Test
+  public void testSplitsTheSameLinesAsThePortableVersion() throws Exception {
+    for (String input : INPUTS) {
+      for (int bufferSize = 1; bufferSize <= 20; bufferSize++) {
+        assertThat(input, versionedLines(input, bufferSize), is(portableLines(input, bufferSize)));
+      }
+    }
+  }
+
+  private static void assertSameEnds(byte[] bytes) throws ReflectiveOperationException {
+    // Every start and end puts the words at every alignment and the tail at every length
+    for (int from = 0; from <= bytes.length; from++) {
+      for (int to = from; to <= bytes.length; to++) {
+        assertThat(
+            Arrays.toString(bytes) + " [" + from + ", " + to + ")",
+            find.invoke(null, bytes, from, to),
+            is(LineEnds.find(bytes, from, to)));
+      }
+    }
+  }
+
+  private static List<String> versionedLines(String input, int bufferSize) throws Exception {
+    Object lines = reader.newInstance(bytes(input), bufferSize);
+    List<String> result = new ArrayList<>();
+    try {
+      String line;
+      while ((line = (String) readLine.invoke(lines)) != null) {
+        result.add(line);
+      }
+    } catch (InvocationTargetException e) {
+      throw (Exception) e.getCause();
+    } finally {
+      ((AutoCloseable) lines).close();
+    }
+    return result;
+  }
+
+  private static List<String> portableLines(String input, int bufferSize) throws IOException {
+    List<String> result = new ArrayList<>();
+    try (Utf8LineReader lines = new Utf8LineReader(bytes(input), bufferSize)) {
+      String line;
+      while ((line = lines.readLine()) != null) {
+        result.add(line);
+      }
+    }
+    return result;
+  }
+
+  private static InputStream bytes(String input) {
+    return new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static File multiReleaseJar() throws IOException {
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().put(new Attributes.Name("Multi-Release"), "true");
+    File jar = folder.newFile("line-ends.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+      for (String name : CLASSES) {
+        copy(PACKAGE + name + ".class", out);
+      }
+      copy(VERSIONED + PACKAGE + "LineEnds.class", out);
+    }
+    return jar;
+  }
+
+  private static void copy(String resource, JarOutputStream out) throws IOException {
+    try (InputStream in = LineEndsTest.class.getClassLoader().getResourceAsStream(resource)) {
+      if (in == null) {
+        throw new IOException("missing compiled class " + resource);
+      }
+      out.putNextEntry(new JarEntry(resource));
+      copy(in, out);
+      out.closeEntry();
+    }
+  }
+
+  private static void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package net.lambeaux.homework.gr.core;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class RecordJsonTest {
+
+  private static final Gson PRETTY = new GsonBuilder().setPrettyPrinting().create();
+
+  private static final Record REC_SMITH =
+      new Record("Smith", "Bob", "bob.smith@example.net", "red", "01/23/1972");
+
+  private static final Record REC_ESCAPED =
+      new Record(
+          "O'Neil \"Jr\"", "<Al> & \\", "al@example.net", "gr\u00fcn\tish\u2028", "11/05/2994");
+
+  @Test
+  public void testArrayMatchesGsonPrettyPrinting() throws IOException {
+    List<Record> records = Arrays.asList(REC_SMITH, REC_ESCAPED);
+    assertThat(writeArray(records), is(PRETTY.toJson(asMaps(records))));
+    assertThat(writeArray(new ArrayList<>()), is(PRETTY.toJson(new ArrayList<>())));
+  }
+
+  @Test
+  public void testElementIsEncodedOnce() {
+    Record rec = new Record("Smith", "Bob", "bob.smith@example.net", "red", "01/23/1972");
+    assertThat(rec.json(), sameInstance(rec.json()));
+  }
+
+  @Test
+  public void testReadsWhatItWrites() throws IOException {
+    String element = new String(REC_ESCAPED.json(), StandardCharsets.UTF_8);
+    assertThat(RecordJson.read(new JsonReader(new StringReader(element))), is(REC_ESCAPED));
+  }
+
+  private static String writeArray(List<Record> records) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    RecordJson.writeArray(out, records.iterator());
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static List<Map<String, String>> asMaps(List<Record> records) {
+    List<Map<String, String>> maps = new ArrayList<>();
+    for (Record rec : records) {
+      Map<String, String> map = new LinkedHashMap<>();
+      map.put("lastName", rec.getLastName());
+      map.put("firstName", rec.getFirstName());
+      map.put("email", rec.getEmail());
+      map.put("favoriteColor", rec.getFavoriteColor());
+      map.put("dateOfBirth", new SimpleDateFormat("MM/dd/yyyy").format(rec.getDateOfBirth()));
+      maps.add(map);
+    }
+    return maps;
+  }
+}
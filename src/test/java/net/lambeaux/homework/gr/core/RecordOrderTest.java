@@ -0,0 +1,76 @@
+package net.lambeaux.homework.gr.core;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class RecordOrderTest {
+
+  private static final char[] CHARS = {'a', 'b', 'A', ' ', '\u0000', '\u00e9', '\uffff', '\ud83d'};
+
+  @Test
+  public void testMatchesGetterComparators() {
+    List<Record> records = randomRecords(new Random(42), 400);
+    assertSameOrder(records, RecordOrder.EMAIL, Comparator.comparing(Record::getEmail));
+    assertSameOrder(records, RecordOrder.LAST_NAME, Comparator.comparing(Record::getLastName));
+    assertSameOrder(records, RecordOrder.FIRST_NAME, Comparator.comparing(Record::getFirstName));
+    assertSameOrder(
+        records,
+        RecordOrder.NAME,
+        Comparator.comparing(Record::getLastName).thenComparing(Record::getFirstName));
+    assertSameOrder(records, RecordOrder.BIRTHDATE, Comparator.comparing(Record::getDateOfBirth));
+  }
+
+  @Test
+  public void testLazyRecordsHaveKeys() {
+    Record eager = new Record("Smith", "Bob", "bob.smith@example.net", "red", "01/23/1972");
+    Record lazy =
+        Record.lazy(
+            "bob.smith@example.net", "Smith | Bob | bob.smith@example.net | red | 01/23/1972", '|');
+    assertThat(RecordOrder.NAME.compare(eager, lazy), is(0));
+    assertThat(lazy.lastNameKey(), is(eager.lastNameKey()));
+    assertThat(lazy.firstNameKey(), is(eager.firstNameKey()));
+    assertThat(lazy.emailKey(), is(eager.emailKey()));
+  }
+
+  private static void assertSameOrder(
+      List<Record> records, Comparator<Record> actual, Comparator<Record> expected) {
+    for (Record a : records) {
+      for (Record b : records) {
+        if (Integer.signum(actual.compare(a, b)) != Integer.signum(expected.compare(a, b))) {
+          fail(String.format("'%s' and '%s' are ordered differently", a, b));
+        }
+      }
+    }
+  }
+
+  // Short strings over a tiny alphabet, so prefixes collide and strings of every length meet
+  private static List<Record> randomRecords(Random random, int count) {
+    List<Record> records = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      records.add(
+          new Record(
+              "x" + randomString(random),
+              "y" + randomString(random),
+              "z" + randomString(random),
+              "red",
+              String.format("%02d/%02d/%d", random.nextInt(12) + 1, random.nextInt(28) + 1, 1990)));
+    }
+    return records;
+  }
+
+  private static String randomString(Random random) {
+    StringBuilder builder = new StringBuilder();
+    int length = random.nextInt(7);
+    for (int i = 0; i < length; i++) {
+      builder.append(CHARS[random.nextInt(CHARS.length)]);
+    }
+    return builder.toString();
+  }
+}
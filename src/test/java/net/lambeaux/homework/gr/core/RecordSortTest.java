@@ -0,0 +1,86 @@
+package net.lambeaux.homework.gr.core;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class RecordSortTest {
+
+  private static final String[] COLORS = {"red", "green", "blue", "purple"};
+
+  @Test
+  public void testMatchesStableGetterSort() {
+    List<Record> records = randomRecords(new Random(7), 20000, 1950, 60);
+    assertSortedLike(records, "dateOfBirth", Comparator.comparing(Record::getDateOfBirth));
+    assertSortedLike(
+        records,
+        "birthdate:desc",
+        Comparator.comparing(Record::getDateOfBirth, Comparator.reverseOrder()));
+    assertSortedLike(
+        records,
+        "name",
+        Comparator.comparing(Record::getLastName).thenComparing(Record::getFirstName));
+    assertSortedLike(
+        records,
+        "favoriteColor:asc,dateOfBirth:desc,email:asc",
+        Comparator.comparing(Record::getFavoriteColor)
+            .thenComparing(Record::getDateOfBirth, Comparator.reverseOrder())
+            .thenComparing(Record::getEmail));
+  }
+
+  @Test
+  public void testBirthdateSortIsStable() {
+    for (int years : Arrays.asList(1, 150, 3000)) {
+      List<Record> records = randomRecords(new Random(years), 10000, 1000, years);
+      for (boolean descending : Arrays.asList(false, true)) {
+        Comparator<Record> order = Comparator.comparing(Record::getDateOfBirth);
+        Record[] expected = records.toArray(new Record[0]);
+        Arrays.sort(expected, descending ? order.reversed() : order);
+        Record[] actual = records.toArray(new Record[0]);
+        RecordSort.sortByBirthdate(actual, descending);
+        assertSame(expected, actual);
+      }
+    }
+  }
+
+  private static void assertSortedLike(
+      List<Record> records, String spec, Comparator<Record> expectedOrder) {
+    Record[] expected = records.toArray(new Record[0]);
+    Arrays.sort(expected, expectedOrder);
+    List<Record> actual = RecordSort.sort(records, SortSpec.parse(spec));
+    assertThat(actual.size(), is(records.size()));
+    assertSame(expected, actual.toArray(new Record[0]));
+  }
+
+  // Equal records are distinct objects, so identity shows that ties kept their input order
+  private static void assertSame(Record[] expected, Record[] actual) {
+    assertThat(actual.length, is(expected.length));
+    for (int i = 0; i < expected.length; i++) {
+      assertThat(actual[i] == expected[i], is(true));
+    }
+  }
+
+  private static List<Record> randomRecords(Random random, int count, int firstYear, int years) {
+    List<Record> records = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      records.add(
+          new Record(
+              "Last" + random.nextInt(500),
+              "First" + random.nextInt(50),
+              "user" + random.nextInt(count) + "@example.net",
+              COLORS[random.nextInt(COLORS.length)],
+              String.format(
+                  "%02d/%02d/%04d",
+                  random.nextInt(12) + 1,
+                  random.nextInt(28) + 1,
+                  firstYear + random.nextInt(years))));
+    }
+    return records;
+  }
+}
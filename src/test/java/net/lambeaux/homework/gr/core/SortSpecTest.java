@@ -0,0 +1,49 @@
+package net.lambeaux.homework.gr.core;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class SortSpecTest {
+
+  @Test
+  public void testParse() {
+    SortSpec spec = SortSpec.parse("favoriteColor:asc, dateOfBirth:desc,email");
+    assertThat(spec.getFields(), contains("favoriteColor", "dateOfBirth", "email"));
+    assertThat(spec.getDescending(), contains(false, true, false));
+    assertThat(spec.toString(), is("favoriteColor:asc,dateOfBirth:desc,email:asc"));
+    assertThat(SortSpec.parse(spec.toString()), is(spec));
+  }
+
+  @Test
+  public void testAliases() {
+    assertThat(SortSpec.parse("name:desc").toString(), is("lastName:desc,firstName:desc"));
+    assertThat(SortSpec.parse("birthdate").toString(), is("dateOfBirth:asc"));
+    assertThat(SortSpec.parse("birthdate").comparator(), is(sameInstance(RecordOrder.BIRTHDATE)));
+  }
+
+  @Test
+  public void testParsedOnce() {
+    assertThat(
+        SortSpec.parse("lastName:desc,email"),
+        is(sameInstance(SortSpec.parse("lastName:desc,email"))));
+  }
+
+  @Test
+  public void testInvalidSpecs() {
+    for (String spec :
+        Arrays.asList("", "age", "email:up", "email:asc:desc", "email,", "lastname")) {
+      try {
+        SortSpec.parse(spec);
+        fail("Expected sort spec '" + spec + "' to be rejected");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package net.lambeaux.homework.gr.core;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class Utf8LineReaderTest {
+
+  @Test
+  public void testSplitsLikeBufferedReader() throws IOException {
+    String[] inputs = {
+      "",
+      "\n",
+      "one",
+      "one\ntwo\n",
+      "one\r\ntwo\rthree\n\nfour",
+      "\r\r\n\n\r",
+      "Am\u00e9s, Zo\u00eb, zoe.ames@example.net, gr\u00fcn, 11/05/2994\r\n"
+    };
+    for (String input : inputs) {
+      // A tiny buffer puts terminators, including a split CR LF, at every possible boundary
+      for (int bufferSize = 1; bufferSize <= 9; bufferSize++) {
+        assertThat(input, lines(input, bufferSize), is(expected(input)));
+      }
+    }
+  }
+
+  @Test
+  public void testLongLinesGrowTheBuffer() throws IOException {
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      line.append("Smith, Bob, bob.smith@example.net, red, 01/23/1972 ");
+    }
+    assertThat(lines(line + "\nshort", 16), contains(line.toString(), "short"));
+  }
+
+  @Test
+  public void testSwarFindsTheFirstMatchingByte() {
+    Random random = new Random(7);
+    long pattern = Swar.broadcast((byte) '\n');
+    for (int run = 0; run < 10000; run++) {
+      byte[] bytes = new byte[Long.BYTES];
+      long word = 0;
+      int expected = -1;
+      for (int i = Long.BYTES - 1; i >= 0; i--) {
+        // Bytes around the pattern are where a borrow could flag the wrong byte
+        bytes[i] = (byte) ('\n' + random.nextInt(3) - 1 + (random.nextInt(8) == 0 ? 0x80 : 0));
+        word = (word << 8) | (bytes[i] & 0xff);
+      }
+      for (int i = 0; i < Long.BYTES && expected < 0; i++) {
+        expected = bytes[i] == '\n' ? i : -1;
+      }
+      long flags = Swar.matches(word, pattern);
+      assertThat(flags == 0 ? -1 : Swar.firstFlagged(flags), is(expected));
+    }
+  }
+
+  private static List<String> lines(String input, int bufferSize) throws IOException {
+    byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+    List<String> lines = new ArrayList<>();
+    try (Utf8LineReader reader = new Utf8LineReader(new ByteArrayInputStream(bytes), bufferSize)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+    }
+    return lines;
+  }
+
+  private static List<String> expected(String input) throws IOException {
+    List<String> lines = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new StringReader(input))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+    }
+    return lines;
+  }
+}
@@ -0,0 +1,179 @@
+package net.lambeaux.homework.gr.ingest;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import net.lambeaux.homework.gr.core.ContentReader;
+import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.persistence.InMemoryDatabase;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IngestJobsTest {
+
+  private static final Record REC_SMITH =
+      new Record("Smith", "Bob", "bob.smith@example.net", "red", "01/23/1972");
+
+  private static final Record REC_WEAVER =
+      new Record("Weaver", "Ted", "ted.weaver@example.net", "green", "03/13/1988");
+
+  private static final Record REC_AMES =
+      new Record("Ames", "Richard", "redacted@example.net", "unknown", "11/01/1923");
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private InMemoryDatabase db;
+
+  private IngestJobs ingestJobs;
+
+  @Before
+  public void before() {
+    db = new InMemoryDatabase();
+    ingestJobs = new IngestJobs(new ContentReader(), db);
+  }
+
+  @Test
+  public void testJobLoadsFileAndReportsProgress() throws Exception {
+    IngestJob job = ingestJobs.submit(copyTestResource("sample.psv"));
+    assertTrue(job.await(10, TimeUnit.SECONDS));
+
+    IngestJob.Progress progress = job.progress();
+    assertThat(progress.getState(), is(IngestJob.State.SUCCEEDED));
+    assertThat(progress.getLinesRead(), is(3L));
+    assertThat(progress.getRowsAccepted(), is(3L));
+    assertThat(progress.getRowsRejected(), is(0L));
+    assertThat(db.allValues(), containsInAnyOrder(REC_SMITH, REC_WEAVER, REC_AMES));
+  }
+
+  @Test
+  public void testJobCountsRejectedRows() throws Exception {
+    IngestJob job = ingestJobs.submit(copyTestResource("bad-data.csv"));
+    assertTrue(job.await(10, TimeUnit.SECONDS));
+
+    IngestJob.Progress progress = job.progress();
+    assertThat(progress.getState(), is(IngestJob.State.SUCCEEDED));
+    assertThat(progress.getLinesRead(), is(3L));
+    assertThat(progress.getRowsAccepted(), is(1L));
+    assertThat(progress.getRowsRejected(), is(2L));
+    assertThat(db.allValues(), containsInAnyOrder(REC_WEAVER));
+  }
+
+  @Test
+  public void testJobsAreTracked() throws Exception {
+    IngestJob first = ingestJobs.submit(copyTestResource("sample.csv"));
+    IngestJob second = ingestJobs.submit(copyTestResource("sample.ssv"));
+    assertTrue(first.await(10, TimeUnit.SECONDS));
+    assertTrue(second.await(10, TimeUnit.SECONDS));
+
+    assertThat(ingestJobs.get(first.getId()).isPresent(), is(true));
+    assertThat(ingestJobs.get(second.getId()).isPresent(), is(true));
+    assertThat(ingestJobs.get(second.getId() + 1).isPresent(), is(false));
+    assertThat(db.allValues(), containsInAnyOrder(REC_SMITH, REC_WEAVER, REC_AMES));
+  }
+
+  @Test
+  public void testDirectoryAppliesFilesInPathOrder() throws Exception {
+    Path dir = folder.newFolder("drop").toPath();
+    write(dir.resolve("b.psv"), "Smith | Robert | bob.smith@example.net | blue | 01/23/1972");
+    write(dir.resolve("a.csv"), "Smith, Bob, bob.smith@example.net, red, 01/23/1972");
+    write(dir.resolve("notes.txt"), "not data");
+
+    IngestJob job = ingestJobs.submit(dir);
+    assertTrue(job.await(10, TimeUnit.SECONDS));
+
+    IngestJob.Progress progress = job.progress();
+    assertThat(progress.getState(), is(IngestJob.State.SUCCEEDED));
+    assertThat(progress.getFilesTotal(), is(2));
+    assertThat(progress.getFilesDone(), is(2L));
+    assertThat(progress.getRowsAccepted(), is(2L));
+    assertThat(
+        db.allValues(),
+        containsInAnyOrder(
+            new Record("Smith", "Robert", "bob.smith@example.net", "blue", "01/23/1972")));
+  }
+
+  @Test
+  public void testDirectorySkipsQuarantinedLines() throws Exception {
+    Path dir = folder.newFolder("drop").toPath();
+    copyTestResource("bad-data.csv", dir);
+
+    for (int run = 0; run < 2; run++) {
+      IngestJob job = ingestJobs.submit(dir);
+      assertTrue(job.await(10, TimeUnit.SECONDS));
+      assertThat(job.getFiles(), contains(dir.resolve("bad-data.csv")));
+      assertThat(job.progress().getRowsRejected(), is(2L));
+    }
+    assertThat(Files.exists(dir.resolve("bad-data.rejected.csv")), is(true));
+    assertThat(Files.exists(dir.resolve("bad-data-2.rejected.csv")), is(true));
+    assertThat(Files.exists(dir.resolve("bad-data.rejected.rejected.csv")), is(false));
+  }
+
+  @Test
+  public void testGlobMatchesSupportedFiles() throws Exception {
+    Path dir = folder.newFolder("drop", "2021-01").toPath();
+    copyTestResource("sample.csv", dir);
+    copyTestResource("sample.ssv", dir);
+    copyTestResource("sample.psv", folder.getRoot().toPath());
+
+    IngestJob job = ingestJobs.submit(folder.getRoot().toPath(), "drop/2021-*/*.csv");
+    assertTrue(job.await(10, TimeUnit.SECONDS));
+
+    assertThat(job.getFiles(), contains(dir.resolve("sample.csv")));
+    assertThat(job.progress().getState(), is(IngestJob.State.SUCCEEDED));
+    assertThat(db.allValues(), containsInAnyOrder(REC_SMITH, REC_WEAVER, REC_AMES));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSubmitEmptyDirectory() throws IOException {
+    ingestJobs.submit(folder.newFolder("empty").toPath());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSubmitUnmatchedGlob() {
+    ingestJobs.submit(folder.getRoot().toPath(), "*.csv");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSubmitMissingFile() {
+    ingestJobs.submit(folder.getRoot().toPath().resolve("does-not-exist.csv"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSubmitUnsupportedFile() throws IOException {
+    ingestJobs.submit(copyTestResource("unsupported.txt"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReplicaRefusesJobs() throws IOException {
+    new IngestJobs(new ContentReader(), db, "localhost:9090")
+        .submit(copyTestResource("sample.csv"));
+  }
+
+  private Path copyTestResource(String fileName) throws IOException {
+    return copyTestResource(fileName, folder.getRoot().toPath());
+  }
+
+  private static Path copyTestResource(String fileName, Path dir) throws IOException {
+    Path dest = dir.resolve(fileName);
+    try (InputStream in = IngestJobsTest.class.getResourceAsStream("/sample-data/" + fileName)) {
+      Files.copy(in, dest);
+    }
+    return dest;
+  }
+
+  private static void write(Path file, String line) throws IOException {
+    Files.write(file, Collections.singletonList(line), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,77 @@
+package net.lambeaux.homework.gr.persistence;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import net.lambeaux.homework.gr.core.Record;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangeFeedTest {
+
+  private static final Record REC_SMITH =
+      new Record("Smith", "Bob", "bob.smith@example.net", "red", "01/23/1972");
+
+  private static final Record REC_SMITH_UPDATED =
+      new Record("Smith", "Robert", "bob.smith@example.net", "blue", "01/23/1972");
+
+  private static final Record REC_WEAVER =
+      new Record("Weaver", "Ted", "ted.weaver@example.net", "green", "03/13/1988");
+
+  private static final Record REC_AMES =
+      new Record("Ames", "Sarah", "sarah.ames@example.net", "yellow", "11/05/1994");
+
+  private InMemoryDatabase db;
+
+  @Before
+  public void before() {
+    db = new InMemoryDatabase();
+  }
+
+  @Test
+  public void testEveryWriteIsPublishedInOrder() {
+    db.put(REC_SMITH.getEmail(), REC_SMITH);
+    db.putAll(Arrays.asList(REC_WEAVER, REC_SMITH_UPDATED));
+    ChangeFeed.Batch batch = db.changes().readAfter(0L, 10);
+    assertThat(batch.getFromSequence(), is(1L));
+    assertThat(batch.getToSequence(), is(3L));
+    assertThat(batch.getMissed(), is(0L));
+    assertThat(batch.getRecords(), contains(REC_SMITH, REC_WEAVER, REC_SMITH_UPDATED));
+  }
+
+  @Test
+  public void testResumeAfterSequence() {
+    db.putAll(Arrays.asList(REC_SMITH, REC_WEAVER, REC_AMES));
+    assertThat(db.changes().readAfter(1L, 1).getRecords(), contains(REC_WEAVER));
+    assertThat(db.changes().readAfter(3L, 10).getRecords(), is(empty()));
+  }
+
+  @Test
+  public void testOverwrittenChangesAreReportedAsMissed() {
+    ChangeFeed feed = new ChangeFeed(2);
+    feed.publish(Arrays.asList(REC_SMITH, REC_WEAVER, REC_AMES));
+    ChangeFeed.Batch batch = feed.readAfter(0L, 10);
+    assertThat(batch.getFromSequence(), is(2L));
+    assertThat(batch.getMissed(), is(1L));
+    assertThat(batch.getRecords(), contains(REC_WEAVER, REC_AMES));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCannotReadAheadOfHead() {
+    db.put(REC_SMITH.getEmail(), REC_SMITH);
+    db.changes().readAfter(2L, 10);
+  }
+
+  @Test
+  public void testAwaitReturnsOnceSomethingIsPublished() throws Exception {
+    assertThat(db.changes().awaitAfter(0L, 10, TimeUnit.MILLISECONDS), is(0L));
+    Thread writer = new Thread(() -> db.put(REC_SMITH.getEmail(), REC_SMITH));
+    writer.start();
+    assertThat(db.changes().awaitAfter(0L, 10, TimeUnit.SECONDS), is(1L));
+    writer.join();
+  }
+}
@@ -0,0 +1,78 @@
+package net.lambeaux.homework.gr.persistence;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class EmailIndexTest {
+
+  private final List<String> emails = new ArrayList<>();
+
+  private String email(int i) {
+    return "person" + i + "@example.net";
+  }
+
+  private String emailAt(int position) {
+    return position < emails.size() ? emails.get(position) : null;
+  }
+
+  @Test
+  public void testPutAndGetAcrossResizes() {
+    EmailIndex index = new EmailIndex();
+    for (int i = 0; i < 50_000; i++) {
+      emails.add(email(i));
+      assertThat(index.put(email(i), i, this::emailAt), is(-1));
+    }
+    assertThat(index.size(), is(50_000));
+    for (int i = 0; i < 50_000; i++) {
+      assertThat(index.get(email(i), this::emailAt), is(i));
+    }
+    assertThat(index.get("nobody@example.net", this::emailAt), is(-1));
+  }
+
+  @Test
+  public void testPutKeepsPositionOfExistingEmail() {
+    EmailIndex index = new EmailIndex();
+    emails.add(email(1));
+    index.put(email(1), 0, this::emailAt);
+    assertThat(index.put(email(1), 1, this::emailAt), is(0));
+    assertThat(index.size(), is(1));
+    assertThat(index.get(email(1), this::emailAt), is(0));
+  }
+
+  @Test
+  public void testGetSkipsPositionsUnknownToTheCaller() {
+    EmailIndex index = new EmailIndex();
+    emails.add(email(0));
+    index.put(email(0), 0, this::emailAt);
+    index.put(email(1), 1, this::emailAt);
+    assertThat(index.get(email(1), this::emailAt), is(-1));
+    emails.add(email(1));
+    assertThat(index.get(email(1), this::emailAt), is(1));
+  }
+
+  @Test
+  public void testRemovedEntriesAreSkippedAndDroppedOnResize() {
+    EmailIndex index = new EmailIndex();
+    for (int i = 0; i < 1000; i++) {
+      emails.add(email(i));
+      index.put(email(i), i, this::emailAt);
+    }
+    for (int i = 0; i < 1000; i += 2) {
+      index.remove(email(i), i);
+    }
+    assertThat(index.size(), is(500));
+    for (int i = 1000; i < 20_000; i++) {
+      emails.add(email(i));
+      assertThat(index.put(email(i), i, this::emailAt), is(-1));
+    }
+    for (int i = 0; i < 20_000; i++) {
+      assertThat(index.get(email(i), this::emailAt), is(i < 1000 && i % 2 == 0 ? -1 : i));
+    }
+    assertThat(index.put(email(0), 20_000, this::emailAt), is(-1));
+    assertThat(index.size(), is(19_501));
+  }
+}
@@ -1,4 +1,281 @@
 package net.lambeaux.homework.gr.persistence;
 
-// Not enough substantial functionality yet
-public class InMemoryDatabaseTest {}
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.core.RecordJson;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InMemoryDatabaseTest {
+
+  private static final Record REC_SMITH =
+      new Record("Smith", "Bob", "bob.smith@example.net", "red", "01/23/1972");
+
+  private static final Record REC_SMITH_UPDATED =
+      new Record("Smith", "Robert", "bob.smith@example.net", "blue", "01/23/1972");
+
+  private static final Record REC_WEAVER =
+      new Record("Weaver", "Ted", "ted.weaver@example.net", "green", "03/13/1988");
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private InMemoryDatabase db;
+
+  @Before
+  public void before() {
+    db = new InMemoryDatabase();
+  }
+
+  @Test
+  public void testPutAllLastWriterWins() {
+    db.putAll(Arrays.asList(REC_SMITH, REC_WEAVER, REC_SMITH_UPDATED));
+    assertThat(db.allValues(), containsInAnyOrder(REC_SMITH_UPDATED, REC_WEAVER));
+  }
+
+  @Test
+  public void testPutAllOverwritesPriorPut() {
+    db.put(REC_SMITH.getEmail(), REC_SMITH);
+    db.putAll(Collections.singletonList(REC_SMITH_UPDATED));
+    assertThat(db.allValues(), containsInAnyOrder(REC_SMITH_UPDATED));
+  }
+
+  @Test
+  public void testGetFindsLatestRecord() {
+    db.putAll(Arrays.asList(REC_SMITH, REC_WEAVER));
+    db.put(REC_SMITH_UPDATED.getEmail(), REC_SMITH_UPDATED);
+    assertThat(db.get(REC_SMITH.getEmail()), is(REC_SMITH_UPDATED));
+    assertThat(db.get(REC_WEAVER.getEmail()), is(REC_WEAVER));
+    assertThat(db.get("nobody@example.net"), is(nullValue()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPutRequiresEmailKey() {
+    db.put("someone.else@example.net", REC_SMITH);
+  }
+
+  @Test
+  public void testVersionBumpsOncePerBatch() {
+    db.put(REC_SMITH.getEmail(), REC_SMITH);
+    assertThat(db.version(), is(1L));
+    db.putAll(Arrays.asList(REC_SMITH_UPDATED, REC_WEAVER));
+    assertThat(db.version(), is(2L));
+    db.putAll(Collections.emptyList());
+    assertThat(db.version(), is(2L));
+  }
+
+  @Test
+  public void testAllValuesIsDetachedFromLaterWrites() {
+    db.put(REC_SMITH.getEmail(), REC_SMITH);
+    Collection<Record> before = db.allValues();
+    db.putAll(Arrays.asList(REC_SMITH_UPDATED, REC_WEAVER));
+    assertThat(before, containsInAnyOrder(REC_SMITH));
+  }
+
+  @Test
+  public void testSnapshotIsStableWhileWritersContinue() throws InterruptedException {
+    db.putAll(records(0, 5_000));
+    InMemoryDatabase.Snapshot pinned = db.snapshot();
+    Thread writer =
+        new Thread(
+            () -> {
+              for (int i = 0; i < 20; i++) {
+                db.putAll(records(i * 1_000, 3_000));
+              }
+            });
+    writer.start();
+    for (int round = 0; round < 50; round++) {
+      Collection<Record> values = db.allValues();
+      int size = values.size();
+      assertThat(new HashSet<>(values).size(), is(size));
+      assertThat(pinned.getRecords(), is(records(0, 5_000)));
+    }
+    writer.join();
+    assertThat(db.allValues().size(), is(22_000));
+    assertThat(db.snapshot().getSequence(), is(65_000L));
+    assertThat(pinned.getSequence(), is(5_000L));
+  }
+
+  @Test
+  public void testSearchRanksAndFollowsOverwrites() {
+    Record smithson = new Record("Smithson", "Ann", "ann@example.net", "red", "01/23/1972");
+    Record blacksmith = new Record("Blacksmith", "Joe", "joe@example.net", "red", "01/23/1972");
+    db.putAll(Arrays.asList(REC_SMITH, REC_WEAVER, smithson, blacksmith));
+
+    assertThat(db.search("SMITH", 10), contains(REC_SMITH, smithson, blacksmith));
+    assertThat(db.search("smith", 1), contains(REC_SMITH));
+    assertThat(db.search("sm bob", 10), contains(REC_SMITH));
+    assertThat(db.search("ted weaver", 10), contains(REC_WEAVER));
+    assertThat(db.search("mi", 10), is(Collections.emptyList()));
+    assertThat(db.search("nobody", 10), is(Collections.emptyList()));
+
+    db.put(REC_SMITH_UPDATED.getEmail(), REC_SMITH_UPDATED);
+    assertThat(db.search("bob", 10), contains(REC_SMITH_UPDATED));
+    assertThat(db.search("robert", 10), contains(REC_SMITH_UPDATED));
+    Record jones = new Record("Jones", "Bob", REC_SMITH.getEmail(), "red", "01/23/1972");
+    db.put(REC_SMITH.getEmail(), jones);
+    assertThat(db.search("smith", 10), contains(smithson, blacksmith, jones));
+    assertThat(db.search("sm bob", 10), is(Collections.emptyList()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSearchRejectsShortTerms() {
+    db.search("bob s", 10);
+  }
+
+  @Test
+  public void testTieredStorageEvictsAndCompacts() throws IOException {
+    Path dir = folder.newFolder("cold").toPath();
+    InMemoryDatabase tiered = new InMemoryDatabase(100, dir, 4096);
+    try {
+      for (int i = 0; i < 5_000; i += 500) {
+        tiered.putAll(records(i, 500));
+      }
+      assertThat(tiered.hotRecords(), is(100));
+      assertThat(tiered.get("person42@example.net"), is(records(42, 1).get(0)));
+      assertThat(new HashSet<>(tiered.allValues()), is(new HashSet<>(records(0, 5_000))));
+
+      List<Record> updated = new ArrayList<>();
+      for (Record rec : records(0, 4_000)) {
+        updated.add(
+            new Record(
+                rec.getLastName(), rec.getFirstName(), rec.getEmail(), "blue", "02/02/1990"));
+      }
+      Collection<Record> before = tiered.allValues();
+      tiered.putAll(updated);
+      while (tiered.compact()) {
+        // Compact every qualifying segment
+      }
+      assertThat(segmentFiles(dir) < segmentsCreated(dir), is(true));
+      assertThat(tiered.get("person42@example.net").getFavoriteColor(), is("blue"));
+      assertThat(tiered.get("person4242@example.net").getFavoriteColor(), is("red"));
+      assertThat(tiered.allValues().size(), is(5_000));
+      assertThat(before, is(records(0, 5_000)));
+    } finally {
+      tiered.close();
+    }
+    assertThat(segmentFiles(dir), is(0));
+  }
+
+  @Test
+  public void testEvictedRecordsKeepTheirJson() throws IOException {
+    InMemoryDatabase tiered = new InMemoryDatabase(1, folder.newFolder("cold").toPath(), 4096);
+    try {
+      byte[] marker = "{ \"cached\": true }".getBytes(StandardCharsets.UTF_8);
+      Record rec = new Record("Smith", "Bob", "bob.smith@example.net", "red", "01/23/1972");
+      tiered.putAll(Collections.singletonList(RecordJson.withEncoded(rec, marker)));
+      tiered.putAll(records(0, 10));
+      assertThat(tiered.hotRecords(), is(1));
+
+      Record read = tiered.get("bob.smith@example.net");
+      assertThat(read, is(not(sameInstance(rec))));
+      assertThat(RecordJson.encoded(read), is(marker));
+    } finally {
+      tiered.close();
+    }
+  }
+
+  @Test
+  public void testFailedBatchLeavesNoIndexEntries() throws IOException {
+    InMemoryDatabase tiered = new InMemoryDatabase(1, folder.newFolder("cold").toPath(), 256);
+    try {
+      tiered.put(REC_SMITH.getEmail(), REC_SMITH);
+      StringBuilder huge = new StringBuilder();
+      for (int i = 0; i < 300; i++) {
+        huge.append('x');
+      }
+      Record tooLarge =
+          new Record(huge.toString(), "Ted", "ted.weaver@example.net", "green", "03/13/1988");
+      Record ames = new Record("Ames", "Sarah", "sarah.ames@example.net", "yellow", "11/05/1994");
+      try {
+        // Evicting the oversized record to a segment fails after the index was updated
+        tiered.putAll(Arrays.asList(tooLarge, ames));
+        fail("Expected the oversized record not to fit a segment");
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+      assertThat(tiered.version(), is(1L));
+      assertThat(tiered.get(REC_WEAVER.getEmail()), is(nullValue()));
+      assertThat(tiered.hotRecords(), is(1));
+
+      tiered.putAll(Arrays.asList(REC_WEAVER, ames));
+      assertThat(tiered.get(REC_WEAVER.getEmail()), is(REC_WEAVER));
+      assertThat(tiered.get(ames.getEmail()), is(ames));
+      assertThat(tiered.get(REC_SMITH.getEmail()), is(REC_SMITH));
+    } finally {
+      tiered.close();
+    }
+  }
+
+  @Test
+  public void testCompactorSurvivesFailures() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    InMemoryDatabase failing =
+        new InMemoryDatabase(1, folder.newFolder("cold").toPath(), 4096) {
+          @Override
+          boolean compact() {
+            attempts.incrementAndGet();
+            throw new UncheckedIOException("no space left", new IOException("disk full"));
+          }
+        };
+    try {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (attempts.get() < 2 && System.nanoTime() < deadline) {
+        Thread.sleep(50);
+      }
+      assertThat(attempts.get() >= 2, is(true));
+    } finally {
+      failing.close();
+    }
+  }
+
+  // Segment files are numbered in creation order, so gaps are segments deleted by compaction
+  private static int segmentsCreated(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files
+              .map(file -> file.getFileName().toString().replaceAll("\\D", ""))
+              .mapToInt(Integer::parseInt)
+              .max()
+              .orElse(-1)
+          + 1;
+    }
+  }
+
+  private static int segmentFiles(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return (int) files.count();
+    }
+  }
+
+  private static List<Record> records(int first, int count) {
+    List<Record> records = new ArrayList<>();
+    for (int i = first; i < first + count; i++) {
+      records.add(
+          new Record("Last" + i, "First", "person" + i + "@example.net", "red", "01/23/1972"));
+    }
+    return records;
+  }
+}
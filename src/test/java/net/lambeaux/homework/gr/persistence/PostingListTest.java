@@ -0,0 +1,57 @@
+package net.lambeaux.homework.gr.persistence;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.Test;
+
+public class PostingListTest {
+
+  @Test
+  public void testUpdatesMatchSortedSet() {
+    Random random = new Random(3);
+    TreeSet<Integer> expected = new TreeSet<>();
+    PostingList list = PostingList.EMPTY;
+    for (int round = 0; round < 200; round++) {
+      TreeSet<Integer> adds = new TreeSet<>();
+      TreeSet<Integer> removes = new TreeSet<>();
+      for (int i = 0; i < random.nextInt(300); i++) {
+        int position = random.nextInt(20_000);
+        if (random.nextInt(3) == 0) {
+          removes.add(position);
+        } else {
+          adds.add(position);
+        }
+      }
+      removes.removeAll(adds);
+      list = list.update(toArray(adds), toArray(removes));
+      expected.addAll(adds);
+      expected.removeAll(removes);
+
+      assertThat(list.size(), is(expected.size()));
+      assertThat(list.toArray(), is(toArray(expected)));
+      for (int probe = 0; probe < 50; probe++) {
+        int position = random.nextInt(20_000);
+        assertThat(list.contains(position), is(expected.contains(position)));
+      }
+    }
+  }
+
+  @Test
+  public void testPackedListsCompress() {
+    int[] positions = new int[100_000];
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = i * 3;
+    }
+    PostingList list = PostingList.pack(positions);
+    assertThat(list.toArray(), is(positions));
+    assertThat(list.contains(299_997), is(true));
+    assertThat(list.contains(299_998), is(false));
+  }
+
+  private static int[] toArray(TreeSet<Integer> values) {
+    return values.stream().mapToInt(Integer::intValue).toArray();
+  }
+}
@@ -0,0 +1,49 @@
+package net.lambeaux.homework.gr.persistence;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.lambeaux.homework.gr.core.Record;
+import org.junit.Test;
+
+public class RecordVersionTest {
+
+  private static Record rec(int i, String color) {
+    return new Record("Last" + i, "First" + i, "person" + i + "@example.net", color, "01/23/1972");
+  }
+
+  @Test
+  public void testBuilderLeavesBaseVersionUntouched() {
+    RecordVersion.Builder first = RecordVersion.EMPTY.toBuilder();
+    List<Record> expected = new ArrayList<>();
+    for (int i = 0; i < 2_500; i++) {
+      assertThat(first.add(rec(i, "red")), is(i));
+      expected.add(rec(i, "red"));
+    }
+    RecordVersion base = first.build(1L, 2_500L, null);
+
+    RecordVersion.Builder second = base.toBuilder();
+    second.set(0, rec(0, "blue"));
+    second.set(2_000, rec(2_000, "blue"));
+    second.add(rec(2_500, "blue"));
+    RecordVersion next = second.build(2L, 2_503L, null);
+
+    assertThat(base.records(), is(expected));
+    assertThat(next.size(), is(2_501));
+    assertThat(next.records().get(0), is(rec(0, "blue")));
+    assertThat(next.records().get(1), is(rec(1, "red")));
+    assertThat(next.records().get(2_000), is(rec(2_000, "blue")));
+    assertThat(next.records().get(2_500), is(rec(2_500, "blue")));
+    assertThat(next.version(), is(2L));
+    assertThat(next.sequence(), is(2_503L));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testRecordsAreBoundedBySize() {
+    RecordVersion.Builder builder = RecordVersion.EMPTY.toBuilder();
+    builder.add(rec(0, "red"));
+    builder.build(1L, 1L, null).records().get(1);
+  }
+}
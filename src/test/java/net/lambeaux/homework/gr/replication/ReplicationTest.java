@@ -0,0 +1,172 @@
+package net.lambeaux.homework.gr.replication;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.DataOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import net.lambeaux.homework.gr.core.Record;
+import net.lambeaux.homework.gr.persistence.InMemoryDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplicationTest {
+
+  private static final Record REC_SMITH =
+      new Record("Smith", "Bob", "bob.smith@example.net", "red", "01/23/1972");
+
+  private static final Record REC_SMITH_UPDATED =
+      new Record("Smith", "Robert", "bob.smith@example.net", "blue", "01/23/1972");
+
+  private static final Record REC_WEAVER =
+      new Record("Weaver", "Ted", "ted.weaver@example.net", "green", "03/13/1988");
+
+  private static final Record REC_AMES =
+      new Record("Ames", "Sarah", "sarah.ames@example.net", "yellow", "11/05/1994");
+
+  private InMemoryDatabase leaderDb;
+
+  private ReplicationLeader leader;
+
+  private ReplicationFollower follower;
+
+  @Before
+  public void before() throws Exception {
+    leaderDb = new InMemoryDatabase();
+    leader = new ReplicationLeader(leaderDb, 0);
+  }
+
+  @After
+  public void after() throws Exception {
+    if (follower != null) {
+      follower.close();
+    }
+    leader.close();
+  }
+
+  @Test
+  public void testFollowerBootstrapsFromSnapshot() throws Exception {
+    leaderDb.putAll(Arrays.asList(REC_SMITH, REC_WEAVER));
+    InMemoryDatabase followerDb = new InMemoryDatabase();
+    follower = new ReplicationFollower(followerDb, "localhost", leader.getPort());
+
+    awaitTrue(() -> follower.isSnapshotLoaded());
+    assertThat(follower.status().getAppliedSequence(), is(2L));
+    assertThat(followerDb.allValues(), containsInAnyOrder(REC_SMITH, REC_WEAVER));
+    assertThat(follower.status().getLag(), is(0L));
+  }
+
+  @Test
+  public void testFollowerStoresSnapshotAsOneVersion() throws Exception {
+    List<Record> records = new ArrayList<>();
+    for (int i = 0; i < ReplicationLeader.SNAPSHOT_CHUNK_SIZE * 2 + 1; i++) {
+      records.add(new Record("Smith", "Bob", "bob" + i + "@example.net", "red", "01/23/1972"));
+    }
+    leaderDb.putAll(records);
+    InMemoryDatabase followerDb = new InMemoryDatabase();
+    follower = new ReplicationFollower(followerDb, "localhost", leader.getPort());
+
+    awaitTrue(() -> follower.status().getAppliedSequence() == records.size());
+    assertThat(followerDb.allValues().size(), is(records.size()));
+    assertThat(followerDb.version(), is(1L));
+  }
+
+  @Test
+  public void testFollowerTailsChangesInOrder() throws Exception {
+    InMemoryDatabase followerDb = new InMemoryDatabase();
+    follower = new ReplicationFollower(followerDb, "localhost", leader.getPort());
+    awaitTrue(() -> follower.status().getAppliedSequence() == 0L);
+
+    leaderDb.put(REC_SMITH.getEmail(), REC_SMITH);
+    leaderDb.putAll(Arrays.asList(REC_WEAVER, REC_SMITH_UPDATED));
+    leaderDb.put(REC_AMES.getEmail(), REC_AMES);
+
+    awaitTrue(() -> follower.status().getAppliedSequence() == 4L);
+    assertThat(followerDb.allValues(), containsInAnyOrder(REC_SMITH_UPDATED, REC_WEAVER, REC_AMES));
+    awaitTrue(() -> leader.status().getFollowers().get(0).getLag() == 0L);
+  }
+
+  @Test
+  public void testFollowerResumesAfterLeaderRestart() throws Exception {
+    leaderDb.put(REC_SMITH.getEmail(), REC_SMITH);
+    InMemoryDatabase followerDb = new InMemoryDatabase();
+    follower = new ReplicationFollower(followerDb, "localhost", leader.getPort());
+    awaitTrue(() -> follower.status().getAppliedSequence() == 1L);
+
+    int port = leader.getPort();
+    leader.close();
+    awaitTrue(() -> !follower.status().isConnected());
+    leaderDb.put(REC_WEAVER.getEmail(), REC_WEAVER);
+    leader = new ReplicationLeader(leaderDb, port);
+
+    awaitTrue(() -> follower.status().getAppliedSequence() == 2L);
+    assertThat(followerDb.allValues(), containsInAnyOrder(REC_SMITH, REC_WEAVER));
+  }
+
+  @Test
+  public void testFollowerReloadsAfterLeaderProcessRestart() throws Exception {
+    leaderDb.put(REC_SMITH.getEmail(), REC_SMITH);
+    InMemoryDatabase followerDb = new InMemoryDatabase();
+    follower = new ReplicationFollower(followerDb, "localhost", leader.getPort());
+    awaitTrue(() -> follower.status().getAppliedSequence() == 1L);
+
+    // A new process starts a new feed, its sequences overlap the ones the follower has applied
+    int port = leader.getPort();
+    leader.close();
+    awaitTrue(() -> !follower.status().isConnected());
+    leaderDb = new InMemoryDatabase();
+    leaderDb.putAll(Arrays.asList(REC_WEAVER, REC_AMES));
+    leader = new ReplicationLeader(leaderDb, port);
+
+    awaitTrue(() -> follower.status().isConnected());
+    awaitTrue(() -> follower.status().getAppliedSequence() == 2L);
+    assertThat(followerDb.get(REC_WEAVER.getEmail()), is(REC_WEAVER));
+    assertThat(followerDb.get(REC_AMES.getEmail()), is(REC_AMES));
+  }
+
+  @Test
+  public void testLeaderDropsFollowerThatStopsReading() throws Exception {
+    InMemoryDatabase followerDb = new InMemoryDatabase();
+    follower = new ReplicationFollower(followerDb, "localhost", leader.getPort());
+    awaitTrue(() -> follower.status().getAppliedSequence() == 0L);
+    try (Socket stuck = new Socket()) {
+      stuck.setReceiveBufferSize(4096);
+      stuck.connect(new InetSocketAddress("localhost", leader.getPort()));
+      DataOutputStream out = new DataOutputStream(stuck.getOutputStream());
+      out.writeLong(leaderDb.changes().epoch());
+      out.writeLong(0L);
+      out.flush();
+      awaitTrue(() -> leader.status().getFollowers().size() == 2);
+
+      // Far more than the socket buffers hold, yet few enough changes for the feed to retain
+      char[] padding = new char[2000];
+      Arrays.fill(padding, 'x');
+      List<Record> records = new ArrayList<>();
+      for (int i = 0; i < 20000; i++) {
+        String email = "bob" + i + "@example.net";
+        records.add(new Record("Smith", new String(padding), email, "red", "01/23/1972"));
+      }
+      leaderDb.putAll(records);
+
+      awaitTrue(() -> leader.status().getFollowers().size() == 1);
+      awaitTrue(() -> follower.status().getAppliedSequence() == 20000L);
+      assertThat(follower.status().isConnected(), is(true));
+    }
+  }
+
+  private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(condition.getAsBoolean(), is(true));
+  }
+}